@@ -1,51 +1,254 @@
 package dev.evelyn.taskscheduler;
 
+import dev.evelyn.taskscheduler.exceptions.ServerException;
 import dev.evelyn.taskscheduler.metrics.AlertSystem;
 
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+// This class represents a circuit breaker that can be used to prevent sending requests to a remote server if it is experiencing issues
+// Successes and failures are counted in a sliding time window, split into buckets in a ring, and the breaker opens once
+// the window holds at least acceptableFailures failures and its failure rate reaches the threshold. After the timeout
+// it goes half-open and lets a few probe requests through: if they all succeed it closes, and if any fails it opens
+// again. Nothing here takes a lock, so servers can report results from any number of threads.
 public class CircuitBreaker {
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    private static final long DEFAULT_WINDOW_MS = 10_000;
+    private static final int DEFAULT_BUCKET_COUNT = 10;
+
     private final int acceptableFailures;
     private final long timeout;
-    private int failures;
-    private long lastFailureTime;
-    private boolean open;
+    private final TimeSource timeSource;
+    // Fraction of requests in the window that must fail before the breaker opens (0 opens on failure count alone)
+    private volatile double failureRateThreshold = 0.0;
+    // Number of probe requests let through while half-open, all of which must succeed for the breaker to close
+    private volatile int halfOpenProbes = 1;
+    private volatile SlidingWindow window = new SlidingWindow(DEFAULT_WINDOW_MS, DEFAULT_BUCKET_COUNT);
+    // The current state, replaced as a whole on each transition so probe permits belong to a single half-open period
+    private final AtomicReference<Phase> phase;
+    // Number of transitions into each state, indexed by ordinal
+    private final AtomicLongArray transitionCounts = new AtomicLongArray(State.values().length);
 
-    // This class represents a circuit breaker that can be used to prevent sending requests to a remote server if it is experiencing issues
     public CircuitBreaker(int acceptableFailures, long timeout) {
-        this.acceptableFailures = acceptableFailures;
+        this(acceptableFailures, timeout, TimeSource.SYSTEM);
+    }
+
+    // Constructor with a custom time source, such as the virtual clock of a simulation
+    public CircuitBreaker(int acceptableFailures, long timeout, TimeSource timeSource) {
+        this.acceptableFailures = Math.max(1, acceptableFailures); // A breaker can't open before its first failure
         this.timeout = timeout;
-        this.failures = 0;
-        this.lastFailureTime = 0;
-        this.open = false;
-    }
-
-    public synchronized boolean canSendRequest() {
-        if (open) { // If the circuit breaker is open, check if it should be closed
-            // It should be closed if the timeout has passed since the last failure
-            if (System.currentTimeMillis() - lastFailureTime > timeout) {
-                open = false;
-                failures = 0;
-                AlertSystem.sendAlertInfo("Circuit breaker closed");
+        this.timeSource = timeSource;
+        this.phase = new AtomicReference<>(new Phase(State.CLOSED, timeSource.currentTimeMillis(), 0));
+    }
+
+    // Whether a request can be sent right now
+    // While half-open this takes one of the probe permits, so the caller should report how the request went.
+    public boolean canSendRequest() {
+        while (true) {
+            Phase current = phase.get();
+            if (current.state == State.CLOSED) {
                 return true;
-            } else {
-                return false;
             }
-        } else {
-            return true;
+            long now = timeSource.currentTimeMillis();
+            if (current.state == State.OPEN) {
+                if (now - current.since < timeout) {
+                    return false;
+                }
+                // The timeout has passed, so start letting probes through
+                transition(current, new Phase(State.HALF_OPEN, now, halfOpenProbes));
+                continue;
+            }
+            if (current.probesLeft.getAndUpdate(probes -> probes > 0 ? probes - 1 : 0) > 0) {
+                return true;
+            }
+            // Probes that never report back would otherwise hold the breaker half-open forever
+            if (now - current.since >= timeout) {
+                transition(current, new Phase(State.OPEN, now, 0));
+            }
+            return false;
+        }
+    }
+
+    // Report a request that succeeded
+    public void reportSuccess() {
+        long now = timeSource.currentTimeMillis();
+        window.record(now, false);
+        Phase current = phase.get();
+        if (current.state == State.HALF_OPEN && current.probeSuccesses.incrementAndGet() >= current.probeCount) {
+            if (transition(current, new Phase(State.CLOSED, now, 0))) {
+                window.clear(); // Failures from before the breaker opened shouldn't count against the recovered server
+            }
+        }
+    }
+
+    // Report a request that failed
+    public void reportFailure() {
+        long now = timeSource.currentTimeMillis();
+        window.record(now, true);
+        Phase current = phase.get();
+        if (current.state == State.HALF_OPEN) { // A failed probe means the server hasn't recovered yet
+            transition(current, new Phase(State.OPEN, now, 0));
+        } else if (current.state == State.CLOSED && shouldOpen(now)) {
+            transition(current, new Phase(State.OPEN, now, 0));
         }
     }
 
-    public synchronized void reportFailure() { // Report a failure to the circuit breaker
-        failures++;
-        lastFailureTime = System.currentTimeMillis();
-        if (failures >= acceptableFailures) { // If the number of failures exceeds the acceptable threshold, open the circuit breaker
+    // Whether the failures in the window are enough to open the breaker
+    private boolean shouldOpen(long now) {
+        long[] counts = window.count(now);
+        long failures = counts[1];
+        long requests = counts[0] + failures;
+        return failures >= acceptableFailures && (double) failures / requests >= failureRateThreshold;
+    }
+
+    // Move from one state to another, returning false if another thread moved it first
+    private boolean transition(Phase from, Phase to) {
+        if (!phase.compareAndSet(from, to)) {
+            return false;
+        }
+        transitionCounts.incrementAndGet(to.state.ordinal());
+        if (to.state == State.OPEN) {
             AlertSystem.sendAlertWarning("Circuit breaker opened");
-            open = true;
+        } else if (to.state == State.HALF_OPEN) {
+            AlertSystem.sendAlertInfo("Circuit breaker half-open, allowing " + to.probeCount + " probe requests");
+        } else {
+            AlertSystem.sendAlertInfo("Circuit breaker closed");
+        }
+        return true;
+    }
+
+    // Set the fraction of requests in the window (between 0 and 1) that must fail before the breaker opens
+    public void setFailureRateThreshold(double failureRateThreshold) throws ServerException {
+        if (failureRateThreshold < 0 || failureRateThreshold > 1) {
+            throw new ServerException("Failure rate threshold must be between 0 and 1");
+        }
+        this.failureRateThreshold = failureRateThreshold;
+    }
+
+    // Set the number of probe requests let through while half-open
+    public void setHalfOpenProbes(int halfOpenProbes) throws ServerException {
+        if (halfOpenProbes < 1) {
+            throw new ServerException("At least one probe request is needed to close the breaker");
         }
+        this.halfOpenProbes = halfOpenProbes;
+    }
+
+    // Set how far back successes and failures are counted, and how many buckets that time is split into
+    // This starts a new, empty window.
+    public void setWindow(long windowMs, int bucketCount) throws ServerException {
+        if (bucketCount < 1 || windowMs < bucketCount) {
+            throw new ServerException("Window must have at least one bucket of at least 1 ms");
+        }
+        window = new SlidingWindow(windowMs, bucketCount);
+    }
+
+    // Get the state a request would find right now
+    // An open breaker whose timeout has passed only moves to half-open when the next request asks, but it already lets
+    // probes through, so it is reported as half-open.
+    public State getState() {
+        Phase current = phase.get();
+        if (current.state == State.OPEN && timeSource.currentTimeMillis() - current.since >= timeout) {
+            return State.HALF_OPEN;
+        }
+        return current.state;
+    }
+
+    // Get the number of times the breaker has moved into a state
+    public long getTransitionCount(State state) {
+        return transitionCounts.get(state.ordinal());
+    }
+
+    // Get the fraction of requests in the current window that failed
+    public double getFailureRate() {
+        long[] counts = window.count(timeSource.currentTimeMillis());
+        long requests = counts[0] + counts[1];
+        return requests > 0 ? (double) counts[1] / requests : 0.0;
     }
 
     public long getTimeout() {
         return timeout;
     }
 
+    // A state along with when it started and, while half-open, the probe permits left
+    private static final class Phase {
+        private final State state;
+        private final long since;
+        private final int probeCount;
+        private final AtomicInteger probesLeft;
+        private final AtomicInteger probeSuccesses = new AtomicInteger();
+
+        private Phase(State state, long since, int probeCount) {
+            this.state = state;
+            this.since = since;
+            this.probeCount = probeCount;
+            this.probesLeft = new AtomicInteger(probeCount);
+        }
+    }
+
+    // Ring of buckets that each count the successes and failures in one slice of the window
+    // A bucket whose slice has passed is swapped for an empty one by the first result recorded in its new slice.
+    private static final class SlidingWindow {
+        private final long bucketMs;
+        private final AtomicReferenceArray<Bucket> buckets;
+
+        private SlidingWindow(long windowMs, int bucketCount) {
+            this.bucketMs = windowMs / bucketCount;
+            this.buckets = new AtomicReferenceArray<>(bucketCount);
+        }
+
+        private void record(long now, boolean failed) {
+            long slice = now / bucketMs;
+            int index = (int) (slice % buckets.length());
+            Bucket bucket = buckets.get(index);
+            while (bucket == null || bucket.slice < slice) {
+                Bucket fresh = new Bucket(slice);
+                if (buckets.compareAndSet(index, bucket, fresh)) {
+                    bucket = fresh;
+                } else {
+                    bucket = buckets.get(index);
+                }
+            }
+            if (bucket.slice == slice) { // A result from a time that has already left the window is dropped
+                (failed ? bucket.failures : bucket.successes).incrementAndGet();
+            }
+        }
+
+        // Get the number of successes and failures in the window ending now
+        private long[] count(long now) {
+            long slice = now / bucketMs;
+            long[] counts = new long[2];
+            for (int i = 0; i < buckets.length(); i++) {
+                Bucket bucket = buckets.get(i);
+                if (bucket != null && bucket.slice > slice - buckets.length() && bucket.slice <= slice) {
+                    counts[0] += bucket.successes.get();
+                    counts[1] += bucket.failures.get();
+                }
+            }
+            return counts;
+        }
+
+        private void clear() {
+            for (int i = 0; i < buckets.length(); i++) {
+                buckets.set(i, null);
+            }
+        }
+    }
+
+    private static final class Bucket {
+        private final long slice;
+        private final AtomicLong successes = new AtomicLong();
+        private final AtomicLong failures = new AtomicLong();
 
+        private Bucket(long slice) {
+            this.slice = slice;
+        }
+    }
 }
@@ -0,0 +1,255 @@
+package dev.evelyn.taskscheduler;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Records which tasks have completed, in a form that stays small over long uptimes
+// With RETAIN_ALL nothing is ever evicted, so completed IDs are kept in a plain concurrent set. Otherwise task IDs are
+// interned to dense ints, and completion is kept in a bitmap split into pages that are only allocated while they hold
+// set bits. Reads never take a lock; writes are synchronized.
+// Evicted ints are reused, so a reader checks that its task still holds the same interning after reading the bit.
+public final class CompletionStore {
+    // Number of bits in each bitmap page (64 longs)
+    private static final int PAGE_BITS = 4096;
+
+    public enum Retention {
+        // Keep every completed task ID, so any later task can depend on it
+        RETAIN_ALL,
+        // Forget a completed task ID once no pending task depends on it
+        EVICT_UNREFERENCED
+    }
+
+    // Completed task IDs kept under RETAIN_ALL, which need no interned int since they are never evicted
+    private final Set<String> retainedIds = ConcurrentHashMap.newKeySet();
+    // Map of task IDs to their interned ints, where every interning is a new object even when an int is reused
+    private final Map<String, InternedId> internedIds = new ConcurrentHashMap<>();
+    // Bitmap pages, where a null page has no set bits (volatile so readers always see the latest array)
+    private volatile AtomicLongArray[] pages = new AtomicLongArray[0];
+    // Number of set bits in each page, so empty pages can be freed (only used while synchronized)
+    private int[] pageCounts = new int[0];
+    // Number of pending tasks that depend on each interned int (only used while synchronized)
+    private int[] referenceCounts = new int[0];
+    // Task ID for each interned int, so evicted ints can be removed from internedIds
+    private String[] idsByInt = new String[0];
+    // Interned ints that have been evicted and can be reused, which keeps the ints dense
+    private final BitSet freeInts = new BitSet();
+    private int nextInt = 0;
+    // Number of completed IDs in the bitmap
+    private int completedCount = 0;
+    private volatile Retention retention;
+
+    public CompletionStore(Retention retention) {
+        this.retention = retention;
+    }
+
+    public CompletionStore() {
+        this(Retention.RETAIN_ALL);
+    }
+
+    // Check whether a task has completed without taking a lock
+    public boolean isCompleted(String taskId) {
+        if (retainedIds.contains(taskId)) {
+            return true;
+        }
+        InternedId interned = internedIds.get(taskId);
+        if (interned == null) {
+            return false;
+        }
+        int id = interned.value;
+        AtomicLongArray[] currentPages = pages;
+        int pageIndex = id / PAGE_BITS;
+        if (pageIndex >= currentPages.length || currentPages[pageIndex] == null) {
+            return false;
+        }
+        int bit = id % PAGE_BITS;
+        if ((currentPages[pageIndex].get(bit / Long.SIZE) & (1L << (bit % Long.SIZE))) == 0) {
+            return false;
+        }
+        // The task may have been evicted since the lookup and its int handed to a task that has since completed, so
+        // the bit only belongs to this task if the task still holds the same interning
+        return internedIds.get(taskId) == interned;
+    }
+
+    // Check whether every task in a collection has completed
+    public boolean areAllCompleted(Collection<String> taskIds) {
+        for (String taskId : taskIds) {
+            if (!isCompleted(taskId)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Record that a task has completed
+    public synchronized void markCompleted(String taskId) {
+        if (retention == Retention.RETAIN_ALL) {
+            // An interning held by pending tasks is dropped once they release it, since its bit is never set
+            retainedIds.add(taskId);
+            return;
+        }
+        int id = intern(taskId);
+        if (!setBit(id)) {
+            return; // Already recorded
+        }
+        completedCount++;
+        evictIfUnneeded(id);
+    }
+
+    // Record that a pending task depends on each of these task IDs, so they are kept until it finishes
+    public synchronized void addReferences(Collection<String> taskIds) {
+        for (String taskId : taskIds) {
+            int id = intern(taskId); // Interning may grow referenceCounts, so it must happen first
+            referenceCounts[id]++;
+        }
+    }
+
+    // Record that a pending task that depended on these task IDs has finished
+    public synchronized void releaseReferences(Collection<String> taskIds) {
+        for (String taskId : taskIds) {
+            InternedId interned = internedIds.get(taskId);
+            if (interned != null && referenceCounts[interned.value] > 0) {
+                referenceCounts[interned.value]--;
+                evictIfUnneeded(interned.value);
+            }
+        }
+    }
+
+    // Change the retention policy, moving the completed IDs between the set and the bitmap
+    // Each ID is added to its new home before it is removed from the old one, so readers always see it as completed
+    public synchronized void setRetention(Retention retention) {
+        this.retention = retention;
+        if (retention == Retention.RETAIN_ALL) {
+            for (int id = 0; id < nextInt; id++) {
+                if (idsByInt[id] != null && isBitSet(id)) {
+                    retainedIds.add(idsByInt[id]);
+                    clearBit(id);
+                    completedCount--;
+                    evictIfUnneeded(id);
+                }
+            }
+        } else {
+            // Only the completed IDs a pending task still depends on are kept
+            for (String taskId : retainedIds) {
+                InternedId interned = internedIds.get(taskId);
+                if (interned != null && setBit(interned.value)) {
+                    completedCount++;
+                }
+            }
+            retainedIds.clear();
+        }
+    }
+
+    public Retention getRetention() {
+        return retention;
+    }
+
+    // Get the number of completed task IDs currently being kept
+    public synchronized int size() {
+        return completedCount + retainedIds.size();
+    }
+
+    // Get the number of task IDs currently interned (referenced, or completed and kept in the bitmap)
+    public int getInternedCount() {
+        return internedIds.size();
+    }
+
+    // Get the int for a task ID, interning it if needed
+    private int intern(String taskId) {
+        InternedId existing = internedIds.get(taskId);
+        if (existing != null) {
+            return existing.value;
+        }
+        int id = freeInts.isEmpty() ? nextInt++ : freeInts.nextSetBit(0);
+        freeInts.clear(id);
+        ensureCapacity(id);
+        idsByInt[id] = taskId;
+        internedIds.put(taskId, new InternedId(id));
+        return id;
+    }
+
+    // Forget an ID once nothing depends on it
+    private void evictIfUnneeded(int id) {
+        if (referenceCounts[id] > 0) {
+            return;
+        }
+        boolean completed = isBitSet(id);
+        // A reader that looked the ID up before this can still read the int's bit after it is reused, which isCompleted
+        // guards against by checking the interning again
+        internedIds.remove(idsByInt[id]);
+        idsByInt[id] = null;
+        if (completed) {
+            clearBit(id);
+            completedCount--;
+        }
+        freeInts.set(id);
+    }
+
+    // Set a bit, allocating its page if needed, and return false if it was already set
+    private boolean setBit(int id) {
+        int pageIndex = id / PAGE_BITS;
+        AtomicLongArray page = pages[pageIndex];
+        if (page == null) {
+            page = new AtomicLongArray(PAGE_BITS / Long.SIZE);
+            AtomicLongArray[] newPages = pages.clone();
+            newPages[pageIndex] = page;
+            pages = newPages;
+        }
+        int bit = id % PAGE_BITS;
+        long mask = 1L << (bit % Long.SIZE);
+        long previous = page.getAndUpdate(bit / Long.SIZE, word -> word | mask);
+        if ((previous & mask) != 0) {
+            return false;
+        }
+        pageCounts[pageIndex]++;
+        return true;
+    }
+
+    // Clear a bit, freeing its page once the page has no set bits left
+    private void clearBit(int id) {
+        int pageIndex = id / PAGE_BITS;
+        int bit = id % PAGE_BITS;
+        long mask = 1L << (bit % Long.SIZE);
+        pages[pageIndex].getAndUpdate(bit / Long.SIZE, word -> word & ~mask);
+        if (--pageCounts[pageIndex] == 0) {
+            AtomicLongArray[] newPages = pages.clone();
+            newPages[pageIndex] = null;
+            pages = newPages;
+        }
+    }
+
+    private boolean isBitSet(int id) {
+        AtomicLongArray page = pages[id / PAGE_BITS];
+        int bit = id % PAGE_BITS;
+        return page != null && (page.get(bit / Long.SIZE) & (1L << (bit % Long.SIZE))) != 0;
+    }
+
+    // Grow the per-int arrays and the page directory so they can hold an int
+    private void ensureCapacity(int id) {
+        if (id < idsByInt.length) {
+            return;
+        }
+        int capacity = Math.max(PAGE_BITS, idsByInt.length * 2);
+        while (capacity <= id) {
+            capacity *= 2;
+        }
+        idsByInt = Arrays.copyOf(idsByInt, capacity);
+        referenceCounts = Arrays.copyOf(referenceCounts, capacity);
+        int pageCount = capacity / PAGE_BITS;
+        pageCounts = Arrays.copyOf(pageCounts, pageCount);
+        pages = Arrays.copyOf(pages, pageCount);
+    }
+
+    // An interned int, wrapped so each interning of a task ID can be told apart from a later one that reuses the int
+    private static final class InternedId {
+        private final int value;
+
+        private InternedId(int value) {
+            this.value = value;
+        }
+    }
+}
@@ -0,0 +1,287 @@
+package dev.evelyn.taskscheduler;
+
+import dev.evelyn.taskscheduler.exceptions.SchedulerException;
+import dev.evelyn.taskscheduler.tasks.Task;
+
+import java.util.*;
+import java.util.function.Predicate;
+
+// Graph of tasks submitted together with their dependencies, which holds each task until its dependencies complete
+// Tasks stay in the graph until they complete or fail for good, so later submissions can depend on them
+final class DependencyGraph {
+    // Map of task IDs to the nodes of tasks that have not completed yet
+    private final Map<String, Node> nodes = new HashMap<>();
+
+    // Add a group of tasks to the graph and return the ones that can run straight away
+    // Every dependency must be completed, part of the group, or already in the graph
+    synchronized List<Task> addTasks(Collection<Task> tasks, Predicate<String> isCompleted) throws SchedulerException {
+        Map<String, Node> newNodes = createNodes(tasks);
+        linkDependencies(newNodes, isCompleted);
+        List<Node> topologicalOrder = sortTopologically(newNodes);
+        if (topologicalOrder.size() < newNodes.size()) {
+            throw new SchedulerException("Dependency cycle detected among tasks " + unsortedTaskIds(newNodes, topologicalOrder));
+        }
+        // Commit the new nodes only once the whole group is known to be valid
+        return commit(newNodes, topologicalOrder);
+    }
+
+    // Add the valid tasks of a group to the graph and return the ones that can run straight away
+    // Unlike addTasks, an invalid task doesn't reject the whole group: it is left out along with every task in the group
+    // that depends on it, and the reason is put in rejections under the task's position in the list
+    synchronized List<Task> addValidTasks(List<Task> tasks, Predicate<String> isCompleted, Map<Integer, SchedulerException> rejections) {
+        Map<String, Node> newNodes = new LinkedHashMap<>();
+        Map<Node, Integer> positions = new HashMap<>();
+        for (int i = 0; i < tasks.size(); i++) {
+            Task task = tasks.get(i);
+            if (task == null) {
+                rejections.put(i, new SchedulerException("Task cannot be null"));
+            } else if (nodes.containsKey(task.getId()) || newNodes.containsKey(task.getId())) {
+                rejections.put(i, new SchedulerException("Task " + task.getId() + " is already in the dependency graph"));
+            } else {
+                Node node = new Node(task);
+                newNodes.put(task.getId(), node);
+                positions.put(node, i);
+            }
+        }
+        // Link each task to its dependencies, rejecting tasks that depend on a task nobody knows about
+        Map<Node, List<Node>> newDependents = new HashMap<>();
+        Deque<Node> rejectedNodes = new ArrayDeque<>();
+        for (Node node : newNodes.values()) {
+            Set<String> dependencies = node.task.getDependencies();
+            if (dependencies == null) {
+                continue;
+            }
+            for (String dependencyId : dependencies) {
+                Node dependency = newNodes.containsKey(dependencyId) ? newNodes.get(dependencyId) : nodes.get(dependencyId);
+                if (dependency != null) {
+                    node.dependencies.add(dependency);
+                    if (newNodes.get(dependencyId) == dependency) {
+                        newDependents.computeIfAbsent(dependency, key -> new ArrayList<>()).add(node);
+                    }
+                } else if (!isCompleted.test(dependencyId) && !rejections.containsKey(positions.get(node))) {
+                    rejections.put(positions.get(node), new SchedulerException("Task " + node.task.getId() + " depends on unknown task " + dependencyId));
+                    rejectedNodes.add(node);
+                }
+            }
+        }
+        // A task can't run if anything it depends on was rejected
+        while (!rejectedNodes.isEmpty()) {
+            Node rejectedNode = rejectedNodes.poll();
+            newNodes.remove(rejectedNode.task.getId());
+            for (Node dependent : newDependents.getOrDefault(rejectedNode, Collections.emptyList())) {
+                if (!rejections.containsKey(positions.get(dependent))) {
+                    rejections.put(positions.get(dependent), new SchedulerException("Task " + dependent.task.getId() + " depends on rejected task " + rejectedNode.task.getId()));
+                    rejectedNodes.add(dependent);
+                }
+            }
+        }
+        // Whatever can't be sorted is part of a cycle or depends on one
+        List<Node> topologicalOrder = sortTopologically(newNodes);
+        if (topologicalOrder.size() < newNodes.size()) {
+            List<String> cycle = unsortedTaskIds(newNodes, topologicalOrder);
+            for (String taskId : cycle) {
+                rejections.put(positions.get(newNodes.remove(taskId)), new SchedulerException("Dependency cycle detected among tasks " + cycle));
+            }
+        }
+        // Tasks with nothing to wait for and nothing in the batch waiting for them are released without joining the
+        // graph, in the same way as a task from scheduleTask, since the graph has nothing to hold them for
+        Set<Node> dependedOn = new HashSet<>();
+        newNodes.values().forEach(node -> dependedOn.addAll(node.dependencies));
+        List<Task> standaloneTasks = new ArrayList<>();
+        topologicalOrder.removeIf(node -> {
+            if (!node.dependencies.isEmpty() || dependedOn.contains(node)) {
+                return false;
+            }
+            newNodes.remove(node.task.getId());
+            standaloneTasks.add(node.task);
+            return true;
+        });
+        List<Task> readyTasks = commit(newNodes, topologicalOrder);
+        standaloneTasks.addAll(readyTasks);
+        return standaloneTasks;
+    }
+
+    // Add new nodes that are known to be valid to the graph and return the tasks that can run straight away
+    private List<Task> commit(Map<String, Node> newNodes, List<Node> topologicalOrder) {
+        nodes.putAll(newNodes);
+        for (Node node : newNodes.values()) {
+            node.dependencies.forEach(dependency -> dependency.dependents.add(node));
+        }
+        calculateCriticalPaths(topologicalOrder);
+        // Tasks with no unmet dependencies are released right away, in topological order
+        List<Task> readyTasks = new ArrayList<>();
+        for (Node node : topologicalOrder) {
+            if (node.dependencies.isEmpty()) {
+                node.released = true;
+                readyTasks.add(node.task);
+            }
+        }
+        return readyTasks;
+    }
+
+    // Remove a completed task from the graph and return the tasks whose last dependency it was
+    synchronized List<Task> markCompleted(String taskId) {
+        Node node = nodes.remove(taskId);
+        if (node == null) {
+            return Collections.emptyList();
+        }
+        List<Task> readyTasks = new ArrayList<>();
+        for (Node dependent : node.dependents) {
+            dependent.dependencies.remove(node);
+            if (dependent.dependencies.isEmpty() && !dependent.released) {
+                dependent.released = true;
+                readyTasks.add(dependent.task);
+            }
+        }
+        return readyTasks;
+    }
+
+    // Remove a task that failed for good from the graph, along with every task that depends on it directly or
+    // transitively, since none of them can run now. Returns the dependents that were removed.
+    synchronized List<Task> markFailed(String taskId) {
+        Node node = nodes.remove(taskId);
+        if (node == null) {
+            return Collections.emptyList();
+        }
+        List<Task> abandonedTasks = new ArrayList<>();
+        Deque<Node> toRemove = new ArrayDeque<>();
+        toRemove.add(node);
+        while (!toRemove.isEmpty()) {
+            Node removed = toRemove.poll();
+            // Completing one of its other dependencies must no longer release it
+            removed.dependencies.forEach(dependency -> dependency.dependents.remove(removed));
+            for (Node dependent : removed.dependents) {
+                if (nodes.remove(dependent.task.getId(), dependent)) {
+                    abandonedTasks.add(dependent.task);
+                    toRemove.add(dependent);
+                }
+            }
+        }
+        return abandonedTasks;
+    }
+
+    // Get the length (in ms) of the longest chain of tasks that starts at a task, or 0 if it isn't in the graph
+    synchronized long getCriticalPath(String taskId) {
+        Node node = nodes.get(taskId);
+        return node == null ? 0 : node.criticalPath;
+    }
+
+    // Get the number of tasks waiting for their dependencies
+    synchronized int getHeldTaskCount() {
+        return (int) nodes.values().stream().filter(node -> !node.released).count();
+    }
+
+    // Create a node for each task, rejecting duplicate IDs
+    private Map<String, Node> createNodes(Collection<Task> tasks) throws SchedulerException {
+        Map<String, Node> newNodes = new LinkedHashMap<>();
+        for (Task task : tasks) {
+            if (task == null) {
+                throw new SchedulerException("Task cannot be null");
+            }
+            if (nodes.containsKey(task.getId()) || newNodes.put(task.getId(), new Node(task)) != null) {
+                throw new SchedulerException("Task " + task.getId() + " is already in the dependency graph");
+            }
+        }
+        return newNodes;
+    }
+
+    // Connect each new node to the nodes it depends on, skipping dependencies that have already completed
+    private void linkDependencies(Map<String, Node> newNodes, Predicate<String> isCompleted) throws SchedulerException {
+        for (Node node : newNodes.values()) {
+            Set<String> dependencies = node.task.getDependencies();
+            if (dependencies == null) {
+                continue;
+            }
+            for (String dependencyId : dependencies) {
+                Node dependency = newNodes.containsKey(dependencyId) ? newNodes.get(dependencyId) : nodes.get(dependencyId);
+                if (dependency != null) {
+                    node.dependencies.add(dependency);
+                } else if (!isCompleted.test(dependencyId)) {
+                    throw new SchedulerException("Task " + node.task.getId() + " depends on unknown task " + dependencyId);
+                }
+            }
+        }
+    }
+
+    // Order the new nodes so every node comes after its dependencies (Kahn's algorithm)
+    // Nodes in a cycle, or that depend on one, are left out of the order
+    // Existing nodes can't depend on new ones, so only edges between new nodes can form a cycle
+    private List<Node> sortTopologically(Map<String, Node> newNodes) {
+        Map<Node, Integer> unmetCount = new HashMap<>();
+        Map<Node, List<Node>> newDependents = new HashMap<>();
+        Deque<Node> ready = new ArrayDeque<>();
+        for (Node node : newNodes.values()) {
+            int count = 0;
+            for (Node dependency : node.dependencies) {
+                if (newNodes.get(dependency.task.getId()) == dependency) {
+                    newDependents.computeIfAbsent(dependency, key -> new ArrayList<>()).add(node);
+                    count++;
+                }
+            }
+            unmetCount.put(node, count);
+            if (count == 0) {
+                ready.add(node);
+            }
+        }
+        List<Node> order = new ArrayList<>();
+        while (!ready.isEmpty()) {
+            Node node = ready.poll();
+            order.add(node);
+            for (Node dependent : newDependents.getOrDefault(node, Collections.emptyList())) {
+                if (unmetCount.merge(dependent, -1, Integer::sum) == 0) {
+                    ready.add(dependent);
+                }
+            }
+        }
+        return order;
+    }
+
+    // Get the IDs of the new nodes that were left out of a topological order
+    private List<String> unsortedTaskIds(Map<String, Node> newNodes, List<Node> topologicalOrder) {
+        Set<Node> sorted = new HashSet<>(topologicalOrder);
+        return newNodes.values().stream()
+                .filter(node -> !sorted.contains(node))
+                .map(node -> node.task.getId())
+                .toList();
+    }
+
+    // Set each new node's critical path to its duration plus the longest critical path of its dependents,
+    // then lengthen the critical paths of the held tasks they depend on
+    private void calculateCriticalPaths(List<Node> topologicalOrder) {
+        for (int i = topologicalOrder.size() - 1; i >= 0; i--) {
+            Node node = topologicalOrder.get(i);
+            long longestDependent = node.dependents.stream().mapToLong(dependent -> dependent.criticalPath).max().orElse(0);
+            node.criticalPath = node.duration() + longestDependent;
+        }
+        Deque<Node> toUpdate = new ArrayDeque<>(topologicalOrder);
+        while (!toUpdate.isEmpty()) {
+            Node node = toUpdate.poll();
+            for (Node dependency : node.dependencies) {
+                // Released tasks may already be queued, and changing their critical path would break the queue order
+                long criticalPath = dependency.duration() + node.criticalPath;
+                if (!dependency.released && criticalPath > dependency.criticalPath) {
+                    dependency.criticalPath = criticalPath;
+                    toUpdate.add(dependency);
+                }
+            }
+        }
+    }
+
+    private static final class Node {
+        private final Task task;
+        // Dependencies that have not completed yet
+        private final Set<Node> dependencies = new HashSet<>();
+        private final List<Node> dependents = new ArrayList<>();
+        private long criticalPath;
+        // Whether the task has been handed to the scheduler
+        private boolean released;
+
+        private Node(Task task) {
+            this.task = task;
+        }
+
+        private long duration() {
+            return task.getEstimatedDuration().toMillis();
+        }
+    }
+}
@@ -1,38 +1,115 @@
 package dev.evelyn.taskscheduler;
 
+import java.io.Serial;
 import java.io.Serializable;
 import java.math.BigInteger;
 
 // Because this class must be immutable, we can make it final
+// The duration is stored as a long, and only falls back to a BigInteger if it doesn't fit in one
 public final class Duration implements Serializable {
-    private final BigInteger durationMs;
+    // Durations from 0 to CACHE_LIMIT ms are shared rather than allocated each time
+    private static final int CACHE_LIMIT = 1000;
+    private static final Duration[] CACHE = new Duration[CACHE_LIMIT + 1];
+    static {
+        for (int i = 0; i <= CACHE_LIMIT; i++) {
+            CACHE[i] = new Duration(i, null);
+        }
+    }
+    @Serial
+    private static final long serialVersionUID = 1L;
+
+    private final long durationMs;
+    // Only set when the duration is too large (or too small) for a long
+    private final BigInteger bigDurationMs;
 
     public Duration(BigInteger durationMs) {
+        if (durationMs.bitLength() < Long.SIZE) {
+            this.durationMs = durationMs.longValue();
+            this.bigDurationMs = null;
+        } else {
+            this.durationMs = durationMs.signum() > 0 ? Long.MAX_VALUE : Long.MIN_VALUE;
+            this.bigDurationMs = durationMs;
+        }
+    }
+
+    private Duration(long durationMs, BigInteger bigDurationMs) {
         this.durationMs = durationMs;
+        this.bigDurationMs = bigDurationMs;
     }
 
     // Factory method to create a Duration object from milliseconds
     public static Duration ofMillis(long millis) {
-        return new Duration(BigInteger.valueOf(millis));
+        if (millis >= 0 && millis <= CACHE_LIMIT) {
+            return CACHE[(int) millis];
+        }
+        return new Duration(millis, null);
     }
 
     // Addition and subtraction operations
     // (note that they return new Duration objects rather than modifying the existing one)
+    // Both stay on longs unless the result overflows, in which case they fall back to BigInteger
     public Duration add(Duration secondDuration) {
-        return new Duration(durationMs.add(secondDuration.durationMs));
+        if (bigDurationMs == null && secondDuration.bigDurationMs == null) {
+            long result = durationMs + secondDuration.durationMs;
+            // Overflow happened if both inputs have a different sign from the result
+            if (((durationMs ^ result) & (secondDuration.durationMs ^ result)) >= 0) {
+                return ofMillis(result);
+            }
+        }
+        return new Duration(getDurationMs().add(secondDuration.getDurationMs()));
     }
 
     public Duration subtract(Duration secondDuration) {
-        return new Duration(durationMs.subtract(secondDuration.durationMs));
+        if (bigDurationMs == null && secondDuration.bigDurationMs == null) {
+            long result = durationMs - secondDuration.durationMs;
+            // Overflow happened if the inputs have different signs and the result's sign differs from the first input
+            if (((durationMs ^ secondDuration.durationMs) & (durationMs ^ result)) >= 0) {
+                return ofMillis(result);
+            }
+        }
+        return new Duration(getDurationMs().subtract(secondDuration.getDurationMs()));
     }
 
-    // Comparison operation, essentially a wrapper around BigInteger's compareTo method
+    // Comparison operation, which only needs BigInteger when one of the durations doesn't fit in a long
     public int compareTo(Duration secondDuration) {
-        return durationMs.compareTo(secondDuration.durationMs);
+        if (bigDurationMs == null && secondDuration.bigDurationMs == null) {
+            return Long.compare(durationMs, secondDuration.durationMs);
+        }
+        return getDurationMs().compareTo(secondDuration.getDurationMs());
     }
 
     public BigInteger getDurationMs() {
+        return bigDurationMs != null ? bigDurationMs : BigInteger.valueOf(durationMs);
+    }
+
+    // Get the duration in ms as a primitive without allocating
+    // Durations that don't fit in a long are clamped to Long.MAX_VALUE or Long.MIN_VALUE
+    public long toMillis() {
         return durationMs;
     }
 
+    // Whether the duration fits in a long, so toMillis is exact
+    public boolean fitsInLong() {
+        return bigDurationMs == null;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) {
+            return true;
+        }
+        if (!(other instanceof Duration)) {
+            return false;
+        }
+        return compareTo((Duration) other) == 0;
+    }
+
+    @Override
+    public int hashCode() {
+        return bigDurationMs != null ? bigDurationMs.hashCode() : Long.hashCode(durationMs);
+    }
+
+    public String toString() {
+        return getDurationMs() + "ms";
+    }
 }
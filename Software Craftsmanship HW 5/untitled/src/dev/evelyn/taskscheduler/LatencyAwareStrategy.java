@@ -0,0 +1,109 @@
+package dev.evelyn.taskscheduler;
+
+import dev.evelyn.taskscheduler.exceptions.SchedulerException;
+import dev.evelyn.taskscheduler.servers.Server;
+import dev.evelyn.taskscheduler.tasks.Task;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+// Load balancing that uses how servers have actually performed rather than only what is queued on them
+// Each server keeps an exponentially weighted moving average (EWMA) of its observed throughput (estimated ms of work
+// finished per real ms), which takes in everything that slows it down, network latency included. A task goes to the
+// server predicted to finish it first: the time to run its queued work and then the task at its throughput. So a
+// remote server that pays network latency, or a server slower than estimated, gets less work than its queue alone
+// would suggest. Servers that haven't executed anything yet are predicted to run at exactly their estimates.
+final class LatencyAwareStrategy implements LoadBalancingStrategy {
+    private final double smoothing;
+    // Compare two random servers rather than all of them
+    private final boolean powerOfTwoChoices;
+    // Map of servers to their observed performance
+    private final Map<Server, Observations> observations = new ConcurrentHashMap<>();
+
+    LatencyAwareStrategy(double smoothing, boolean powerOfTwoChoices) throws SchedulerException {
+        if (smoothing <= 0 || smoothing > 1) {
+            throw new SchedulerException("Smoothing must be between 0 (exclusive) and 1 (inclusive)");
+        }
+        this.smoothing = smoothing;
+        this.powerOfTwoChoices = powerOfTwoChoices;
+    }
+
+    @Override
+    public Server chooseServer(Task task, List<Server> servers, ServerLoadQueue loads) {
+        int serverCount = servers.size();
+        if (serverCount == 0) {
+            return null;
+        }
+        if (serverCount == 1) {
+            return servers.get(0);
+        }
+        if (powerOfTwoChoices) {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            int first = random.nextInt(serverCount);
+            int second = random.nextInt(serverCount - 1);
+            if (second >= first) {
+                second++; // Skip over the first choice so the two servers are different
+            }
+            Server firstServer = servers.get(first);
+            Server secondServer = servers.get(second);
+            return predictCompletion(secondServer, task, loads) < predictCompletion(firstServer, task, loads)
+                    ? secondServer : firstServer;
+        }
+        Server bestServer = null;
+        double bestCompletion = Double.MAX_VALUE;
+        for (Server server : servers) {
+            double completion = predictCompletion(server, task, loads);
+            if (completion < bestCompletion) {
+                bestServer = server;
+                bestCompletion = completion;
+            }
+        }
+        return bestServer;
+    }
+
+    @Override
+    public void recordExecution(Server server, int taskCount, long estimatedMs, long elapsedMs) {
+        if (taskCount <= 0) {
+            return;
+        }
+        // Clamp to 1 ms so runs faster than the clock's resolution don't divide by zero
+        long elapsed = Math.max(1, elapsedMs);
+        observations.computeIfAbsent(server, s -> new Observations())
+                .record((double) Math.max(1, estimatedMs) / elapsed, smoothing);
+    }
+
+    @Override
+    public void removeServer(Server server) {
+        observations.remove(server);
+    }
+
+    // Predict how long (in ms) a server would take to finish a task placed on it now
+    // Both the queued work and the task itself are scaled by the server's throughput, which is 1 until it is observed
+    double predictCompletion(Server server, Task task, ServerLoadQueue loads) {
+        long work = loads.getLoad(server) + task.getEstimatedDuration().toMillis();
+        Observations observed = observations.get(server);
+        return observed == null ? work : observed.predictCompletion(work);
+    }
+
+    // Moving averages of a server's performance, updated from the threads executing it
+    private static final class Observations {
+        private double throughput;
+        private boolean empty = true;
+
+        private synchronized void record(double throughput, double smoothing) {
+            if (empty) { // The first observation is the starting average
+                this.throughput = throughput;
+                empty = false;
+                return;
+            }
+            this.throughput += smoothing * (throughput - this.throughput);
+        }
+
+        // Predict how long (in ms) the server takes to run an amount of estimated work
+        private synchronized double predictCompletion(long work) {
+            return work / throughput;
+        }
+    }
+}
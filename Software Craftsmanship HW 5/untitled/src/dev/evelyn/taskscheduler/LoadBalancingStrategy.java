@@ -0,0 +1,42 @@
+package dev.evelyn.taskscheduler;
+
+import dev.evelyn.taskscheduler.exceptions.SchedulerException;
+import dev.evelyn.taskscheduler.servers.Server;
+import dev.evelyn.taskscheduler.tasks.Task;
+
+import java.util.List;
+
+// Decides which server the scheduler places each task on
+// Strategies are called with the scheduler's lock held, and can learn from how long servers actually take to run tasks
+public interface LoadBalancingStrategy {
+
+    // Choose the server to place a task on, or null if none can take it
+    // loads holds each server's load score (its queued task count plus queued duration), least loaded on top
+    Server chooseServer(Task task, List<Server> servers, ServerLoadQueue loads);
+
+    // Record that a server executed taskCount tasks with a total estimated duration of estimatedMs in elapsedMs
+    // Called from the threads that execute the servers, without the scheduler's lock
+    default void recordExecution(Server server, int taskCount, long estimatedMs, long elapsedMs) {
+    }
+
+    // Forget everything recorded about a server that has left the scheduler
+    default void removeServer(Server server) {
+    }
+
+    // Place each task on the server with the lowest load score (the original behavior)
+    static LoadBalancingStrategy leastLoaded() {
+        return (task, servers, loads) -> loads.peek();
+    }
+
+    // Place each task on the server predicted to finish it first, from the throughput each server has shown (which
+    // includes any network latency it pays), with servers that haven't run anything yet assumed to match their estimates
+    // smoothing (0 to 1) is how much weight the latest execution gets in the moving average
+    static LoadBalancingStrategy latencyAware(double smoothing) throws SchedulerException {
+        return new LatencyAwareStrategy(smoothing, false);
+    }
+
+    // Like latencyAware, but only compares two servers picked at random instead of scanning every server
+    static LoadBalancingStrategy powerOfTwoChoices(double smoothing) throws SchedulerException {
+        return new LatencyAwareStrategy(smoothing, true);
+    }
+}
@@ -1,14 +1,32 @@
 package dev.evelyn.taskscheduler;
 
+import dev.evelyn.taskscheduler.exceptions.SchedulerException;
+
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+
 public class RetryPolicy {
     public final int maxRetries;
     public final long delay;
     private final boolean exponentialBackoff; // Each retry will be delayed exponentially
+    private final double jitter; // Fraction of each delay (0 to 1) that may be randomly taken off
+
+    public RetryPolicy(int maxRetries, long delay, boolean exponentialBackoff, double jitter) throws SchedulerException {
+        if (jitter < 0 || jitter > 1) {
+            throw new SchedulerException("Jitter must be between 0 and 1");
+        }
+        this.maxRetries = maxRetries;
+        this.delay = delay;
+        this.exponentialBackoff = exponentialBackoff;
+        this.jitter = jitter;
+    }
 
+    // Without jitter there is nothing to validate, so this constructor can't fail
     public RetryPolicy(int maxRetries, long delay, boolean exponentialBackoff) {
         this.maxRetries = maxRetries;
         this.delay = delay;
         this.exponentialBackoff = exponentialBackoff;
+        this.jitter = 0;
     }
 
     public boolean shouldRetry(int retryCount) {
@@ -21,4 +39,23 @@ public class RetryPolicy {
         }
         return delay;
     }
+
+    // Calculate the delay for the next retry with up to the jitter fraction taken off at random,
+    // so tasks that failed together don't all retry at the same moment
+    public long getJitteredDelay(int attempt) {
+        return getJitteredDelay(attempt, ThreadLocalRandom.current());
+    }
+
+    // Calculate a jittered delay with the randomness drawn from a given generator, so a seeded caller repeats exactly
+    public long getJitteredDelay(int attempt, Random random) {
+        long baseDelay = getDelay(attempt);
+        if (jitter == 0) {
+            return baseDelay;
+        }
+        return baseDelay - (long) (baseDelay * jitter * random.nextDouble());
+    }
+
+    public double getJitter() {
+        return jitter;
+    }
 }
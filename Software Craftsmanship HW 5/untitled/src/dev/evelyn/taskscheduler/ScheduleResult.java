@@ -0,0 +1,66 @@
+package dev.evelyn.taskscheduler;
+
+import dev.evelyn.taskscheduler.exceptions.SchedulerException;
+import dev.evelyn.taskscheduler.tasks.Task;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Outcome of TaskScheduler.scheduleAll: which tasks were scheduled, and why each of the others was rejected
+public final class ScheduleResult {
+    private final List<Task> scheduledTasks;
+    private final List<Rejection> rejections;
+    private final int heldTaskCount;
+
+    ScheduleResult(List<Task> scheduledTasks, List<Rejection> rejections, int heldTaskCount) {
+        this.scheduledTasks = scheduledTasks;
+        this.rejections = rejections;
+        this.heldTaskCount = heldTaskCount;
+    }
+
+    // Get the tasks that were accepted, whether they were placed on a server or are waiting for their dependencies
+    public List<Task> getScheduledTasks() {
+        return new ArrayList<>(scheduledTasks);
+    }
+
+    // Get the number of accepted tasks that are waiting for their dependencies to complete
+    public int getHeldTaskCount() {
+        return heldTaskCount;
+    }
+
+    // Get the tasks that were rejected, in the order they were submitted
+    public List<Rejection> getRejections() {
+        return new ArrayList<>(rejections);
+    }
+
+    // Whether every task was scheduled
+    public boolean isSuccessful() {
+        return rejections.isEmpty();
+    }
+
+    // A task that couldn't be scheduled, along with its position in the submitted collection and the reason
+    public static final class Rejection {
+        private final int index;
+        private final Task task;
+        private final SchedulerException error;
+
+        Rejection(int index, Task task, SchedulerException error) {
+            this.index = index;
+            this.task = task;
+            this.error = error;
+        }
+
+        public int getIndex() {
+            return index;
+        }
+
+        // Get the rejected task (null if a null task was submitted)
+        public Task getTask() {
+            return task;
+        }
+
+        public SchedulerException getError() {
+            return error;
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package dev.evelyn.taskscheduler;
+
+import dev.evelyn.taskscheduler.servers.Server;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Indexed binary min-heap of servers keyed on their load score
+// Each server's position in the heap is tracked so its load can be increased or decreased in O(log S)
+public final class ServerLoadQueue {
+    // Heap entries, where the entry at index i is smaller than the entries at 2i + 1 and 2i + 2
+    private final List<Entry> heap = new ArrayList<>();
+    // Map of servers to their entry in the heap
+    private final Map<Server, Entry> entries = new HashMap<>();
+    // Incremented for every new server so servers with equal loads come out in the order they were added
+    private long nextSequence = 0;
+
+    // Add a server with an initial load, or update its load if it is already in the queue
+    public synchronized void add(Server server, long load) {
+        if (entries.containsKey(server)) {
+            update(server, load);
+            return;
+        }
+        Entry entry = new Entry(server, load, nextSequence++, heap.size());
+        heap.add(entry);
+        entries.put(server, entry);
+        siftUp(entry.index);
+    }
+
+    // Remove a server from the queue, returning false if it was not in the queue
+    public synchronized boolean remove(Server server) {
+        Entry entry = entries.remove(server);
+        if (entry == null) {
+            return false;
+        }
+        Entry last = heap.remove(heap.size() - 1);
+        if (last != entry) {
+            // Move the last entry into the hole and restore the heap in whichever direction it needs to go
+            place(last, entry.index);
+            siftUp(last.index);
+            siftDown(last.index);
+        }
+        return true;
+    }
+
+    // Change the load of a server, moving it up (decrease-key) or down (increase-key) the heap as needed
+    public synchronized void update(Server server, long load) {
+        Entry entry = entries.get(server);
+        if (entry == null) {
+            return;
+        }
+        long oldLoad = entry.load;
+        entry.load = load;
+        if (load < oldLoad) {
+            siftUp(entry.index);
+        } else if (load > oldLoad) {
+            siftDown(entry.index);
+        }
+    }
+
+    // Get the least loaded server without removing it, or null if the queue is empty
+    public synchronized Server peek() {
+        return heap.isEmpty() ? null : heap.get(0).server;
+    }
+
+    // Get the current load of a server, or 0 if it is not in the queue
+    public synchronized long getLoad(Server server) {
+        Entry entry = entries.get(server);
+        return entry == null ? 0 : entry.load;
+    }
+
+    public synchronized int size() {
+        return heap.size();
+    }
+
+    private void siftUp(int index) {
+        Entry entry = heap.get(index);
+        while (index > 0) {
+            int parentIndex = (index - 1) / 2;
+            Entry parent = heap.get(parentIndex);
+            if (!entry.isLessThan(parent)) {
+                break;
+            }
+            place(parent, index);
+            index = parentIndex;
+        }
+        place(entry, index);
+    }
+
+    private void siftDown(int index) {
+        Entry entry = heap.get(index);
+        int size = heap.size();
+        while (true) {
+            int childIndex = 2 * index + 1;
+            if (childIndex >= size) {
+                break;
+            }
+            // Pick the smaller of the two children
+            if (childIndex + 1 < size && heap.get(childIndex + 1).isLessThan(heap.get(childIndex))) {
+                childIndex++;
+            }
+            Entry child = heap.get(childIndex);
+            if (!child.isLessThan(entry)) {
+                break;
+            }
+            place(child, index);
+            index = childIndex;
+        }
+        place(entry, index);
+    }
+
+    // Put an entry at an index and record the index on the entry
+    private void place(Entry entry, int index) {
+        heap.set(index, entry);
+        entry.index = index;
+    }
+
+    private static final class Entry {
+        private final Server server;
+        private final long sequence;
+        private long load;
+        private int index;
+
+        private Entry(Server server, long load, long sequence, int index) {
+            this.server = server;
+            this.load = load;
+            this.sequence = sequence;
+            this.index = index;
+        }
+
+        // Order by load, then by the order the servers were added
+        private boolean isLessThan(Entry other) {
+            return load < other.load || (load == other.load && sequence < other.sequence);
+        }
+    }
+}
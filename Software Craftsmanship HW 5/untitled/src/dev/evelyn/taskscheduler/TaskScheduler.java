@@ -4,18 +4,28 @@ import dev.evelyn.taskscheduler.exceptions.SchedulerException;
 import dev.evelyn.taskscheduler.exceptions.SchedulerFullException;
 import dev.evelyn.taskscheduler.exceptions.ServerException;
 import dev.evelyn.taskscheduler.metrics.AlertSystem;
+import dev.evelyn.taskscheduler.metrics.Counter;
 import dev.evelyn.taskscheduler.metrics.ErrorHandler;
+import dev.evelyn.taskscheduler.metrics.MetricsRegistry;
 import dev.evelyn.taskscheduler.metrics.PerformanceMonitor;
 import dev.evelyn.taskscheduler.servers.Server;
+import dev.evelyn.taskscheduler.servers.WorkStealingGroup;
 import dev.evelyn.taskscheduler.tasks.Task;
+import dev.evelyn.taskscheduler.tasks.TaskPriority;
 
 import java.util.*;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.*;
 
 public class TaskScheduler {
 
+    public enum PlacementMode {
+        // Place each task as it arrives, on the server chosen by the load balancing strategy
+        GREEDY,
+        // Before each executeAll, place every pending task again with Longest-Processing-Time-first (LPT), one
+        // priority class at a time, to shorten the makespan of batch workloads
+        LONGEST_PROCESSING_TIME
+    }
+
     // Lists of local and remote servers
     private final List<Server> servers = Collections.synchronizedList(new ArrayList<>());
     // Map of servers to the total duration of the server
@@ -23,22 +33,57 @@ public class TaskScheduler {
     private final Map<Server, Long> serverDurations = new ConcurrentHashMap<>();
     // Map of servers to the number of tasks on the server
     private final Map<Server, Integer> serverTaskCount = new ConcurrentHashMap<>();
+    // Min-heap of servers keyed on their load score, kept in sync with the two maps above
+    private final ServerLoadQueue serverLoads = new ServerLoadQueue();
+    // Strategy that chooses the server for each task
+    private LoadBalancingStrategy loadBalancingStrategy = LoadBalancingStrategy.leastLoaded();
+    // How pending tasks are placed before executeAll
+    private PlacementMode placementMode = PlacementMode.GREEDY;
+    // Graph of tasks waiting for their dependencies to complete
+    private final DependencyGraph dependencyGraph = new DependencyGraph();
     // Priority queue of tasks to be scheduled
     // PriorityBlockingQueue is a thread-safe priority queue
     private final BlockingQueue<Task> tasksToSchedule = new PriorityBlockingQueue<>(
             1,
             Comparator.comparing(Task::getPriority) // Compare tasks based the Priority enum
+                    // Within a priority, start the tasks at the head of the longest dependency chains first
+                    .thenComparing(Comparator.comparingLong(
+                            (Task task) -> dependencyGraph.getCriticalPath(task.getId())).reversed())
     );
-    // Set of completed tasks
-    private final Set<String> completedTasks = Collections.synchronizedSet(new HashSet<>());
+    // Completed task IDs, which can be read without locking and can forget IDs no pending task depends on
+    private final CompletionStore completedTasks = new CompletionStore();
     // Retry policy
     private final RetryPolicy retryPolicy;
+    // Map of task IDs to the number of times the task has failed, used to count retry attempts
+    private final Map<String, Integer> failedAttempts = new ConcurrentHashMap<>();
+    // Timer that puts failed tasks back in the queue once their retry delay has passed
+    private final TimingWheel retryTimer = new TimingWheel(10, 512);
     // Performance monitor
     private final PerformanceMonitor performanceMonitor = new PerformanceMonitor();
+    // Scheduler-wide metrics, whose gauges read thread-safe state directly so they never wait for the scheduler's lock
+    private final MetricsRegistry metrics = new MetricsRegistry();
+    // Number of executeAll calls whose servers are running, during which pending tasks wait in the queue instead of
+    // being placed, since each server's load is reduced by the tasks it had queued when execution began
+    private int runningExecutions = 0;
+    // Set when a server is added or removed, so the next placement redistributes every pending task
+    private boolean rebalanceRequired = false;
+    // Relative difference between the busiest and least busy server that triggers a full rebalance
+    private double skewThreshold = 0.5;
+    // Whether servers that run out of tasks during executeAll steal queued tasks from the busiest server
+    private boolean workStealing = false;
+    // Number of tasks moved between servers by work stealing
+    private final Counter stolenTaskCount = metrics.counter("tasks_stolen");
+    // Maximum number of servers that executeAll runs at the same time
+    private int executionParallelism = Runtime.getRuntime().availableProcessors();
 
     // Constructor with a custom retry policy
     public TaskScheduler(RetryPolicy retryPolicy) {
         this.retryPolicy = retryPolicy;
+        metrics.gauge("servers", servers::size);
+        metrics.gauge("tasks_pending", tasksToSchedule::size);
+        metrics.gauge("tasks_held", dependencyGraph::getHeldTaskCount);
+        metrics.gauge("completed_task_ids", completedTasks::size);
+        metrics.gauge("retries_waiting", retryTimer::getPendingCount);
     }
 
     // Default constructor with a default retry policy
@@ -54,7 +99,75 @@ public class TaskScheduler {
         servers.add(server);
         serverTaskCount.put(server, 0); // Initialize the number of tasks on the server to 0
         serverDurations.put(server, 0L); // Initialize the server duration
+        serverLoads.add(server, 0L);
         performanceMonitor.addServer(server); // Add the server to the performance monitor
+        rebalanceRequired = true; // Spread the existing tasks onto the new server during the next placement
+    }
+
+    // Remove a server from the task scheduler, moving its pending tasks back into the queue
+    // A server can't be removed while executeAll is running, since it may still be working through its tasks
+    public synchronized void removeServer(Server server) throws SchedulerException {
+        validateServer(server);
+        if (runningExecutions > 0) {
+            throw new SchedulerException("Servers cannot be removed while tasks are executing");
+        }
+        if (!servers.remove(server)) {
+            throw new SchedulerException("Server is not registered with this scheduler");
+        }
+        server.getTasks().stream()
+                .filter(task -> !task.isCompleted())
+                .forEach(tasksToSchedule::offer);
+        server.clearTasks();
+        serverTaskCount.remove(server);
+        serverDurations.remove(server);
+        serverLoads.remove(server);
+        loadBalancingStrategy.removeServer(server);
+        performanceMonitor.removeServer(server);
+        server.close();
+        rebalanceRequired = true;
+    }
+
+    // Set the relative load difference (0 to 1) between the busiest and least busy server that triggers a rebalance
+    public synchronized void setSkewThreshold(double skewThreshold) throws SchedulerException {
+        if (skewThreshold <= 0 || skewThreshold > 1) {
+            throw new SchedulerException("Skew threshold must be between 0 (exclusive) and 1 (inclusive)");
+        }
+        this.skewThreshold = skewThreshold;
+    }
+
+    // Set the maximum number of servers that executeAll runs at the same time
+    public synchronized void setExecutionParallelism(int executionParallelism) throws SchedulerException {
+        if (executionParallelism < 1) {
+            throw new SchedulerException("Execution parallelism must be at least 1");
+        }
+        this.executionParallelism = executionParallelism;
+    }
+
+    // Choose how tasks are spread across the servers (least loaded by default)
+    public synchronized void setLoadBalancingStrategy(LoadBalancingStrategy loadBalancingStrategy) throws SchedulerException {
+        if (loadBalancingStrategy == null) {
+            throw new SchedulerException("Load balancing strategy cannot be null");
+        }
+        this.loadBalancingStrategy = loadBalancingStrategy;
+    }
+
+    // Choose whether servers that finish their own tasks during executeAll steal tasks that haven't started yet
+    // from the server with the longest queue, which makes up for estimated durations that turn out to be wrong
+    public synchronized void setWorkStealing(boolean workStealing) {
+        this.workStealing = workStealing;
+    }
+
+    // Get the number of tasks that have been moved between servers by work stealing
+    public long getStolenTaskCount() {
+        return stolenTaskCount.get();
+    }
+
+    // Choose whether executeAll places the whole batch of pending tasks with LPT first
+    public synchronized void setPlacementMode(PlacementMode placementMode) throws SchedulerException {
+        if (placementMode == null) {
+            throw new SchedulerException("Placement mode cannot be null");
+        }
+        this.placementMode = placementMode;
     }
 
     // Ensure a server is not null
@@ -76,13 +189,13 @@ public class TaskScheduler {
         validateTask(task);
         Set<String> dependencies = task.getDependencies();
         // If the task has no dependencies or all dependencies are completed, return true
-        if (dependencies == null || dependencies.isEmpty() || completedTasks.containsAll(dependencies)) {
+        if (dependencies == null || dependencies.isEmpty() || completedTasks.areAllCompleted(dependencies)) {
             // Log success
-            AlertSystem.sendAlertInfo("Task " + task.getId() + " has no unmet dependencies and will be scheduled");
+            AlertSystem.sendAlertInfo(() -> "Task " + task.getId() + " has no unmet dependencies and will be scheduled");
             return true;
         } else {
             // Log a warning if the task has dependencies that are not met
-            AlertSystem.sendAlertInfo("Task " + task.getId() + " will not be scheduled due to unmet dependencies: " + dependencies);
+            AlertSystem.sendAlertInfo(() -> "Task " + task.getId() + " will not be scheduled due to unmet dependencies: " + dependencies);
             return false;
         }
     }
@@ -94,6 +207,7 @@ public class TaskScheduler {
         if (!dependenciesMet(task)) { // Check if the task's dependencies are met
             throw new SchedulerException("Task dependencies not met");
         }
+        referenceDependencies(task); // Keep the dependencies' completion records until this task completes
         try {
             // Offer the task to the thread-safe task queue
             tasksToSchedule.put(task);
@@ -105,9 +219,117 @@ public class TaskScheduler {
         distributeTasks();
     }
 
-    // Add a task to the list of completed tasks
+    // Schedule a group of tasks that may depend on each other, such as a whole workflow
+    // Each task is held until its last dependency completes, then released to the servers
+    // Dependencies must be completed tasks, tasks in the group, or tasks from an earlier group
+    public synchronized void scheduleGraph(Collection<Task> tasks) throws SchedulerException, SchedulerFullException {
+        if (tasks == null) {
+            throw new SchedulerException("Tasks cannot be null");
+        }
+        checkServersAvailability();
+        // Rejects the whole group if any task is invalid or the dependencies form a cycle
+        List<Task> readyTasks = dependencyGraph.addTasks(tasks, completedTasks::isCompleted);
+        tasks.forEach(this::referenceDependencies);
+        tasksToSchedule.addAll(readyTasks);
+        distributeTasks();
+    }
+
+    // Schedule a large batch of tasks at once, under a single acquisition of the scheduler's lock
+    // Tasks may depend on completed tasks, tasks held from earlier groups, or each other, as with scheduleGraph, but a
+    // task with no dependencies that nothing in the batch depends on is placed like scheduleTask, so later groups can
+    // only depend on it once it has completed. Unlike scheduleGraph, an invalid task (null, a duplicate ID, an unknown
+    // dependency, or part of a cycle) doesn't reject the whole batch: it is reported in the result along with every
+    // task that depends on it, and the rest are placed together in a single pass
+    public synchronized ScheduleResult scheduleAll(Collection<Task> tasks) throws SchedulerException, SchedulerFullException {
+        if (tasks == null) {
+            throw new SchedulerException("Tasks cannot be null");
+        }
+        checkServersAvailability();
+        List<Task> submittedTasks = new ArrayList<>(tasks);
+        Map<Integer, SchedulerException> errors = new HashMap<>();
+        List<Task> readyTasks = dependencyGraph.addValidTasks(submittedTasks, completedTasks::isCompleted, errors);
+        List<Task> scheduledTasks = new ArrayList<>(submittedTasks.size() - errors.size());
+        List<ScheduleResult.Rejection> rejections = new ArrayList<>(errors.size());
+        for (int i = 0; i < submittedTasks.size(); i++) {
+            Task task = submittedTasks.get(i);
+            SchedulerException error = errors.get(i);
+            if (error == null) {
+                referenceDependencies(task);
+                scheduledTasks.add(task);
+            } else {
+                rejections.add(new ScheduleResult.Rejection(i, task, error));
+            }
+        }
+        tasksToSchedule.addAll(readyTasks);
+        distributeTasks();
+        return new ScheduleResult(scheduledTasks, rejections, scheduledTasks.size() - readyTasks.size());
+    }
+
+    // Get the number of tasks from scheduleGraph that are still waiting for their dependencies
+    public int getHeldTaskCount() {
+        return dependencyGraph.getHeldTaskCount();
+    }
+
+    // Choose whether completed task IDs are kept forever or forgotten once no pending task depends on them
+    // With EVICT_UNREFERENCED, a task scheduled later can't depend on a task that has already been forgotten
+    public synchronized void setCompletionRetention(CompletionStore.Retention retention) {
+        completedTasks.setRetention(retention);
+    }
+
+    // Get the number of completed task IDs the scheduler is keeping
+    public int getCompletedTaskCount() {
+        return completedTasks.size();
+    }
+
+    // Add a task to the list of completed tasks, releasing any held tasks that were waiting for it
     private synchronized void completeTask(Task task) {
-        completedTasks.add(task.getId());
+        completedTasks.markCompleted(task.getId());
+        failedAttempts.remove(task.getId());
+        // The task no longer needs its own dependencies' completion records
+        releaseDependencies(task);
+        tasksToSchedule.addAll(dependencyGraph.markCompleted(task.getId()));
+    }
+
+    // Forget a task that failed for good, along with the held tasks that depended on it, returning those tasks
+    // Called by the simulation engine too, which runs its own retries and so decides when a task has failed for good
+    public synchronized List<Task> abandonTask(Task task) {
+        failedAttempts.remove(task.getId());
+        releaseDependencies(task);
+        List<Task> dependents = dependencyGraph.markFailed(task.getId());
+        dependents.forEach(this::releaseDependencies);
+        return dependents;
+    }
+
+    // Record that a pending task depends on its dependencies' completion records
+    private void referenceDependencies(Task task) {
+        Set<String> dependencies = task.getDependencies();
+        if (dependencies != null && !dependencies.isEmpty()) {
+            completedTasks.addReferences(dependencies);
+        }
+    }
+
+    // Drop a task's hold on its dependencies' completion records once it no longer needs them
+    private void releaseDependencies(Task task) {
+        Set<String> dependencies = task.getDependencies();
+        if (dependencies != null && !dependencies.isEmpty()) {
+            completedTasks.releaseReferences(dependencies);
+        }
+    }
+
+    // Take the highest priority task off a server's queue so it can start running, or null if the queue is empty
+    // The task still counts towards the server's load until finishTask is called
+    public synchronized Task startNextTask(Server server) {
+        return server.pollTask();
+    }
+
+    // Release a task started with startNextTask from the server's load, recording it as completed if it succeeded
+    // Any tasks this releases from the dependency graph are placed straight away
+    public synchronized void finishTask(Server server, Task task) throws SchedulerFullException {
+        updateServerMetrics(server, List.of(task));
+        if (task.isCompleted()) {
+            completeTask(task);
+            distributeTasks();
+        }
     }
 
     // Requeue all unfinished tasks from the servers back into the task queue
@@ -127,45 +349,160 @@ public class TaskScheduler {
             server.clearTasks();
             serverTaskCount.put(server, 0);
             serverDurations.put(server, 0L);
+            serverLoads.update(server, 0L);
         });
     }
 
-    // Distribute tasks one by one to the least loaded server
+    // Place pending tasks on the servers, only moving tasks that are already placed when a rebalance is needed
+    // While executeAll is running the servers, tasks are left in the queue for the placement at the end of the run
     private synchronized void distributeTasks() throws SchedulerFullException {
-        // Take all tasks out of the servers and put them back in the queue
-        requeueUnfinishedTasks();
+        if (runningExecutions > 0) {
+            return;
+        }
+        if (rebalanceRequired) {
+            // Take all tasks out of the servers and put them back in the queue
+            requeueUnfinishedTasks();
+            rebalanceRequired = false;
+        }
+        // Only the tasks waiting in the queue are placed, so scheduling a single task does not touch the others
         while (!tasksToSchedule.isEmpty()) { // While there are tasks to schedule
-            // Get the least loaded server
-            Server leastLoadedServer = findLeastLoadedServer();
-            // Assign the highest priority task to the least loaded server
+            // Assign the highest priority task to the server chosen by the load balancing strategy
             Task task = tasksToSchedule.poll();
             if (task != null) {
-                leastLoadedServer.addTask(task);
-                // Update the server's total load with the task's estimated duration
-                long taskDuration = task.getEstimatedDuration().getDurationMs().longValue();
-                serverDurations.put(leastLoadedServer, serverDurations.get(leastLoadedServer) + taskDuration);
-                // Update the number of tasks on the server
-                serverTaskCount.put(leastLoadedServer, serverTaskCount.get(leastLoadedServer) + 1);
+                placeTask(task);
+            }
+        }
+    }
+
+    // Place a single task on the server chosen by the load balancing strategy
+    private void placeTask(Task task) throws SchedulerFullException {
+        assignTask(chooseServer(task), task);
+    }
+
+    // Add a task to a server and update the load maps
+    private void assignTask(Server server, Task task) {
+        server.addTask(task);
+        // Update the server's total load with the task's estimated duration
+        long taskDuration = task.getEstimatedDuration().toMillis();
+        serverDurations.merge(server, taskDuration, Long::sum);
+        // Update the number of tasks on the server
+        serverTaskCount.merge(server, 1, Integer::sum);
+        refreshServerLoad(server);
+    }
+
+    // Place every pending task, including ones already on servers, with Longest-Processing-Time-first, returning the
+    // predicted makespan. Priority classes are placed highest first. Within a class the longest tasks go first, each
+    // onto the server core that would finish it earliest given the server's speed, so short tasks fill in the gaps.
+    // While executeAll is running the servers, the tasks are left where they are and replanned at the end of the run,
+    // so the prediction for the current placement is returned instead.
+    public synchronized long planBatch() throws SchedulerFullException {
+        checkServersAvailability();
+        if (runningExecutions > 0) {
+            rebalanceRequired = true;
+            return predictMakespan();
+        }
+        requeueUnfinishedTasks();
+        rebalanceRequired = false;
+        List<Task> pendingTasks = new ArrayList<>();
+        tasksToSchedule.drainTo(pendingTasks);
+        Map<TaskPriority, List<Task>> priorityClasses = new EnumMap<>(TaskPriority.class);
+        for (Task task : pendingTasks) {
+            priorityClasses.computeIfAbsent(task.getPriority(), priority -> new ArrayList<>()).add(task);
+        }
+        // Map of servers to the times (in ms from the start of execution) at which each of their cores becomes free
+        Map<Server, PriorityQueue<Long>> coreFreeTimes = new HashMap<>();
+        for (Server server : servers) {
+            coreFreeTimes.put(server, newCoreFreeTimes(server));
+        }
+        for (List<Task> priorityClass : priorityClasses.values()) {
+            priorityClass.sort(Comparator.comparing(Task::getEstimatedDuration, Duration::compareTo).reversed());
+            for (Task task : priorityClass) {
+                Server bestServer = null;
+                long bestFinish = Long.MAX_VALUE;
+                for (Server server : servers) {
+                    long finish = coreFreeTimes.get(server).peek() + server.getExpectedDuration(task);
+                    if (finish < bestFinish) {
+                        bestServer = server;
+                        bestFinish = finish;
+                    }
+                }
+                PriorityQueue<Long> cores = coreFreeTimes.get(bestServer);
+                cores.poll();
+                cores.add(bestFinish);
+                assignTask(bestServer, task);
+            }
+        }
+        return predictMakespan();
+    }
+
+    // Predict how long (in ms) it will take every server to run the tasks now placed on it, if they all start together
+    // Each server is assumed to start its queued tasks in order on whichever of its cores is free first
+    public synchronized long predictMakespan() {
+        long makespan = 0;
+        for (Server server : servers) {
+            PriorityQueue<Long> cores = newCoreFreeTimes(server);
+            long serverFinish = 0;
+            for (Task task : server.getTasks()) {
+                long finish = cores.poll() + server.getExpectedDuration(task);
+                cores.add(finish);
+                serverFinish = Math.max(serverFinish, finish);
             }
+            makespan = Math.max(makespan, serverFinish);
+        }
+        return makespan;
+    }
+
+    // Create a queue with a free time of 0 for each of a server's cores
+    private PriorityQueue<Long> newCoreFreeTimes(Server server) {
+        PriorityQueue<Long> cores = new PriorityQueue<>();
+        for (int i = 0; i < server.getMaxConcurrentTasks(); i++) {
+            cores.add(0L);
+        }
+        return cores;
+    }
+
+    // Flag a full rebalance if the server loads have drifted too far apart
+    private synchronized void requestRebalanceIfSkewed() {
+        if (isLoadSkewed()) {
+            rebalanceRequired = true;
         }
     }
 
-    // Find the least loaded server based on its load score (number of tasks + total duration of tasks)
-    private synchronized Server findLeastLoadedServer() throws SchedulerFullException {
-        return servers.stream()
-                // Compare servers based on the calculated load score
-                .min(Comparator.comparing(this::calculateServerLoad))
-                .orElseThrow(() -> new SchedulerFullException("No servers available"));
+    // Check whether the least loaded server has fallen too far behind the busiest one
+    private boolean isLoadSkewed() {
+        long maxLoad = 0;
+        long minLoad = Long.MAX_VALUE;
+        for (Server server : servers) {
+            long load = calculateServerLoad(server);
+            maxLoad = Math.max(maxLoad, load);
+            minLoad = Math.min(minLoad, load);
+        }
+        return maxLoad > 0 && (maxLoad - minLoad) > skewThreshold * maxLoad;
+    }
+
+    // Ask the load balancing strategy which server should take a task
+    private synchronized Server chooseServer(Task task) throws SchedulerFullException {
+        Server chosenServer = servers.isEmpty() ? null : loadBalancingStrategy.chooseServer(task, servers, serverLoads);
+        if (chosenServer == null) {
+            throw new SchedulerFullException("No servers available");
+        }
+        return chosenServer;
+    }
+
+    // Recalculate a server's load score after its task count or duration changes
+    private void refreshServerLoad(Server server) {
+        serverLoads.update(server, calculateServerLoad(server));
     }
 
     // Calculate a load score for a server based on the number of tasks and the total duration of the tasks
+    // The duration is divided by the server's capacity, so a server with more or faster cores takes more work
     private long calculateServerLoad(Server server) {
         int numberOfTasks = serverTaskCount.getOrDefault(server, 0);
         long totalDuration = serverDurations.getOrDefault(server, 0L);
         // Weighted load score calculation
         int taskDurationWeight = 1;
         int taskAmountWeight = 1;
-        return (taskAmountWeight * numberOfTasks) + (taskDurationWeight * totalDuration);
+        return (taskAmountWeight * numberOfTasks) + Math.round(taskDurationWeight * totalDuration / server.getCapacity());
     }
 
     // Check if there are servers available
@@ -175,121 +512,244 @@ public class TaskScheduler {
         }
     }
 
-    // Execute tasks on a specific server
-    private List<Task> executeTasksOnServer(Server server) throws SchedulerException {
+    // Execute tasks on a specific server, where executedTasks are the tasks queued on it when execution began
+    // Every queued task leaves the server during execution, whether it completes, fails or is stolen by another server
+    private List<Task> executeTasksOnServer(Server server, List<Task> executedTasks) throws SchedulerException {
         List<Task> completedTasks;
+        long tasksStartedBefore = server.getTotalTasksStarted();
+        long estimatedMsStartedBefore = server.getTotalEstimatedMsStarted();
+        long startTime = System.nanoTime();
         try {
             completedTasks = server.executeTasks();
         } catch (ServerException e) {
             throw new SchedulerException("Failed to execute tasks on server", e);
         }
+        // Let the load balancing strategy learn how long the server really took, network latency included
+        // The server is measured over the tasks it ran (stolen ones included), not the ones queued on it at the start
+        long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+        int tasksStarted = (int) (server.getTotalTasksStarted() - tasksStartedBefore);
+        long estimatedMs = server.getTotalEstimatedMsStarted() - estimatedMsStartedBefore;
+        getLoadBalancingStrategy().recordExecution(server, tasksStarted, estimatedMs, elapsedMs);
         // Handle tasks that have timed out by retrying them
         for (Task task : completedTasks) {
             if (!task.isCompleted()) {
                 AlertSystem.sendAlertWarning("Task " + task.getId() + " timed out on server " + server);
             }
         }
-        updateServerMetrics(server, completedTasks);
+        updateServerMetrics(server, executedTasks);
         return completedTasks;
     }
 
     // Update the server metrics after executing tasks
-    private void updateServerMetrics(Server server, List<Task> completedTasks) {
-        // Update the number of tasks on the server (reduce by the number of completed tasks)
-        serverTaskCount.computeIfPresent(server, (s, count) -> count - completedTasks.size());
+    private synchronized void updateServerMetrics(Server server, List<Task> executedTasks) {
+        // Update the number of tasks on the server (reduce by the number of executed tasks)
+        serverTaskCount.computeIfPresent(server, (s, count) -> count - executedTasks.size());
         // Update the total duration of the server
-        // Subtract the total duration of the completed tasks from the server's total duration
-        long totalCompletedDuration = completedTasks.stream()
-                .mapToLong(t -> t.getEstimatedDuration().getDurationMs().longValue())
+        // Subtract the total duration of the executed tasks from the server's total duration
+        long totalExecutedDuration = executedTasks.stream()
+                .mapToLong(t -> t.getEstimatedDuration().toMillis())
                 .sum();
         // computeIfPresent method updates the value only if the key is present in the map
-        serverDurations.computeIfPresent(server, (s, load) -> load - totalCompletedDuration);
+        serverDurations.computeIfPresent(server, (s, load) -> load - totalExecutedDuration);
+        refreshServerLoad(server);
     }
 
-    // Retry the failed tasks on a particular server
+    // Schedule retries for the failed tasks on a particular server
+    // Nothing waits for the retry delays here: each task is handed to the retry timer and goes back through the
+    // normal placement once its delay has passed, so it can land on a healthier server
     private void retryFailedTasks(Server server) throws SchedulerException {
-        List<Task> failedTasks = server.getFailedTasks(); // Get failed tasks from the server
-        for (Task task : failedTasks) {
-            boolean taskSuccessful = retryTask(task, server); // Attempt to retry each failed task
-            if (!taskSuccessful) {
-                handleOutOfRetries(task); // Handle the case where the task fails after all retry attempts
+        List<Task> tasksOutOfRetries = new ArrayList<>();
+        for (Task task : server.drainFailedTasks()) { // Take the failed tasks off the server
+            if (!scheduleRetry(task, server)) {
+                tasksOutOfRetries.add(task);
             }
         }
+        if (!tasksOutOfRetries.isEmpty()) {
+            handleOutOfRetries(tasksOutOfRetries); // Handle the tasks that have failed every retry attempt
+        }
     }
 
-    // Attempt to retry a single task on a server
-    private boolean retryTask(Task task, Server server) throws SchedulerException {
-        int attempt = 1;
-        boolean taskSuccessful = false;
-        // Retry the task until it succeeds or the retry policy is exhausted
-        while (retryPolicy.shouldRetry(attempt) && !taskSuccessful) {
-            try {
-                logRetryAttempt(task, server, attempt); // Log retry attempt
-                task.execute(); // Try executing the task
-                taskSuccessful = true; // Task executed successfully
-            } catch (Exception e) {
-                logRetryFailure(task, server, attempt, e); // Log failure of the retry attempt
-                attempt = handleRetryDelay(attempt); // Handle the delay before next retry, if any
-            }
+    // Requeue a failed task once its retry delay has passed, returning false if it has no retries left
+    private boolean scheduleRetry(Task task, Server server) {
+        int attempt = failedAttempts.merge(task.getId(), 1, Integer::sum);
+        if (!retryPolicy.shouldRetry(attempt)) {
+            return false;
         }
-        return taskSuccessful;
+        long delay = retryPolicy.getJitteredDelay(attempt);
+        logRetryAttempt(task, server, attempt, delay);
+        retryTimer.schedule(delay, () -> requeueRetry(task));
+        return true;
     }
 
-    // Log a retry attempt for a task
-    private void logRetryAttempt(Task task, Server server, int attempt) {
-        AlertSystem.sendAlertWarning("Retrying task " + task.getId() + " on server " + server + " (attempt " + attempt + ")");
+    // Put a task back in the queue and place it, without checking its dependencies again (used for retries)
+    // A task requeued while executeAll is running is placed once the run has finished
+    public synchronized void requeueTask(Task task) throws SchedulerException, SchedulerFullException {
+        validateTask(task);
+        tasksToSchedule.offer(task);
+        distributeTasks();
     }
 
-    // Log a failure during retry
-    private void logRetryFailure(Task task, Server server, int attempt, Exception e) {
-        AlertSystem.sendAlertError("Task " + task.getId() + " failed on server " + server + " (attempt " + attempt + ") - Error: " + e.getMessage());
+    // Requeue a task from the retry timer, leaving it in the queue for the next placement if there are no servers
+    private void requeueRetry(Task task) {
+        try {
+            requeueTask(task);
+        } catch (SchedulerException | SchedulerFullException e) {
+            AlertSystem.sendAlertError("Failed to requeue task " + task.getId() + " for retry: " + e.getMessage());
+        }
     }
 
-    // Handle delay between retry attempts, and check for interruption
-    private int handleRetryDelay(int attempt) throws SchedulerException {
-        if (retryPolicy.shouldRetry(attempt)) { // Check if there are more retries left
-            long delay = retryPolicy.getDelay(attempt);
-            try {
-                Thread.sleep(delay); // Delay before the next retry
-            } catch (InterruptedException ex) {
-                Thread.currentThread().interrupt();
-                throw new SchedulerException("Task retry interrupted", ex);
-            }
-            return attempt + 1; // Increment attempt after successful delay
-        }
-        return attempt;
+    // Log a retry attempt for a task
+    private void logRetryAttempt(Task task, Server server, int attempt, long delay) {
+        AlertSystem.sendAlertWarning("Retrying task " + task.getId() + " from server " + server + " in " + delay + " ms (attempt " + attempt + ")");
     }
 
-    // Handle the scenario where a task fails all retry attempts
-    private void handleOutOfRetries(Task task) throws SchedulerException {
-        validateTask(task);
-        AlertSystem.sendAlertError("Task " + task.getId() + " failed after all retries");
-        throw new SchedulerException("Task " + task.getId() + " failed after all retries");
+    // Handle the scenario where tasks fail all retry attempts
+    // The tasks held waiting for them can never run, so they are dropped from the dependency graph and reported too
+    private void handleOutOfRetries(List<Task> tasks) throws SchedulerException {
+        List<String> taskIds = new ArrayList<>();
+        List<String> dependentIds = new ArrayList<>();
+        for (Task task : tasks) {
+            AlertSystem.sendAlertError("Task " + task.getId() + " failed after all retries");
+            taskIds.add(task.getId());
+            for (Task dependent : abandonTask(task)) {
+                AlertSystem.sendAlertError("Task " + dependent.getId() + " will not run because task " + task.getId() + " failed");
+                dependentIds.add(dependent.getId());
+            }
+        }
+        if (dependentIds.isEmpty()) {
+            throw new SchedulerException("Tasks " + taskIds + " failed after all retries");
+        }
+        throw new SchedulerException("Tasks " + taskIds + " failed after all retries, so dependent tasks " + dependentIds + " will not run");
     }
 
     // Execute all tasks on all servers
     public Map<Server, List<Task>> executeAll() throws SchedulerFullException {
-        // Distribute the tasks and ensure servers are available
-        distributeTasks();
+        // Place the whole batch with LPT, or rebalance if the loads have drifted apart and distribute the new tasks
+        if (getPlacementMode() == PlacementMode.LONGEST_PROCESSING_TIME) {
+            planBatch();
+        } else {
+            requestRebalanceIfSkewed();
+            distributeTasks();
+        }
         checkServersAvailability();
-        // Execute tasks on all servers and collect the results
-        Map<Server, List<Task>> results = new HashMap<>();
-         servers.forEach(server -> {
-             try {
-                results.put(server, executeTasksOnServer(server));
-                retryFailedTasks(server);
-             } catch (SchedulerException e) {
-                 AlertSystem.sendAlertError("Failed to execute tasks on server: " + server);
-             }
-         });
+        // The prediction takes the scheduler's lock, so it is made here rather than by the lazy message on the log thread
+        if (AlertSystem.isInfoEnabled()) {
+            AlertSystem.sendAlertInfo("Predicted makespan: " + predictMakespan() + " ms");
+        }
+        // Execute tasks on all servers in parallel and collect the results
+        Map<Server, List<Task>> results;
+        setExecutionRunning(true);
+        try {
+            results = executeOnAllServers(getServers());
+        } finally {
+            setExecutionRunning(false);
+        }
         // Add the completed tasks to the set of completed tasks
         results.values().forEach(completedTasks -> completedTasks.forEach(this::completeTask));
+        // Place the tasks that were waiting on the ones that just completed, ready for the next run
+        distributeTasks();
         // Display error metrics and performance metrics
         ErrorHandler.displayAllMetrics();
         performanceMonitor.checkAlerts();
         return results;
     }
 
+    // Track whether an executeAll call is running its servers
+    private synchronized void setExecutionRunning(boolean running) {
+        runningExecutions += running ? 1 : -1;
+    }
+
+    // Stop the retry timer, dropping any failed tasks that are still waiting for their retry delay, and close the servers
+    public void close() {
+        retryTimer.stop();
+        getServers().forEach(Server::close);
+    }
+
+    // Run each server's tasks and retries on its own thread, with at most executionParallelism servers at once
+    private Map<Server, List<Task>> executeOnAllServers(List<Server> serversToExecute) {
+        Map<Server, List<Task>> results = new ConcurrentHashMap<>();
+        int poolSize = Math.min(getExecutionParallelism(), serversToExecute.size());
+        ExecutorService executor = Executors.newFixedThreadPool(poolSize);
+        // Every queue is read before any server starts, since stealing can empty a queue before its server runs
+        Map<Server, List<Task>> queuedTasks = new HashMap<>();
+        serversToExecute.forEach(server -> queuedTasks.put(server, server.getTasks()));
+        WorkStealingGroup stealingGroup = isWorkStealing() ? new WorkStealingGroup(serversToExecute) : null;
+        if (stealingGroup != null) {
+            serversToExecute.forEach(server -> server.setWorkStealingGroup(stealingGroup));
+        }
+        try {
+            // Every server is submitted separately, so a slow server only holds up its own slot in the pool
+            List<Future<?>> futures = new ArrayList<>();
+            for (Server server : serversToExecute) {
+                futures.add(executor.submit(() -> executeAndRetryOnServer(server, queuedTasks.get(server), results)));
+            }
+            awaitServerExecutions(futures);
+        } finally {
+            executor.shutdownNow();
+            if (stealingGroup != null) {
+                serversToExecute.forEach(server -> server.setWorkStealingGroup(null));
+                stolenTaskCount.add(stealingGroup.getStolenTaskCount());
+            }
+        }
+        return new HashMap<>(results);
+    }
+
+    // Execute the tasks on a server, then retry its failed tasks
+    private void executeAndRetryOnServer(Server server, List<Task> queuedTasks, Map<Server, List<Task>> results) {
+        try {
+            results.put(server, executeTasksOnServer(server, queuedTasks));
+            retryFailedTasks(server);
+        } catch (SchedulerException e) {
+            AlertSystem.sendAlertError("Failed to execute tasks on server: " + server);
+        }
+    }
+
+    // Wait for every server to finish executing
+    private void awaitServerExecutions(List<Future<?>> futures) {
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                AlertSystem.sendAlertError("Unexpected error while executing tasks: " + e.getCause());
+            } catch (InterruptedException e) {
+                // Stop waiting and cancel the remaining servers if the calling thread is interrupted
+                futures.forEach(remaining -> remaining.cancel(true));
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private synchronized boolean isWorkStealing() {
+        return workStealing;
+    }
+
+    private synchronized PlacementMode getPlacementMode() {
+        return placementMode;
+    }
+
+    private synchronized LoadBalancingStrategy getLoadBalancingStrategy() {
+        return loadBalancingStrategy;
+    }
+
+    private synchronized int getExecutionParallelism() {
+        return executionParallelism;
+    }
+
+    public RetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    // Get the scheduler-wide metrics, which can be read without taking the scheduler's lock
+    public MetricsRegistry getMetrics() {
+        return metrics;
+    }
+
+    // Get the monitor checked after every executeAll, for example to set latency thresholds on it
+    public PerformanceMonitor getPerformanceMonitor() {
+        return performanceMonitor;
+    }
+
     // Get the list of servers with defensive copying
     public List<Server> getServers() {
         return new ArrayList<>(servers);
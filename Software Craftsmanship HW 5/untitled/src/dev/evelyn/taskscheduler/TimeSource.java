@@ -0,0 +1,10 @@
+package dev.evelyn.taskscheduler;
+
+// Source of the current time in ms, so classes that depend on time can also run on a simulated clock
+@FunctionalInterface
+public interface TimeSource {
+    // The real system clock
+    TimeSource SYSTEM = System::currentTimeMillis;
+
+    long currentTimeMillis();
+}
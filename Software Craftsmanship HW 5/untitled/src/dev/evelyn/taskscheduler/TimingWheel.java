@@ -0,0 +1,165 @@
+package dev.evelyn.taskscheduler;
+
+import dev.evelyn.taskscheduler.metrics.AlertSystem;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Hashed timing wheel that runs short actions after a delay, on a single background thread
+// Scheduling only adds to a lock-free queue, so callers are never blocked. Each tick, the worker thread moves new
+// timeouts into the bucket for their deadline and runs the timeouts in the current bucket that are due.
+// A cancelled timeout stays in its bucket until the worker next passes it, which is at most one turn of the wheel.
+public final class TimingWheel {
+    private final long tickMs;
+    private final List<List<Timeout>> buckets;
+    private final int mask;
+    // Timeouts waiting to be moved into a bucket by the worker thread
+    private final Queue<Timeout> newTimeouts = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pendingCount = new AtomicInteger();
+    private final long startTime = System.nanoTime();
+    private Thread worker;
+    private volatile boolean running = true;
+
+    // The wheel size is rounded up to a power of two so a tick can be mapped to a bucket with a mask
+    public TimingWheel(long tickMs, int wheelSize) {
+        if (tickMs < 1 || wheelSize < 1) {
+            throw new IllegalArgumentException("Tick length and wheel size must be positive");
+        }
+        this.tickMs = tickMs;
+        int size = 1;
+        while (size < wheelSize) {
+            size <<= 1;
+        }
+        buckets = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            buckets.add(new ArrayList<>());
+        }
+        mask = size - 1;
+    }
+
+    // Run an action once at least delayMs has passed (actions run on the wheel's thread, so they should be short)
+    // The returned timeout can be cancelled if the action is no longer needed
+    public Timeout schedule(long delayMs, Runnable action) {
+        startWorkerIfNeeded();
+        long deadline = elapsedMs() + Math.max(0, delayMs);
+        Timeout timeout = new Timeout(deadline, action);
+        pendingCount.incrementAndGet();
+        newTimeouts.add(timeout);
+        return timeout;
+    }
+
+    // Get the number of actions that have not run yet
+    public int getPendingCount() {
+        return pendingCount.get();
+    }
+
+    // Stop the worker thread, dropping any actions that have not run yet
+    public void stop() {
+        running = false;
+        synchronized (this) {
+            if (worker != null) {
+                worker.interrupt();
+            }
+        }
+    }
+
+    private synchronized void startWorkerIfNeeded() {
+        if (worker == null && running) {
+            worker = new Thread(this::run, "timing-wheel");
+            worker.setDaemon(true); // The wheel should not keep the application running
+            worker.start();
+        }
+    }
+
+    private void run() {
+        long tick = 0;
+        while (running) {
+            // Sleep until the start of the next tick (only the wheel's own thread ever waits)
+            long sleepTime = (tick + 1) * tickMs - elapsedMs();
+            if (sleepTime > 0) {
+                try {
+                    Thread.sleep(sleepTime);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+            transferNewTimeouts(tick);
+            expireBucket(buckets.get((int) (tick & mask)));
+            tick++;
+        }
+    }
+
+    // Move new timeouts into the bucket for their deadline, with the number of full turns left before they are due
+    private void transferNewTimeouts(long currentTick) {
+        Timeout timeout;
+        while ((timeout = newTimeouts.poll()) != null) {
+            long deadlineTick = Math.max(currentTick, timeout.deadline / tickMs);
+            timeout.remainingRounds = (deadlineTick - currentTick) / buckets.size();
+            buckets.get((int) (deadlineTick & mask)).add(timeout);
+        }
+    }
+
+    // Run the timeouts in a bucket that are due this turn of the wheel
+    private void expireBucket(List<Timeout> bucket) {
+        Iterator<Timeout> iterator = bucket.iterator();
+        while (iterator.hasNext()) {
+            Timeout timeout = iterator.next();
+            if (timeout.isCancelled()) {
+                iterator.remove();
+                continue;
+            }
+            if (timeout.remainingRounds > 0) {
+                timeout.remainingRounds--;
+                continue;
+            }
+            iterator.remove();
+            if (!timeout.finished.compareAndSet(false, true)) {
+                continue; // Cancelled since the check above
+            }
+            pendingCount.decrementAndGet();
+            try {
+                timeout.action.run();
+            } catch (RuntimeException e) {
+                AlertSystem.sendAlertError("Timed action failed: " + e.getMessage());
+            }
+        }
+    }
+
+    private long elapsedMs() {
+        return (System.nanoTime() - startTime) / 1_000_000;
+    }
+
+    // An action waiting on the wheel, which runs at most once and never after it has been cancelled
+    public final class Timeout {
+        private final long deadline;
+        private final Runnable action;
+        // Set by whichever of expiry and cancel() happens first
+        private final AtomicBoolean finished = new AtomicBoolean();
+        private volatile boolean cancelled;
+        private long remainingRounds;
+
+        private Timeout(long deadline, Runnable action) {
+            this.deadline = deadline;
+            this.action = action;
+        }
+
+        // Stop the action from running, returning false if it has already run or been cancelled
+        public boolean cancel() {
+            if (!finished.compareAndSet(false, true)) {
+                return false;
+            }
+            cancelled = true;
+            pendingCount.decrementAndGet();
+            return true;
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+    }
+}
@@ -7,10 +7,12 @@ public class SchedulerException extends Exception {
     // Thrown from the TaskScheduler class
     // Can take both a message and stack trace or just a message
     public SchedulerException(String message) {
+        super(message);
         ErrorHandler.reportError(this, message);
     }
 
     public SchedulerException(String message, Exception e) {
+        super(message, e);
         ErrorHandler.reportError(e, message);
         e.printStackTrace();
     }
@@ -8,10 +8,12 @@ public class ServerException extends Exception {
     // Can take both a message and stack trace or just a message
 
     public ServerException(String message) {
+        super(message);
         ErrorHandler.reportError(this, message);
     }
 
     public ServerException(String message, Exception e) {
+        super(message, e);
         ErrorHandler.reportError(e, message);
         e.printStackTrace();
     }
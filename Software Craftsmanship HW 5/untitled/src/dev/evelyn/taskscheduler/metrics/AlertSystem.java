@@ -1,39 +1,149 @@
 package dev.evelyn.taskscheduler.metrics;
 
+import java.util.function.Supplier;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 public final class AlertSystem {
-    // This could easily be set in the launch parameters or a configuration file in deployment
-    private static final LOGGING_LEVEL level = LOGGING_LEVEL.ALL_ALERTS;
+    // The level can be set in the launch parameters with -Dtaskscheduler.logLevel=VERBOSE, or changed while running
+    private static volatile LOGGING_LEVEL level = initialLevel();
     private static final Logger logger = Logger.getLogger(AlertSystem.class.getName());
+    // Alerts are handed to a background thread that writes them to the logger, so callers never wait on I/O
+    private static final AsyncAppender appender = new AsyncAppender(logger, 8192);
+    private static volatile boolean asynchronous = true;
+
+    static {
+        // Write out whatever is still queued when the application exits
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> appender.flush(1000), "alert-flush"));
+    }
 
     // Simple method to send a warning message
     public static void sendAlertWarning(String message) {
-        if (level == LOGGING_LEVEL.NONE || level == LOGGING_LEVEL.ERRORS) {
-            return;
+        if (isWarningEnabled()) {
+            append(Level.WARNING, message);
         }
-        logger.warning(message);
     }
 
     // Simple method to send an error message
     public static void sendAlertError(String message) {
-        if (level == LOGGING_LEVEL.NONE) {
-            return;
+        if (isErrorEnabled()) {
+            append(Level.SEVERE, message);
         }
-        logger.severe(message);
     }
 
     // Simple method to send an info message
     public static void sendAlertInfo(String message) {
-        if (level == LOGGING_LEVEL.VERBOSE) {
-            logger.info(message);
+        if (isInfoEnabled()) {
+            append(Level.INFO, message);
+        }
+    }
+
+    // Lazy versions of the methods above, which only build the message if its level is being logged
+    // When logging asynchronously the message is built on the appender thread, so it should only use values that
+    // won't change after the call (such as a task's ID).
+    public static void sendAlertWarning(Supplier<String> message) {
+        if (isWarningEnabled()) {
+            append(Level.WARNING, message);
+        }
+    }
+
+    public static void sendAlertError(Supplier<String> message) {
+        if (isErrorEnabled()) {
+            append(Level.SEVERE, message);
+        }
+    }
+
+    public static void sendAlertInfo(Supplier<String> message) {
+        if (isInfoEnabled()) {
+            append(Level.INFO, message);
+        }
+    }
+
+    // Checks for whether each level is being logged, for callers that build a message in several steps
+    public static boolean isErrorEnabled() {
+        return level != LOGGING_LEVEL.NONE;
+    }
+
+    public static boolean isWarningEnabled() {
+        return level == LOGGING_LEVEL.ALL_ALERTS || level == LOGGING_LEVEL.VERBOSE;
+    }
+
+    public static boolean isInfoEnabled() {
+        return level == LOGGING_LEVEL.VERBOSE;
+    }
+
+    public static void setLevel(LOGGING_LEVEL level) {
+        if (level == null) {
+            throw new IllegalArgumentException("Logging level cannot be null");
         }
+        AlertSystem.level = level;
     }
 
-    enum LOGGING_LEVEL {
+    public static LOGGING_LEVEL getLevel() {
+        return level;
+    }
+
+    // Choose whether alerts are written by the background thread (the default) or straight away by the caller
+    // Switching to synchronous logging first writes out every alert that is still queued.
+    public static void setAsynchronous(boolean asynchronous) {
+        if (!asynchronous) {
+            appender.flush(1000);
+        }
+        AlertSystem.asynchronous = asynchronous;
+    }
+
+    // Choose what happens to alerts sent while the background thread's buffer is full
+    public static void setDropPolicy(DropPolicy dropPolicy) {
+        if (dropPolicy == null) {
+            throw new IllegalArgumentException("Drop policy cannot be null");
+        }
+        appender.setDropPolicy(dropPolicy);
+    }
+
+    // Wait up to timeoutMs for every queued alert to be written, returning whether they all were
+    public static boolean flush(long timeoutMs) {
+        return appender.flush(timeoutMs);
+    }
+
+    // Get the number of alerts dropped because the buffer was full
+    public static long getDroppedCount() {
+        return appender.getDroppedCount();
+    }
+
+    // Send a message (either a String or a Supplier of one) to the logger, or to the appender's buffer
+    private static void append(Level messageLevel, Object message) {
+        if (asynchronous) {
+            appender.append(messageLevel, message);
+        } else {
+            logger.log(messageLevel, AsyncAppender.render(message));
+        }
+    }
+
+    // Read the level from the taskscheduler.logLevel system property, falling back to ALL_ALERTS
+    private static LOGGING_LEVEL initialLevel() {
+        String configured = System.getProperty("taskscheduler.logLevel");
+        if (configured != null) {
+            for (LOGGING_LEVEL candidate : LOGGING_LEVEL.values()) {
+                if (candidate.name().equalsIgnoreCase(configured.trim())) {
+                    return candidate;
+                }
+            }
+        }
+        return LOGGING_LEVEL.ALL_ALERTS;
+    }
+
+    public enum LOGGING_LEVEL {
         NONE, // No logging
         ERRORS, // Log only errors
         ALL_ALERTS, // Log errors and warnings
         VERBOSE // Log errors, warnings, and info messages
     }
-}
\ No newline at end of file
+
+    // What happens to an alert sent while the buffer is full
+    public enum DropPolicy {
+        // Drop the new alert, whatever its level
+        DROP_NEW,
+        // Drop new info messages and warnings, but make errors wait for room so they are never lost
+        DROP_NEW_EXCEPT_ERRORS
+    }
+}
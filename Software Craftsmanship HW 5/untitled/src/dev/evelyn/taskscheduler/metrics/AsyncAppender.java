@@ -0,0 +1,147 @@
+package dev.evelyn.taskscheduler.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+// Writes alerts to a logger from a background thread, so the threads sending them never wait for the logger
+// Alerts go into a bounded ring buffer: senders claim a slot with a compare-and-set on the tail and the single writer
+// thread reads from the head, so neither side takes a lock. When the buffer is full, the drop policy decides whether
+// a new alert is dropped or waits for room.
+final class AsyncAppender {
+    private final Logger logger;
+    private final AtomicReferenceArray<Alert> slots;
+    // Number of slots claimed by senders, and number read by the writer (only the writer moves the head)
+    private final AtomicLong tail = new AtomicLong();
+    private volatile long head;
+    // Number of alerts the logger has finished with, which trails the head while an alert is being written
+    private volatile long written;
+    private final Counter droppedCount = new Counter();
+    private volatile AlertSystem.DropPolicy dropPolicy = AlertSystem.DropPolicy.DROP_NEW_EXCEPT_ERRORS;
+    private final Thread writer;
+    // Set while the writer is parked with nothing to write, so senders only wake it when it needs waking
+    private volatile boolean writerWaiting;
+
+    AsyncAppender(Logger logger, int capacity) {
+        this.logger = logger;
+        this.slots = new AtomicReferenceArray<>(capacity);
+        writer = new Thread(this::writeAlerts, "alert-appender");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    // Queue an alert, whose message is either a String or a Supplier that builds it on the writer thread
+    // The record is made here, so it carries the time the alert was sent and the sending thread rather than the
+    // writer's. Only a supplied message is left to the writer thread, since building it is the work callers skip.
+    void append(Level level, Object message) {
+        LogRecord record = new LogRecord(level, message instanceof String text ? text : null);
+        record.setLoggerName(logger.getName());
+        Alert alert = new Alert(record, message instanceof Supplier<?> supplier ? supplier : null);
+        while (!offer(alert)) {
+            if (dropPolicy == AlertSystem.DropPolicy.DROP_NEW || level != Level.SEVERE) {
+                droppedCount.increment();
+                return;
+            }
+            LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(100)); // Errors wait for the writer to make room
+        }
+    }
+
+    // Put an alert in the next free slot, or return false if the buffer is full
+    private boolean offer(Alert alert) {
+        while (true) {
+            long claimed = tail.get();
+            if (claimed - head >= slots.length()) {
+                return false;
+            }
+            if (tail.compareAndSet(claimed, claimed + 1)) {
+                slots.set(index(claimed), alert);
+                if (writerWaiting) {
+                    LockSupport.unpark(writer);
+                }
+                return true;
+            }
+        }
+    }
+
+    // Write alerts as they arrive, for as long as the application runs
+    private void writeAlerts() {
+        while (true) {
+            long next = head;
+            Alert alert = slots.get(index(next));
+            if (alert == null) {
+                if (next == tail.get()) { // Nothing is queued, so wait to be woken by the next alert
+                    writerWaiting = true;
+                    if (next == tail.get()) {
+                        LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(10));
+                    }
+                    writerWaiting = false;
+                } else {
+                    Thread.onSpinWait(); // The slot is claimed, but its sender hasn't stored the alert yet
+                }
+                continue;
+            }
+            slots.set(index(next), null);
+            head = next + 1; // Frees the slot for senders
+            try {
+                if (alert.message != null) {
+                    alert.record.setMessage(render(alert.message));
+                }
+                logger.log(alert.record);
+            } catch (RuntimeException e) { // A failing message supplier shouldn't stop every later alert
+                logger.log(Level.SEVERE, "Failed to build alert message", e);
+            } finally {
+                written = next + 1;
+            }
+        }
+    }
+
+    // Wait up to timeoutMs for every alert queued so far to be written, returning whether they all were
+    boolean flush(long timeoutMs) {
+        long target = tail.get();
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        while (written < target) {
+            if (System.nanoTime() >= deadline) {
+                return false;
+            }
+            LockSupport.unpark(writer);
+            LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(100));
+        }
+        return true;
+    }
+
+    void setDropPolicy(AlertSystem.DropPolicy dropPolicy) {
+        this.dropPolicy = dropPolicy;
+    }
+
+    long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    // Build the text of a message that is either a String or a Supplier of one
+    static String render(Object message) {
+        if (message instanceof Supplier<?> supplier) {
+            return String.valueOf(supplier.get());
+        }
+        return (String) message;
+    }
+
+    private int index(long position) {
+        return (int) (position % slots.length());
+    }
+
+    // An alert waiting to be written, with the supplier of its message if that hasn't been built yet
+    private static final class Alert {
+        private final LogRecord record;
+        private final Supplier<?> message;
+
+        private Alert(LogRecord record, Supplier<?> message) {
+            this.record = record;
+            this.message = message;
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package dev.evelyn.taskscheduler.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+// A count that any number of threads can add to without locking or losing updates
+// Each thread adds to its own striped cell and reads sum the cells, so adding is cheap and reading costs a little more.
+public final class Counter {
+    private final LongAdder count = new LongAdder();
+
+    public void increment() {
+        count.increment();
+    }
+
+    public void add(long amount) {
+        count.add(amount);
+    }
+
+    public long get() {
+        return count.sum();
+    }
+}
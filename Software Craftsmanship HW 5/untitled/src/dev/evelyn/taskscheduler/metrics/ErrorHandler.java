@@ -5,19 +5,17 @@ import dev.evelyn.taskscheduler.exceptions.SchedulerFullException;
 import dev.evelyn.taskscheduler.exceptions.ServerException;
 import dev.evelyn.taskscheduler.exceptions.TaskException;
 
-import java.util.HashMap;
-
 public class ErrorHandler {
 
     // I didn't like the idea of having each exception taking a Logger as a parameter, so I removed them and put one
     // in the AlertSystem class
 
-    // Map of error types to number of errors
-    private static final HashMap<ErrorType, Integer> errorCounts = new HashMap<>();
-    // Populate the map with all error types
+    // Number of errors of each type, which any thread can report to at the same time
+    private static final MetricsRegistry errorCounts = new MetricsRegistry();
+    // Register a counter for every error type, so each one shows up even before its first error
     static {
         for (ErrorType errorType : ErrorType.values()) {
-            errorCounts.put(errorType, 0);
+            errorCounts.counter(counterName(errorType));
         }
     }
 
@@ -29,7 +27,16 @@ public class ErrorHandler {
 
     private static void handleErrorOfType(ErrorType errorType) {
         // Add 1 to the error count for the given error type
-        errorCounts.put(errorType, errorCounts.get(errorType) + 1);
+        errorCounts.counter(counterName(errorType)).increment();
+    }
+
+    private static String counterName(ErrorType errorType) {
+        return "errors_" + errorType.name().toLowerCase();
+    }
+
+    // Get the error counts, named errors_server, errors_task and so on
+    public static MetricsRegistry getMetrics() {
+        return errorCounts;
     }
 
     // Called from PerformanceMonitor
@@ -56,7 +63,7 @@ public class ErrorHandler {
         AlertSystem.sendAlertInfo("--------------------------------------------");
         // Display the number of errors for each error type
         for (ErrorType errorType : ErrorType.values()) {
-            AlertSystem.sendAlertInfo(errorType + " errors: " + errorCounts.get(errorType));
+            AlertSystem.sendAlertInfo(errorType + " errors: " + errorCounts.get(counterName(errorType)));
         }
         AlertSystem.sendAlertInfo("--------------------------------------------");
     }
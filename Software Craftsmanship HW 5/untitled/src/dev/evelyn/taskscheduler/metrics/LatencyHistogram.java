@@ -0,0 +1,146 @@
+package dev.evelyn.taskscheduler.metrics;
+
+import dev.evelyn.taskscheduler.exceptions.SchedulerException;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+// Histogram of latencies (in ms) with logarithmic buckets, so any percentile it reports is within a fixed relative
+// error of the true value while using a fixed amount of memory
+// Each bucket holds the values between two consecutive powers of gamma = (1 + error) / (1 - error) and reports a value
+// within the error of both ends. Values of 0 get a bucket of their own, and values above the maximum are counted in
+// the last bucket. Recording is a couple of atomic increments, so it never blocks, and histograms with the same
+// settings can be merged to combine the latencies of several servers.
+public final class LatencyHistogram {
+    public static final double DEFAULT_RELATIVE_ERROR = 0.01;
+    // One hour, far longer than any task should take
+    public static final long DEFAULT_MAX_VALUE = 60 * 60 * 1000;
+
+    private final double relativeError;
+    private final long maxValue;
+    private final double gamma;
+    private final double logGamma;
+    // Bucket 0 counts values of 0, and bucket i counts values above gamma^(i-2) and up to gamma^(i-1)
+    private final AtomicLongArray buckets;
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+
+    // The default settings are always valid, so this constructor can't fail
+    public LatencyHistogram() {
+        this(DEFAULT_RELATIVE_ERROR, DEFAULT_MAX_VALUE, gammaFor(DEFAULT_RELATIVE_ERROR));
+    }
+
+    public LatencyHistogram(double relativeError, long maxValue) throws SchedulerException {
+        this(relativeError, maxValue, validatedGamma(relativeError, maxValue));
+    }
+
+    private LatencyHistogram(double relativeError, long maxValue, double gamma) {
+        this.relativeError = relativeError;
+        this.maxValue = maxValue;
+        this.gamma = gamma;
+        this.logGamma = Math.log(gamma);
+        this.buckets = new AtomicLongArray(bucketIndex(maxValue) + 1);
+    }
+
+    // Check the settings of a histogram, returning the bucket growth factor for its relative error
+    private static double validatedGamma(double relativeError, long maxValue) throws SchedulerException {
+        if (relativeError <= 0 || relativeError >= 1) {
+            throw new SchedulerException("Relative error must be between 0 and 1 (exclusive)");
+        }
+        if (maxValue < 1) {
+            throw new SchedulerException("Maximum value must be at least 1 ms");
+        }
+        return gammaFor(relativeError);
+    }
+
+    private static double gammaFor(double relativeError) {
+        return (1 + relativeError) / (1 - relativeError);
+    }
+
+    // Record one latency, where negative values (from a clock going backwards) are counted as 0
+    public void record(long valueMs) {
+        long value = Math.max(0, Math.min(valueMs, maxValue));
+        buckets.incrementAndGet(bucketIndex(value));
+        count.increment();
+        sum.add(value);
+    }
+
+    // Add every latency recorded by another histogram with the same settings to this one
+    public void merge(LatencyHistogram other) {
+        if (other.relativeError != relativeError || other.maxValue != maxValue) {
+            throw new IllegalArgumentException("Only histograms with the same relative error and maximum can be merged");
+        }
+        for (int i = 0; i < buckets.length(); i++) {
+            long bucketCount = other.buckets.get(i);
+            if (bucketCount > 0) {
+                buckets.addAndGet(i, bucketCount);
+            }
+        }
+        count.add(other.count.sum());
+        sum.add(other.sum.sum());
+    }
+
+    // Get the latency (in ms) that the given percentage of recorded latencies are at or below, or 0 if there are none
+    // While other threads are recording, this reflects the latencies recorded up to roughly when it was called.
+    public double getPercentile(double percentile) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("Percentile must be between 0 and 100");
+        }
+        long[] counts = new long[buckets.length()];
+        long total = 0;
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = buckets.get(i);
+            total += counts[i];
+        }
+        if (total == 0) {
+            return 0.0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return bucketValue(i);
+            }
+        }
+        return bucketValue(counts.length - 1);
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    // Get the total of the recorded latencies (in ms)
+    public long getSum() {
+        return sum.sum();
+    }
+
+    // Get the exact mean of the recorded latencies
+    public double getMean() {
+        long total = count.sum();
+        return total > 0 ? (double) sum.sum() / total : 0.0;
+    }
+
+    public double getRelativeError() {
+        return relativeError;
+    }
+
+    public long getMaxValue() {
+        return maxValue;
+    }
+
+    private int bucketIndex(long value) {
+        if (value == 0) {
+            return 0;
+        }
+        return Math.max(1, (int) Math.ceil(Math.log(value) / logGamma) + 1);
+    }
+
+    // Get the value reported for a bucket, which is within the relative error of every value in it
+    private double bucketValue(int index) {
+        if (index == 0) {
+            return 0.0;
+        }
+        return 2 * Math.pow(gamma, index - 1) / (gamma + 1);
+    }
+}
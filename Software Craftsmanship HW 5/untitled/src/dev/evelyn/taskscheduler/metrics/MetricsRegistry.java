@@ -0,0 +1,48 @@
+package dev.evelyn.taskscheduler.metrics;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+
+// Named counters and gauges that can be updated and read from any thread without locks
+// Counters are added to by whoever does the work, while gauges are read from their owner each time they are asked for,
+// so a monitor can read every metric cheaply without stopping the threads that update them.
+public final class MetricsRegistry {
+    private final Map<String, Counter> counters = new ConcurrentHashMap<>();
+    private final Map<String, LongSupplier> gauges = new ConcurrentHashMap<>();
+
+    // Get the counter with a name, creating it the first time it is asked for
+    public Counter counter(String name) {
+        return counters.computeIfAbsent(name, key -> new Counter());
+    }
+
+    // Register a gauge, replacing any gauge with the same name
+    public void gauge(String name, LongSupplier gauge) {
+        gauges.put(name, gauge);
+    }
+
+    // Get the current value of a counter or gauge, or 0 if there isn't one with the name
+    public long get(String name) {
+        Counter counter = counters.get(name);
+        if (counter != null) {
+            return counter.get();
+        }
+        LongSupplier gauge = gauges.get(name);
+        return gauge != null ? gauge.getAsLong() : 0;
+    }
+
+    // Whether a name belongs to a counter, which only goes up, rather than a gauge
+    public boolean isCounter(String name) {
+        return counters.containsKey(name);
+    }
+
+    // Get the current value of every counter and gauge, sorted by name
+    // Each value is read on its own, so values updated during the snapshot may be from slightly different moments.
+    public Map<String, Long> snapshot() {
+        Map<String, Long> values = new TreeMap<>();
+        counters.forEach((name, counter) -> values.put(name, counter.get()));
+        gauges.forEach((name, gauge) -> values.put(name, gauge.getAsLong()));
+        return values;
+    }
+}
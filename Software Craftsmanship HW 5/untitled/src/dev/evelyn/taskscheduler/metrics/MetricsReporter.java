@@ -0,0 +1,271 @@
+package dev.evelyn.taskscheduler.metrics;
+
+import com.sun.net.httpserver.HttpServer;
+import dev.evelyn.taskscheduler.TaskScheduler;
+import dev.evelyn.taskscheduler.exceptions.SchedulerException;
+import dev.evelyn.taskscheduler.servers.Server;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Function;
+
+// Background reporter that snapshots every scheduler, server and error metric at a fixed interval
+// The most recent snapshots are kept in a ring buffer, and can be served in the Prometheus text format over a local
+// HTTP endpoint and appended to a rolling file. Snapshots only read counters, gauges and histograms, none of which take
+// the scheduler's lock, so reporting never holds up scheduling.
+public final class MetricsReporter {
+    private static final String PREFIX = "taskscheduler_";
+    // Quantiles reported for each latency summary
+    private static final double[] QUANTILES = {0.5, 0.95, 0.99, 0.999};
+
+    private final TaskScheduler scheduler;
+    private final long intervalMs;
+    // Ring buffer of the most recent snapshots, where snapshot n goes in slot n % capacity
+    private final AtomicReferenceArray<MetricsSnapshot> snapshots;
+    private final AtomicLong snapshotCount = new AtomicLong();
+    private ScheduledExecutorService timer;
+    private HttpServer httpServer;
+    // Rolling file settings (file is null when snapshots aren't written to a file)
+    private volatile Path file;
+    private volatile long maxFileBytes;
+    private volatile int maxFiles;
+
+    public MetricsReporter(TaskScheduler scheduler, long intervalMs, int capacity) throws SchedulerException {
+        if (intervalMs < 1 || capacity < 1) {
+            throw new SchedulerException("Interval and capacity must be positive");
+        }
+        this.scheduler = scheduler;
+        this.intervalMs = intervalMs;
+        this.snapshots = new AtomicReferenceArray<>(capacity);
+    }
+
+    // Start taking a snapshot every interval on a background thread
+    public synchronized void start() {
+        if (timer != null) {
+            return;
+        }
+        timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "metrics-reporter");
+            thread.setDaemon(true);
+            return thread;
+        });
+        timer.scheduleAtFixedRate(this::report, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    // Stop taking snapshots and close the HTTP endpoint, keeping the snapshots already taken
+    public synchronized void stop() {
+        if (timer != null) {
+            timer.shutdownNow();
+            timer = null;
+        }
+        if (httpServer != null) {
+            httpServer.stop(0);
+            httpServer = null;
+        }
+    }
+
+    // Serve the latest snapshot at /metrics on the loopback address (port 0 picks a free port)
+    public synchronized void startHttpEndpoint(int port) throws IOException, SchedulerException {
+        if (httpServer != null) {
+            throw new SchedulerException("HTTP endpoint is already running on port " + getHttpPort());
+        }
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext("/metrics", exchange -> {
+            MetricsSnapshot snapshot = getLatestSnapshot();
+            if (snapshot == null) { // Nothing has been reported yet
+                snapshot = takeSnapshot();
+            }
+            byte[] body = snapshot.toPrometheusText().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.start();
+        httpServer = server;
+        AlertSystem.sendAlertInfo("Serving metrics at http://localhost:" + getHttpPort() + "/metrics");
+    }
+
+    // Get the port the HTTP endpoint is listening on, or -1 if it isn't running
+    public synchronized int getHttpPort() {
+        return httpServer != null ? httpServer.getAddress().getPort() : -1;
+    }
+
+    // Append every snapshot to a file, which is rolled over to file.1, file.2 and so on once it passes maxBytes
+    // Only the newest maxFiles files are kept (including the one being written)
+    public void setRollingFile(Path file, long maxBytes, int maxFiles) throws SchedulerException {
+        if (maxBytes < 1 || maxFiles < 1) {
+            throw new SchedulerException("Maximum file size and number of files must be positive");
+        }
+        this.maxFileBytes = maxBytes;
+        this.maxFiles = maxFiles;
+        this.file = file;
+    }
+
+    // Take a snapshot now, add it to the ring buffer, and write it to the rolling file if there is one
+    public MetricsSnapshot report() {
+        MetricsSnapshot snapshot = takeSnapshot();
+        long index = snapshotCount.getAndIncrement();
+        snapshots.set((int) (index % snapshots.length()), snapshot);
+        Path target = file;
+        if (target != null) {
+            writeToFile(target, snapshot);
+        }
+        return snapshot;
+    }
+
+    // Get the most recent snapshot, or null if none have been taken
+    public MetricsSnapshot getLatestSnapshot() {
+        long count = snapshotCount.get();
+        return count > 0 ? snapshots.get((int) ((count - 1) % snapshots.length())) : null;
+    }
+
+    // Get the snapshots in the ring buffer, oldest first
+    public List<MetricsSnapshot> getSnapshots() {
+        long count = snapshotCount.get();
+        List<MetricsSnapshot> kept = new ArrayList<>();
+        for (long i = Math.max(0, count - snapshots.length()); i < count; i++) {
+            MetricsSnapshot snapshot = snapshots.get((int) (i % snapshots.length()));
+            if (snapshot != null) {
+                kept.add(snapshot);
+            }
+        }
+        return kept;
+    }
+
+    // Read every metric into a new snapshot
+    private MetricsSnapshot takeSnapshot() {
+        List<MetricsSnapshot.Series> series = new ArrayList<>();
+        List<Double> values = new ArrayList<>();
+        addRegistry(series, values, scheduler.getMetrics(), PREFIX, "");
+        addRegistry(series, values, ErrorHandler.getMetrics(), PREFIX, "");
+        List<Server> servers = scheduler.getServers();
+        for (Server server : servers) {
+            String serverLabel = "server=\"" + escape(server.getName()) + "\"";
+            addRegistry(series, values, server.getMetrics(), PREFIX + "server_", serverLabel);
+            String family = PREFIX + "server_latency_ms";
+            addLatency(series, values, family, serverLabel + ",stage=\"queue_wait\"", server.getQueueWaitLatency());
+            addLatency(series, values, family, serverLabel + ",stage=\"execution\"", server.getExecutionLatency());
+            addLatency(series, values, family, serverLabel + ",stage=\"network\"", server.getNetworkLatency());
+        }
+        // Percentiles can't be combined after the fact, so each stage is also reported across every server
+        String family = PREFIX + "latency_ms";
+        addLatency(series, values, family, "stage=\"queue_wait\"", merge(servers, Server::getQueueWaitLatency));
+        addLatency(series, values, family, "stage=\"execution\"", merge(servers, Server::getExecutionLatency));
+        addLatency(series, values, family, "stage=\"network\"", merge(servers, Server::getNetworkLatency));
+        return toSnapshot(series, values);
+    }
+
+    // Sort the series so each family is together, sharing the previous snapshot's series when nothing has changed
+    private MetricsSnapshot toSnapshot(List<MetricsSnapshot.Series> series, List<Double> values) {
+        Integer[] order = new Integer[series.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> series.get(a).compareTo(series.get(b)));
+        MetricsSnapshot.Series[] sortedSeries = new MetricsSnapshot.Series[order.length];
+        double[] sortedValues = new double[order.length];
+        for (int i = 0; i < order.length; i++) {
+            sortedSeries[i] = series.get(order[i]);
+            sortedValues[i] = values.get(order[i]);
+        }
+        MetricsSnapshot previous = getLatestSnapshot();
+        if (previous != null && Arrays.equals(previous.getSeries(), sortedSeries)) {
+            sortedSeries = previous.getSeries();
+        }
+        return new MetricsSnapshot(System.currentTimeMillis(), sortedSeries, sortedValues);
+    }
+
+    private static void addRegistry(List<MetricsSnapshot.Series> series, List<Double> values, MetricsRegistry registry,
+                                    String prefix, String labels) {
+        for (Map.Entry<String, Long> entry : registry.snapshot().entrySet()) {
+            String name = prefix + entry.getKey();
+            if (registry.isCounter(entry.getKey())) {
+                name += "_total";
+                series.add(new MetricsSnapshot.Series(name, name, labels, "counter"));
+            } else {
+                series.add(new MetricsSnapshot.Series(name, name, labels, "gauge"));
+            }
+            values.add((double) entry.getValue());
+        }
+    }
+
+    // Add a latency histogram as a Prometheus summary: a few quantiles along with the count and sum
+    private static void addLatency(List<MetricsSnapshot.Series> series, List<Double> values, String family, String labels,
+                                   LatencyHistogram histogram) {
+        for (double quantile : QUANTILES) {
+            series.add(new MetricsSnapshot.Series(family, family, labels + ",quantile=\"" + quantile + "\"", "summary"));
+            values.add(histogram.getPercentile(quantile * 100));
+        }
+        series.add(new MetricsSnapshot.Series(family, family + "_count", labels, "summary"));
+        values.add((double) histogram.getCount());
+        series.add(new MetricsSnapshot.Series(family, family + "_sum", labels, "summary"));
+        values.add((double) histogram.getSum());
+    }
+
+    private static LatencyHistogram merge(List<Server> servers, Function<Server, LatencyHistogram> histogramOfStage) {
+        LatencyHistogram merged = new LatencyHistogram();
+        servers.forEach(server -> merged.merge(histogramOfStage.apply(server)));
+        return merged;
+    }
+
+    // Escape a label value for the Prometheus text format
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    // Append a snapshot to the file, rolling the files over first if it has grown past the maximum size
+    private synchronized void writeToFile(Path target, MetricsSnapshot snapshot) {
+        try {
+            if (Files.exists(target) && Files.size(target) >= maxFileBytes) {
+                rollOver(target);
+            }
+            try (Writer writer = Files.newBufferedWriter(target, StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+                writer.write("# Snapshot at " + snapshot.getTimestamp() + "\n");
+                writer.write(snapshot.toPrometheusText(true));
+            }
+        } catch (IOException e) {
+            AlertSystem.sendAlertWarning("Failed to write metrics to " + target + ": " + e.getMessage());
+        }
+    }
+
+    // Shift file.1 to file.2 and so on, dropping the oldest, then move the current file to file.1
+    private void rollOver(Path target) throws IOException {
+        List<Path> rolledFiles = new ArrayList<>();
+        for (int i = 1; i < maxFiles; i++) {
+            rolledFiles.add(target.resolveSibling(target.getFileName() + "." + i));
+        }
+        if (rolledFiles.isEmpty()) {
+            Files.delete(target); // Only the current file is kept
+            return;
+        }
+        Files.deleteIfExists(rolledFiles.get(rolledFiles.size() - 1));
+        Collections.reverse(rolledFiles);
+        for (int i = 1; i < rolledFiles.size(); i++) {
+            if (Files.exists(rolledFiles.get(i))) {
+                Files.move(rolledFiles.get(i), rolledFiles.get(i - 1), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        Files.move(target, rolledFiles.get(rolledFiles.size() - 1), StandardCopyOption.REPLACE_EXISTING);
+    }
+}
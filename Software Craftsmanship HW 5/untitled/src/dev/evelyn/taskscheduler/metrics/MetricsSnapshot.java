@@ -0,0 +1,118 @@
+package dev.evelyn.taskscheduler.metrics;
+
+import java.util.Objects;
+
+// The value of every metric at one moment, as taken by a MetricsReporter
+// Snapshots with the same set of series share one array describing them, so each snapshot kept in the reporter's ring
+// buffer only adds its timestamp and an array of values.
+public final class MetricsSnapshot {
+    private final long timestamp;
+    private final Series[] series;
+    private final double[] values;
+
+    MetricsSnapshot(long timestamp, Series[] series, double[] values) {
+        this.timestamp = timestamp;
+        this.series = series;
+        this.values = values;
+    }
+
+    // Get the time (in ms since the epoch) the snapshot was taken
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public int size() {
+        return values.length;
+    }
+
+    // Get the value of a series written as it is in Prometheus text, such as taskscheduler_servers or
+    // taskscheduler_latency_ms{stage="execution",quantile="0.99"}, or NaN if the snapshot doesn't have it
+    public double getValue(String seriesName) {
+        for (int i = 0; i < series.length; i++) {
+            if (series[i].toString().equals(seriesName)) {
+                return values[i];
+            }
+        }
+        return Double.NaN;
+    }
+
+    // Write the snapshot in the Prometheus text exposition format
+    public String toPrometheusText() {
+        return toPrometheusText(false);
+    }
+
+    // Write the snapshot in the Prometheus text exposition format, optionally with its timestamp on every sample
+    public String toPrometheusText(boolean withTimestamps) {
+        StringBuilder text = new StringBuilder();
+        String family = null;
+        for (int i = 0; i < series.length; i++) {
+            if (!series[i].family.equals(family)) {
+                family = series[i].family;
+                text.append("# TYPE ").append(family).append(' ').append(series[i].type).append('\n');
+            }
+            text.append(series[i]).append(' ').append(formatValue(values[i]));
+            if (withTimestamps) {
+                text.append(' ').append(timestamp);
+            }
+            text.append('\n');
+        }
+        return text.toString();
+    }
+
+    // Whole numbers are written without a decimal point, as counters usually are
+    private static String formatValue(double value) {
+        if (value == Math.rint(value) && !Double.isInfinite(value) && Math.abs(value) < 1e15) {
+            return String.valueOf((long) value);
+        }
+        return String.valueOf(value);
+    }
+
+    Series[] getSeries() {
+        return series;
+    }
+
+    // One time series: a metric name, the family it is reported under, and its labels
+    static final class Series implements Comparable<Series> {
+        private final String family;
+        private final String name;
+        private final String labels;
+        private final String type;
+
+        Series(String family, String name, String labels, String type) {
+            this.family = family;
+            this.name = name;
+            this.labels = labels;
+            this.type = type;
+        }
+
+        // Series are sorted by family first, since Prometheus expects every sample of a family to be together
+        @Override
+        public int compareTo(Series other) {
+            int byFamily = family.compareTo(other.family);
+            if (byFamily != 0) {
+                return byFamily;
+            }
+            int byName = name.compareTo(other.name);
+            return byName != 0 ? byName : labels.compareTo(other.labels);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Series other)) {
+                return false;
+            }
+            return family.equals(other.family) && name.equals(other.name) && labels.equals(other.labels)
+                    && type.equals(other.type);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(family, name, labels, type);
+        }
+
+        @Override
+        public String toString() {
+            return labels.isEmpty() ? name : name + "{" + labels + "}";
+        }
+    }
+}
@@ -1,36 +1,57 @@
 package dev.evelyn.taskscheduler.metrics;
 
+import dev.evelyn.taskscheduler.CircuitBreaker;
+import dev.evelyn.taskscheduler.exceptions.SchedulerException;
 import dev.evelyn.taskscheduler.servers.RemoteServer;
 import dev.evelyn.taskscheduler.servers.Server;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 @SuppressWarnings("FieldCanBeLocal")
 public class PerformanceMonitor {
+    // Stages of a task's latency, each with its own histogram on every server
+    public enum LatencyStage {
+        QUEUE_WAIT,
+        EXECUTION,
+        NETWORK
+    }
+
+    // Percentiles logged for each stage
+    private static final double[] LOGGED_PERCENTILES = {50, 95, 99, 99.9};
+
     // Thresholds
     private final double SUCCESS_RATE_THRESHOLD = 90.0;
     private final double FAILURE_RATE_THRESHOLD = 10.0;
-    private final double AVERAGE_TIME_THRESHOLD = 100.0;
     private final double DISTRIBUTION_BALANCE_THRESHOLD = 50.0;
+    // Latency thresholds, checked against the histograms merged across every server
+    private final List<LatencyThreshold> latencyThresholds = new ArrayList<>();
     // List of servers
     private final List<Server> servers;
     private boolean printMetrics = false;
 
     public PerformanceMonitor() {
-        servers = new ArrayList<>();
+        this(new ArrayList<>());
     }
 
     // Optional constructor to add servers at initialization
     public PerformanceMonitor(List<Server> servers) {
         this.servers = servers;
+        // By default half of all tasks should execute within 100 ms, and all but 1% within a second
+        latencyThresholds.add(new LatencyThreshold(LatencyStage.EXECUTION, 50, 100));
+        latencyThresholds.add(new LatencyThreshold(LatencyStage.EXECUTION, 99, 1000));
     }
 
     public void addServer(Server server) {
         servers.add(server);
     }
 
+    public void removeServer(Server server) {
+        servers.remove(server);
+    }
+
     // Getters for performance metrics:
     // I used ternary operators to simplify these short calculations
     // Each one starts by ensuring that the number we're dividing by is not zero
@@ -85,6 +106,37 @@ public class PerformanceMonitor {
         return standardDeviation / mean;
     }
 
+    // Get the latencies of a stage across every server, merged into one histogram
+    // Servers keep recording while this reads their histograms, since recording never waits for readers
+    public synchronized LatencyHistogram getLatencyHistogram(LatencyStage stage) {
+        Function<Server, LatencyHistogram> histogramOfStage;
+        if (stage == LatencyStage.QUEUE_WAIT) {
+            histogramOfStage = Server::getQueueWaitLatency;
+        } else if (stage == LatencyStage.EXECUTION) {
+            histogramOfStage = Server::getExecutionLatency;
+        } else {
+            histogramOfStage = Server::getNetworkLatency;
+        }
+        LatencyHistogram merged = new LatencyHistogram();
+        servers.forEach(server -> merged.merge(histogramOfStage.apply(server)));
+        return merged;
+    }
+
+    // Alert when the given percentile (such as 99 or 99.9) of a stage's latency goes above a threshold (in ms)
+    // Setting a threshold for a percentile that already has one replaces it.
+    public synchronized void setLatencyThreshold(LatencyStage stage, double percentile, double thresholdMs) throws SchedulerException {
+        if (percentile <= 0 || percentile > 100) {
+            throw new SchedulerException("Percentile must be above 0 and at most 100");
+        }
+        removeLatencyThreshold(stage, percentile);
+        latencyThresholds.add(new LatencyThreshold(stage, percentile, thresholdMs));
+    }
+
+    // Stop alerting on a percentile of a stage's latency
+    public synchronized void removeLatencyThreshold(LatencyStage stage, double percentile) {
+        latencyThresholds.removeIf(threshold -> threshold.stage == stage && threshold.percentile == percentile);
+    }
+
     // Check alerts and log metrics
     public synchronized void checkAlerts() {
         printMetrics = false;
@@ -102,8 +154,7 @@ public class PerformanceMonitor {
         checkAndSendAlert(failureRate > FAILURE_RATE_THRESHOLD,
                 "Failure rate is above threshold of " + FAILURE_RATE_THRESHOLD + "% at " + failureRate + "%");
 
-        checkAndSendAlert(averageTime > AVERAGE_TIME_THRESHOLD,
-                "Average execution time is above threshold of " + AVERAGE_TIME_THRESHOLD + "ms at " + averageTime + "ms");
+        checkLatencies();
 
         checkAndSendAlert(distributionBalance > DISTRIBUTION_BALANCE_THRESHOLD,
                 "Task distribution is imbalanced!");
@@ -121,13 +172,65 @@ public class PerformanceMonitor {
         }
     }
 
-    // Check for unresponsive remote servers
+    // Log the percentiles of each stage that has latencies, and alert on any above their thresholds
+    private void checkLatencies() {
+        for (LatencyStage stage : LatencyStage.values()) {
+            LatencyHistogram histogram = getLatencyHistogram(stage);
+            if (histogram.getCount() == 0) {
+                continue;
+            }
+            StringBuilder percentiles = new StringBuilder(stage + " latency:");
+            for (double percentile : LOGGED_PERCENTILES) {
+                percentiles.append(" p").append(formatPercentile(percentile)).append("=")
+                        .append(Math.round(histogram.getPercentile(percentile) * 100.00) / 100.00).append("ms");
+            }
+            AlertSystem.sendAlertInfo(percentiles.toString());
+            for (LatencyThreshold threshold : latencyThresholds) {
+                if (threshold.stage != stage) {
+                    continue;
+                }
+                double latency = Math.round(histogram.getPercentile(threshold.percentile) * 100.00) / 100.00;
+                checkAndSendAlert(latency > threshold.thresholdMs,
+                        stage + " p" + formatPercentile(threshold.percentile) + " latency is above threshold of "
+                                + threshold.thresholdMs + "ms at " + latency + "ms");
+            }
+        }
+    }
+
+    // Format a percentile the way it is usually written, such as 99 or 999 for 99.9
+    private static String formatPercentile(double percentile) {
+        String digits = percentile == Math.rint(percentile) ? String.valueOf((long) percentile) : String.valueOf(percentile);
+        return digits.replace(".", "");
+    }
+
+    // A percentile of a stage's latency that shouldn't go above a threshold (in ms)
+    private static final class LatencyThreshold {
+        private final LatencyStage stage;
+        private final double percentile;
+        private final double thresholdMs;
+
+        private LatencyThreshold(LatencyStage stage, double percentile, double thresholdMs) {
+            this.stage = stage;
+            this.percentile = percentile;
+            this.thresholdMs = thresholdMs;
+        }
+    }
+
+    // Check for unresponsive remote servers and log the state of each one's circuit breaker
     private void checkRemoteServers() {
         servers.stream()
                 .filter(server -> server instanceof RemoteServer)
                 .map(server -> (RemoteServer) server)
-                .filter(server -> !server.isResponsive())
-                .forEach(server -> AlertSystem.sendAlertError("Server " + server + " is unresponsive!"));
+                .forEach(server -> {
+                    AlertSystem.sendAlertInfo("Circuit breaker for " + server + ": " + server.getCircuitBreakerState()
+                            + " (opened " + server.getCircuitBreakerTransitions(CircuitBreaker.State.OPEN)
+                            + " times, half-opened " + server.getCircuitBreakerTransitions(CircuitBreaker.State.HALF_OPEN)
+                            + " times, closed " + server.getCircuitBreakerTransitions(CircuitBreaker.State.CLOSED)
+                            + " times, recent failure rate " + Math.round(server.getRecentFailureRate() * 100) + "%)");
+                    if (!server.isResponsive()) {
+                        AlertSystem.sendAlertError("Server " + server + " is unresponsive!");
+                    }
+                });
     }
 
     // Log metrics for performance
@@ -0,0 +1,139 @@
+package dev.evelyn.taskscheduler.servers;
+
+import dev.evelyn.taskscheduler.exceptions.ServerException;
+import dev.evelyn.taskscheduler.metrics.AlertSystem;
+
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Pool of direct byte buffers for remote task traffic, so framing a message doesn't allocate on the heap
+// Buffers come in power-of-two size classes from MIN_BUFFER_SIZE to MAX_POOLED_SIZE. Larger requests get an unpooled
+// buffer. With leak tracking on (or the taskscheduler.debugBuffers system property set), every buffer handed out
+// remembers where it was acquired, so buffers that are never released can be reported.
+public final class BufferPool {
+    public static final int MIN_BUFFER_SIZE = 256;
+    public static final int MAX_POOLED_SIZE = 4 * 1024 * 1024;
+    private static final int SIZE_CLASSES = Integer.numberOfTrailingZeros(MAX_POOLED_SIZE / MIN_BUFFER_SIZE) + 1;
+    private static final int DEFAULT_MAX_BUFFERS_PER_CLASS = 64;
+    private static final BufferPool DEFAULT = new BufferPool();
+
+    // Free buffers for each size class
+    private final List<Queue<ByteBuffer>> freeBuffers = new ArrayList<>();
+    private final AtomicInteger[] freeCounts = new AtomicInteger[SIZE_CLASSES];
+    // Maximum number of free buffers kept in each size class
+    private final int maxBuffersPerClass;
+    private final AtomicInteger outstandingCount = new AtomicInteger();
+    // Map of buffers that are handed out to where they were acquired (only used with leak tracking on)
+    private final Map<ByteBuffer, Throwable> outstandingBuffers = Collections.synchronizedMap(new IdentityHashMap<>());
+    private volatile boolean leakTracking = Boolean.getBoolean("taskscheduler.debugBuffers");
+
+    public BufferPool(int maxBuffersPerClass) throws ServerException {
+        if (maxBuffersPerClass < 0) {
+            throw new ServerException("Max buffers per size class cannot be negative");
+        }
+        this.maxBuffersPerClass = maxBuffersPerClass;
+        initSizeClasses();
+    }
+
+    private BufferPool() {
+        this.maxBuffersPerClass = DEFAULT_MAX_BUFFERS_PER_CLASS;
+        initSizeClasses();
+    }
+
+    // Get the pool used for remote task traffic
+    public static BufferPool getDefault() {
+        return DEFAULT;
+    }
+
+    // Take a cleared buffer with room for at least size bytes, with its limit set to size
+    public ByteBuffer acquire(int size) {
+        if (size < 0) {
+            throw new IllegalArgumentException("Buffer size cannot be negative");
+        }
+        ByteBuffer buffer = null;
+        int sizeClass = sizeClassFor(size);
+        if (sizeClass >= 0) {
+            buffer = freeBuffers.get(sizeClass).poll();
+            if (buffer != null) {
+                freeCounts[sizeClass].decrementAndGet();
+            } else {
+                buffer = ByteBuffer.allocateDirect(MIN_BUFFER_SIZE << sizeClass);
+            }
+        } else {
+            buffer = ByteBuffer.allocateDirect(size); // Too big to pool
+        }
+        buffer.clear().limit(size);
+        outstandingCount.incrementAndGet();
+        if (leakTracking) {
+            outstandingBuffers.put(buffer, new Throwable("Buffer of " + size + " bytes acquired here"));
+        }
+        return buffer;
+    }
+
+    // Return a buffer to the pool once nothing will read or write it again
+    public void release(ByteBuffer buffer) {
+        if (leakTracking && outstandingBuffers.remove(buffer) == null) {
+            throw new IllegalStateException("Buffer released twice or not acquired from this pool");
+        }
+        outstandingCount.decrementAndGet();
+        int sizeClass = sizeClassFor(buffer.capacity());
+        // Only buffers whose capacity is exactly a size class came from the pool
+        if (sizeClass < 0 || buffer.capacity() != MIN_BUFFER_SIZE << sizeClass) {
+            return;
+        }
+        if (freeCounts[sizeClass].incrementAndGet() > maxBuffersPerClass) {
+            freeCounts[sizeClass].decrementAndGet(); // The size class is full, so the buffer is left to the GC
+            return;
+        }
+        freeBuffers.get(sizeClass).add(buffer);
+    }
+
+    // Turn leak tracking on or off (only buffers acquired while it is on are tracked)
+    public void setLeakTracking(boolean leakTracking) {
+        this.leakTracking = leakTracking;
+        if (!leakTracking) {
+            outstandingBuffers.clear();
+        }
+    }
+
+    public boolean isLeakTracking() {
+        return leakTracking;
+    }
+
+    // Get the number of buffers that have been acquired and not released
+    public int getOutstandingCount() {
+        return outstandingCount.get();
+    }
+
+    // Log where each tracked buffer that hasn't been released was acquired, returning how many there are
+    public int reportLeaks() {
+        List<Throwable> acquisitionSites;
+        synchronized (outstandingBuffers) {
+            acquisitionSites = new ArrayList<>(outstandingBuffers.values());
+        }
+        for (Throwable acquisitionSite : acquisitionSites) {
+            StackTraceElement[] stackTrace = acquisitionSite.getStackTrace();
+            String caller = stackTrace.length > 1 ? stackTrace[1].toString() : "unknown";
+            AlertSystem.sendAlertWarning("Buffer leak: " + acquisitionSite.getMessage() + " by " + caller);
+        }
+        return acquisitionSites.size();
+    }
+
+    private void initSizeClasses() {
+        for (int i = 0; i < SIZE_CLASSES; i++) {
+            freeBuffers.add(new ConcurrentLinkedQueue<>());
+            freeCounts[i] = new AtomicInteger();
+        }
+    }
+
+    // Get the size class index for a size, or -1 if it is too big to pool
+    private static int sizeClassFor(int size) {
+        if (size > MAX_POOLED_SIZE) {
+            return -1;
+        }
+        int units = Math.max(1, (size + MIN_BUFFER_SIZE - 1) / MIN_BUFFER_SIZE);
+        return 32 - Integer.numberOfLeadingZeros(units - 1);
+    }
+}
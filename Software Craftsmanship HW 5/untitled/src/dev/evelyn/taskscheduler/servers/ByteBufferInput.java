@@ -0,0 +1,186 @@
+package dev.evelyn.taskscheduler.servers;
+
+import java.io.DataInput;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UTFDataFormatException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+// DataInput that reads a payload in place from the buffer it arrived in, rather than copying it into a byte array
+final class ByteBufferInput extends InputStream implements DataInput {
+    private final ByteBuffer buffer;
+
+    ByteBufferInput(ByteBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    // Ensure at least count bytes are left to read
+    private void require(int count) throws EOFException {
+        if (buffer.remaining() < count) {
+            throw new EOFException("Payload ended " + (count - buffer.remaining()) + " bytes early");
+        }
+    }
+
+    @Override
+    public int read() {
+        return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+        if (len == 0) {
+            return 0;
+        }
+        if (!buffer.hasRemaining()) {
+            return -1;
+        }
+        int count = Math.min(len, buffer.remaining());
+        buffer.get(b, off, count);
+        return count;
+    }
+
+    @Override
+    public int available() {
+        return buffer.remaining();
+    }
+
+    @Override
+    public void readFully(byte[] b) throws IOException {
+        readFully(b, 0, b.length);
+    }
+
+    @Override
+    public void readFully(byte[] b, int off, int len) throws IOException {
+        require(len);
+        buffer.get(b, off, len);
+    }
+
+    @Override
+    public int skipBytes(int n) {
+        int count = Math.max(0, Math.min(n, buffer.remaining()));
+        buffer.position(buffer.position() + count);
+        return count;
+    }
+
+    @Override
+    public boolean readBoolean() throws IOException {
+        return readByte() != 0;
+    }
+
+    @Override
+    public byte readByte() throws IOException {
+        require(1);
+        return buffer.get();
+    }
+
+    @Override
+    public int readUnsignedByte() throws IOException {
+        return readByte() & 0xFF;
+    }
+
+    @Override
+    public short readShort() throws IOException {
+        require(Short.BYTES);
+        return buffer.getShort();
+    }
+
+    @Override
+    public int readUnsignedShort() throws IOException {
+        return readShort() & 0xFFFF;
+    }
+
+    @Override
+    public char readChar() throws IOException {
+        require(Character.BYTES);
+        return buffer.getChar();
+    }
+
+    @Override
+    public int readInt() throws IOException {
+        require(Integer.BYTES);
+        return buffer.getInt();
+    }
+
+    @Override
+    public long readLong() throws IOException {
+        require(Long.BYTES);
+        return buffer.getLong();
+    }
+
+    @Override
+    public float readFloat() throws IOException {
+        return Float.intBitsToFloat(readInt());
+    }
+
+    @Override
+    public double readDouble() throws IOException {
+        return Double.longBitsToDouble(readLong());
+    }
+
+    // Read bytes as Latin-1 characters up to the end of a line, as DataInputStream does
+    // A line ends at "\n", "\r" or "\r\n", and null is returned if the payload has no bytes left
+    @Override
+    public String readLine() {
+        if (!buffer.hasRemaining()) {
+            return null;
+        }
+        StringBuilder builder = new StringBuilder();
+        while (buffer.hasRemaining()) {
+            int b = buffer.get() & 0xFF;
+            if (b == '\n') {
+                break;
+            }
+            if (b == '\r') {
+                if (buffer.hasRemaining() && buffer.get(buffer.position()) == '\n') {
+                    buffer.get();
+                }
+                break;
+            }
+            builder.append((char) b);
+        }
+        return builder.toString();
+    }
+
+    // Read a string written in the modified UTF-8 layout of DataOutputStream
+    @Override
+    public String readUTF() throws IOException {
+        int utfLength = readUnsignedShort();
+        require(utfLength);
+        int end = buffer.position() + utfLength;
+        StringBuilder builder = new StringBuilder(utfLength);
+        try {
+            while (buffer.position() < end) {
+                int b = buffer.get() & 0xFF;
+                if (b < 0x80) {
+                    builder.append((char) b);
+                } else if ((b & 0xE0) == 0xC0) {
+                    int b2 = continuation(end);
+                    builder.append((char) (((b & 0x1F) << 6) | b2));
+                } else if ((b & 0xF0) == 0xE0) {
+                    int b2 = continuation(end);
+                    int b3 = continuation(end);
+                    builder.append((char) (((b & 0x0F) << 12) | (b2 << 6) | b3));
+                } else {
+                    throw new UTFDataFormatException("Malformed string at byte " + (buffer.position() - 1));
+                }
+            }
+        } catch (BufferUnderflowException e) {
+            throw new UTFDataFormatException("String ended part way through a character");
+        }
+        return builder.toString();
+    }
+
+    // Read the low bits of a continuation byte inside a string that ends at end
+    private int continuation(int end) throws UTFDataFormatException {
+        if (buffer.position() >= end) {
+            throw new UTFDataFormatException("String ended part way through a character");
+        }
+        int b = buffer.get() & 0xFF;
+        if ((b & 0xC0) != 0x80) {
+            throw new UTFDataFormatException("Malformed string at byte " + (buffer.position() - 1));
+        }
+        return b & 0x3F;
+    }
+}
@@ -0,0 +1,165 @@
+package dev.evelyn.taskscheduler.servers;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UTFDataFormatException;
+import java.nio.ByteBuffer;
+
+// DataOutput that writes straight into a pooled buffer, moving to a bigger one from the pool when it fills up
+// Whoever takes the buffer with takeBuffer is responsible for releasing it back to the pool.
+final class ByteBufferOutput extends OutputStream implements DataOutput {
+    private final BufferPool pool;
+    private ByteBuffer buffer;
+
+    ByteBufferOutput(BufferPool pool, int initialCapacity) {
+        this.pool = pool;
+        this.buffer = pool.acquire(initialCapacity);
+        buffer.limit(buffer.capacity());
+    }
+
+    // Get the number of bytes written so far
+    int position() {
+        return buffer.position();
+    }
+
+    // Overwrite an int at an earlier position, such as a length that wasn't known when it was reserved
+    void putInt(int index, int value) {
+        buffer.putInt(index, value);
+    }
+
+    // Hand over the buffer, flipped so the written bytes are ready to be read
+    ByteBuffer takeBuffer() {
+        ByteBuffer written = buffer;
+        buffer = null;
+        return written.flip();
+    }
+
+    // Give the buffer back to the pool without using it, such as when encoding fails part way through
+    @Override
+    public void close() {
+        if (buffer != null) {
+            pool.release(buffer);
+            buffer = null;
+        }
+    }
+
+    // Make room for at least count more bytes
+    private void ensureRemaining(int count) {
+        if (buffer.remaining() >= count) {
+            return;
+        }
+        ByteBuffer larger = pool.acquire(Math.max(buffer.capacity() * 2, buffer.position() + count));
+        larger.limit(larger.capacity());
+        buffer.flip();
+        larger.put(buffer);
+        pool.release(buffer);
+        buffer = larger;
+    }
+
+    @Override
+    public void write(int b) {
+        ensureRemaining(1);
+        buffer.put((byte) b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+        ensureRemaining(len);
+        buffer.put(b, off, len);
+    }
+
+    @Override
+    public void writeBoolean(boolean v) {
+        write(v ? 1 : 0);
+    }
+
+    @Override
+    public void writeByte(int v) {
+        write(v);
+    }
+
+    @Override
+    public void writeShort(int v) {
+        ensureRemaining(Short.BYTES);
+        buffer.putShort((short) v);
+    }
+
+    @Override
+    public void writeChar(int v) {
+        ensureRemaining(Character.BYTES);
+        buffer.putChar((char) v);
+    }
+
+    @Override
+    public void writeInt(int v) {
+        ensureRemaining(Integer.BYTES);
+        buffer.putInt(v);
+    }
+
+    @Override
+    public void writeLong(long v) {
+        ensureRemaining(Long.BYTES);
+        buffer.putLong(v);
+    }
+
+    @Override
+    public void writeFloat(float v) {
+        writeInt(Float.floatToIntBits(v));
+    }
+
+    @Override
+    public void writeDouble(double v) {
+        writeLong(Double.doubleToLongBits(v));
+    }
+
+    @Override
+    public void writeBytes(String s) {
+        ensureRemaining(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            buffer.put((byte) s.charAt(i));
+        }
+    }
+
+    @Override
+    public void writeChars(String s) {
+        ensureRemaining(s.length() * Character.BYTES);
+        for (int i = 0; i < s.length(); i++) {
+            buffer.putChar(s.charAt(i));
+        }
+    }
+
+    // Write a string in the same modified UTF-8 layout as DataOutputStream, without copying it into a byte array first
+    @Override
+    public void writeUTF(String s) throws IOException {
+        int utfLength = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c >= 0x0001 && c <= 0x007F) {
+                utfLength++;
+            } else if (c > 0x07FF) {
+                utfLength += 3;
+            } else {
+                utfLength += 2;
+            }
+        }
+        if (utfLength > 0xFFFF) {
+            throw new UTFDataFormatException("Encoded string is too long: " + utfLength + " bytes");
+        }
+        ensureRemaining(Short.BYTES + utfLength);
+        buffer.putShort((short) utfLength);
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c >= 0x0001 && c <= 0x007F) {
+                buffer.put((byte) c);
+            } else if (c > 0x07FF) {
+                buffer.put((byte) (0xE0 | ((c >> 12) & 0x0F)));
+                buffer.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+                buffer.put((byte) (0x80 | (c & 0x3F)));
+            } else {
+                buffer.put((byte) (0xC0 | ((c >> 6) & 0x1F)));
+                buffer.put((byte) (0x80 | (c & 0x3F)));
+            }
+        }
+    }
+}
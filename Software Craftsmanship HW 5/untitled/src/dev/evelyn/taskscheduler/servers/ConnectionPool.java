@@ -0,0 +1,316 @@
+package dev.evelyn.taskscheduler.servers;
+
+import dev.evelyn.taskscheduler.exceptions.ServerException;
+import dev.evelyn.taskscheduler.metrics.AlertSystem;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.*;
+
+// Pool of long-lived connections to remote task processors, so each task doesn't pay for a new TCP connection
+// and object stream headers. Connections are kept per endpoint (address and port), checked before they are reused
+// after sitting idle, and closed once they have been idle for too long.
+public final class ConnectionPool {
+    // Message a processor echoes straight back, used to check that an idle connection still works
+    static final String PING = "PING";
+
+    private final Map<String, Endpoint> endpoints = new ConcurrentHashMap<>();
+    private int maxConnectionsPerEndpoint = 4;
+    // Idle connections older than this are closed
+    private long idleTimeoutMs = 30_000;
+    // Idle connections older than this are pinged before they are reused
+    private long validationIntervalMs = 1_000;
+    // How long to wait for a connection to open, for a free connection, or for a ping reply
+    private long connectTimeoutMs = 5_000;
+    private ScheduledExecutorService evictor;
+    private boolean closed = false;
+
+    // Set the maximum number of connections (idle or in use) to each endpoint
+    public synchronized void setMaxConnectionsPerEndpoint(int maxConnectionsPerEndpoint) throws ServerException {
+        if (maxConnectionsPerEndpoint < 1) {
+            throw new ServerException("Max connections per endpoint must be at least 1");
+        }
+        if (!endpoints.isEmpty()) {
+            throw new ServerException("Max connections per endpoint can't change once connections are open");
+        }
+        this.maxConnectionsPerEndpoint = maxConnectionsPerEndpoint;
+    }
+
+    // Set how long (in ms) a connection can sit idle before it is closed
+    public synchronized void setIdleTimeout(long idleTimeoutMs) throws ServerException {
+        if (idleTimeoutMs < 1) {
+            throw new ServerException("Idle timeout must be positive");
+        }
+        this.idleTimeoutMs = idleTimeoutMs;
+        if (evictor != null) { // Restart the evictor so it runs often enough for the new timeout
+            evictor.shutdownNow();
+            evictor = null;
+            startEvictor();
+        }
+    }
+
+    // Set how long (in ms) a connection can sit idle before it is health-checked on reuse
+    public synchronized void setValidationInterval(long validationIntervalMs) throws ServerException {
+        if (validationIntervalMs < 0) {
+            throw new ServerException("Validation interval cannot be negative");
+        }
+        this.validationIntervalMs = validationIntervalMs;
+    }
+
+    // Set how long (in ms) to wait when connecting, waiting for a free connection, or checking a connection
+    public synchronized void setConnectTimeout(long connectTimeoutMs) throws ServerException {
+        if (connectTimeoutMs < 1) {
+            throw new ServerException("Connect timeout must be positive");
+        }
+        this.connectTimeoutMs = connectTimeoutMs;
+    }
+
+    // Take a working connection to an endpoint, reusing an idle one if possible
+    // Blocks while the endpoint already has its maximum number of connections in use
+    Connection borrow(String address, int port) throws IOException {
+        Endpoint endpoint = getEndpoint(address, port);
+        try {
+            if (!endpoint.permits.tryAcquire(getConnectTimeout(), TimeUnit.MILLISECONDS)) {
+                throw new IOException("Timed out waiting for a free connection to " + endpoint.key);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for a connection to " + endpoint.key, e);
+        }
+        try {
+            Connection connection;
+            while ((connection = endpoint.pollIdle()) != null) {
+                if (isHealthy(connection)) {
+                    return connection;
+                }
+                connection.close();
+            }
+            return openConnection(endpoint, address, port);
+        } catch (IOException | RuntimeException e) {
+            endpoint.permits.release();
+            throw e;
+        }
+    }
+
+    // Return a connection after a complete request and response, so it can be reused
+    void release(Connection connection) {
+        connection.lastUsed = System.currentTimeMillis();
+        Endpoint endpoint = connection.endpoint;
+        if (isClosed() || !connection.isOpen()) {
+            connection.close();
+        } else {
+            endpoint.addIdle(connection);
+        }
+        endpoint.permits.release();
+    }
+
+    // Close a connection that failed or was left in an unknown state (such as a request without its response)
+    void invalidate(Connection connection) {
+        connection.close();
+        connection.endpoint.permits.release();
+    }
+
+    // Close every connection that has been idle for longer than the idle timeout, returning how many were closed
+    public int evictIdleConnections() {
+        long cutoff = System.currentTimeMillis() - getIdleTimeout();
+        int evicted = 0;
+        for (Endpoint endpoint : endpoints.values()) {
+            evicted += endpoint.evictIdleSince(cutoff);
+        }
+        return evicted;
+    }
+
+    // Get the number of idle connections to an endpoint
+    public int getIdleCount(String address, int port) {
+        Endpoint endpoint = endpoints.get(address + ":" + port);
+        return endpoint == null ? 0 : endpoint.idleCount();
+    }
+
+    // Get the number of connections to an endpoint that are currently in use
+    public int getActiveCount(String address, int port) {
+        Endpoint endpoint = endpoints.get(address + ":" + port);
+        return endpoint == null ? 0 : maxConnectionsPerEndpoint - endpoint.permits.availablePermits();
+    }
+
+    // Close all idle connections and stop pooling, so connections in use are closed when they are returned
+    public void close() {
+        synchronized (this) {
+            closed = true;
+            if (evictor != null) {
+                evictor.shutdownNow();
+            }
+        }
+        for (Endpoint endpoint : endpoints.values()) {
+            endpoint.evictIdleSince(Long.MAX_VALUE);
+        }
+    }
+
+    private Endpoint getEndpoint(String address, int port) throws IOException {
+        synchronized (this) {
+            if (closed) {
+                throw new IOException("Connection pool is closed");
+            }
+            startEvictor();
+            return endpoints.computeIfAbsent(address + ":" + port,
+                    key -> new Endpoint(key, maxConnectionsPerEndpoint));
+        }
+    }
+
+    // Start the background thread that closes idle connections, if it isn't already running
+    private synchronized void startEvictor() {
+        if (evictor != null || closed) {
+            return;
+        }
+        evictor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "connection-pool-evictor");
+            thread.setDaemon(true); // Idle connections should not keep the application running
+            return thread;
+        });
+        long period = Math.max(10, idleTimeoutMs / 2);
+        evictor.scheduleAtFixedRate(this::evictIdleConnections, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    private Connection openConnection(Endpoint endpoint, String address, int port) throws IOException {
+        SocketChannel channel = SocketChannel.open();
+        try {
+            // Connecting through the socket keeps the connect timeout, which SocketChannel.connect doesn't have
+            channel.socket().connect(new InetSocketAddress(address, port), (int) getConnectTimeout());
+            channel.socket().setTcpNoDelay(true); // Tasks are small messages that should be sent straight away
+            channel.socket().setKeepAlive(true);
+            AlertSystem.sendAlertInfo(() -> "Opened pooled connection to " + endpoint.key);
+            return new Connection(endpoint, channel);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    // Check that an idle connection is still usable, pinging the processor if it has been idle for a while
+    private boolean isHealthy(Connection connection) {
+        if (!connection.isOpen()) {
+            return false;
+        }
+        if (System.currentTimeMillis() - connection.lastUsed < getValidationInterval()) {
+            return true;
+        }
+        try {
+            connection.send(PING);
+            return PING.equals(connection.receive((int) getConnectTimeout()));
+        } catch (IOException | ClassNotFoundException e) {
+            AlertSystem.sendAlertWarning("Discarding broken connection to " + connection.endpoint.key + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+    private synchronized long getIdleTimeout() {
+        return idleTimeoutMs;
+    }
+
+    private synchronized long getValidationInterval() {
+        return validationIntervalMs;
+    }
+
+    private synchronized long getConnectTimeout() {
+        return connectTimeoutMs;
+    }
+
+    private synchronized boolean isClosed() {
+        return closed;
+    }
+
+    // A single remote endpoint: its idle connections, and permits that limit how many connections it can have
+    private static final class Endpoint {
+        private final String key;
+        private final Semaphore permits;
+        // Most recently used connections are at the front, so the oldest ones are left to time out
+        private final Deque<Connection> idleConnections = new ArrayDeque<>();
+
+        private Endpoint(String key, int maxConnections) {
+            this.key = key;
+            this.permits = new Semaphore(maxConnections, true);
+        }
+
+        private synchronized Connection pollIdle() {
+            return idleConnections.pollFirst();
+        }
+
+        private synchronized void addIdle(Connection connection) {
+            idleConnections.addFirst(connection);
+        }
+
+        private synchronized int idleCount() {
+            return idleConnections.size();
+        }
+
+        private synchronized int evictIdleSince(long cutoff) {
+            int evicted = 0;
+            Iterator<Connection> iterator = idleConnections.descendingIterator();
+            while (iterator.hasNext()) {
+                Connection connection = iterator.next();
+                if (connection.lastUsed >= cutoff) {
+                    break; // Every connection nearer the front was used more recently
+                }
+                iterator.remove();
+                connection.close();
+                evicted++;
+            }
+            return evicted;
+        }
+    }
+
+    // A single open connection, sending and receiving frames through pooled buffers
+    static final class Connection {
+        private final Endpoint endpoint;
+        private final SocketChannel channel;
+        // Buffer for the length of each frame received, reused for every message
+        private final ByteBuffer header = ByteBuffer.allocateDirect(WireFormat.HEADER_BYTES);
+        private volatile long lastUsed = System.currentTimeMillis();
+
+        private Connection(Endpoint endpoint, SocketChannel channel) {
+            this.endpoint = endpoint;
+            this.channel = channel;
+        }
+
+        // Send a message as a single frame
+        void send(Object message) throws IOException {
+            WireFormat.writeFrame(channel, message);
+        }
+
+        // Wait for the next frame and decode it
+        Object receive() throws IOException, ClassNotFoundException {
+            return WireFormat.readFrame(channel, header);
+        }
+
+        // Wait (for up to timeoutMs) for the next frame and decode it
+        // The socket's stream is used since reads on a blocking channel ignore the socket timeout
+        private Object receive(int timeoutMs) throws IOException, ClassNotFoundException {
+            Socket socket = channel.socket();
+            socket.setSoTimeout(timeoutMs);
+            try {
+                return WireFormat.readFrame(new DataInputStream(socket.getInputStream()));
+            } finally {
+                socket.setSoTimeout(0);
+            }
+        }
+
+        private boolean isOpen() {
+            Socket socket = channel.socket();
+            return channel.isOpen() && !socket.isInputShutdown() && !socket.isOutputShutdown();
+        }
+
+        private void close() {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                AlertSystem.sendAlertWarning("Failed to close connection to " + endpoint.key + ": " + e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package dev.evelyn.taskscheduler.servers;
+
+import dev.evelyn.taskscheduler.exceptions.ServerException;
+import dev.evelyn.taskscheduler.metrics.AlertSystem;
+import dev.evelyn.taskscheduler.tasks.Task;
+import dev.evelyn.taskscheduler.tasks.TaskWorkload;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+// Decides which executor runs a task on a server, based on the workload the task declares
+public final class ExecutionStrategy {
+    // Used by every server that hasn't been given a strategy, so creating a server doesn't create a thread pool
+    private static final ExecutionStrategy SHARED = cachedThreadPool();
+    private final ExecutorService ioExecutor;
+    private final ExecutorService cpuExecutor;
+
+    private ExecutionStrategy(ExecutorService ioExecutor, ExecutorService cpuExecutor) {
+        this.ioExecutor = ioExecutor;
+        this.cpuExecutor = cpuExecutor;
+    }
+
+    // Run every task on a cached pool of platform threads (the original behavior)
+    public static ExecutionStrategy cachedThreadPool() {
+        ExecutorService executor = Executors.newCachedThreadPool(daemonThreadFactory());
+        return new ExecutionStrategy(executor, executor);
+    }
+
+    // Get the cached pool shared by every server that hasn't chosen a strategy, which is never shut down
+    public static ExecutionStrategy shared() {
+        return SHARED;
+    }
+
+    // Run every task on a fixed number of platform threads
+    public static ExecutionStrategy boundedPool(int threads) throws ServerException {
+        if (threads < 1) {
+            throw new ServerException("A bounded pool needs at least 1 thread");
+        }
+        ExecutorService executor = newBoundedPool(threads);
+        return new ExecutionStrategy(executor, executor);
+    }
+
+    // Run I/O-bound tasks on their own virtual thread and CPU-bound tasks on one platform thread per core
+    public static ExecutionStrategy virtualThreads() {
+        return new ExecutionStrategy(newVirtualThreadExecutor(), newBoundedPool(Runtime.getRuntime().availableProcessors()));
+    }
+
+    // Get the executor for a task, treating tasks that don't declare a workload as I/O-bound
+    public ExecutorService executorFor(Task task) {
+        return task.getWorkload() == TaskWorkload.CPU_BOUND ? cpuExecutor : ioExecutor;
+    }
+
+    // Stop this strategy's threads once the tasks already given to them have finished
+    // The shared strategy is left running, since other servers are still using it.
+    public void shutdown() {
+        if (this == SHARED) {
+            return;
+        }
+        ioExecutor.shutdown();
+        if (cpuExecutor != ioExecutor) {
+            cpuExecutor.shutdown();
+        }
+    }
+
+    // Create a fixed pool of daemon platform threads
+    private static ExecutorService newBoundedPool(int threads) {
+        return Executors.newFixedThreadPool(threads, daemonThreadFactory());
+    }
+
+    // Create platform threads as daemons, since idle pool threads should not keep the application running
+    private static ThreadFactory daemonThreadFactory() {
+        ThreadFactory defaultFactory = Executors.defaultThreadFactory();
+        return runnable -> {
+            Thread thread = defaultFactory.newThread(runnable);
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    // Create a virtual-thread-per-task executor, or a cached pool if the runtime has no virtual threads
+    // The executor is looked up reflectively so the code still compiles and runs on releases without virtual threads
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException | UnsupportedOperationException e) {
+            AlertSystem.sendAlertWarning("Virtual threads are not available, using a cached thread pool instead");
+            return Executors.newCachedThreadPool(daemonThreadFactory());
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package dev.evelyn.taskscheduler.servers;
+
+import dev.evelyn.taskscheduler.TimingWheel;
+import dev.evelyn.taskscheduler.metrics.AlertSystem;
+import dev.evelyn.taskscheduler.tasks.Task;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+// One connection shared by any number of in-flight tasks
+// Each request carries a correlation ID, and a reader thread matches every response to its request, so responses can
+// come back in whatever order the tasks finish. Senders never wait for a response.
+final class MultiplexedConnection {
+    private final String endpoint;
+    private final SocketChannel channel;
+    // Buffer for the length of each response, only used by the reader thread
+    private final ByteBuffer header = ByteBuffer.allocateDirect(WireFormat.HEADER_BYTES);
+    // Held while writing a frame, so frames from different senders don't interleave
+    private final Object writeLock = new Object();
+    // Map of correlation IDs to the futures of requests that haven't had a response yet
+    private final Map<Long, CompletableFuture<Task>> pendingRequests = new ConcurrentHashMap<>();
+    private final AtomicLong nextCorrelationId = new AtomicLong();
+    // Completes requests that don't get a response within their task's timeout
+    private final TimingWheel timeouts;
+    // Cleared by whichever close() call gets there first, so only one of them fails the pending requests
+    private final AtomicBoolean open = new AtomicBoolean(true);
+
+    private MultiplexedConnection(String endpoint, SocketChannel channel, TimingWheel timeouts) {
+        this.endpoint = endpoint;
+        this.channel = channel;
+        this.timeouts = timeouts;
+    }
+
+    // Connect to a processor and start reading responses
+    static MultiplexedConnection open(String address, int port, int connectTimeoutMs, TimingWheel timeouts) throws IOException {
+        SocketChannel channel = SocketChannel.open();
+        try {
+            channel.socket().connect(new InetSocketAddress(address, port), connectTimeoutMs);
+            channel.socket().setTcpNoDelay(true); // Requests are small messages that should be sent straight away
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        MultiplexedConnection connection = new MultiplexedConnection(address + ":" + port, channel, timeouts);
+        Thread reader = new Thread(connection::readResponses, "multiplexed-reader-" + connection.endpoint);
+        reader.setDaemon(true);
+        reader.start();
+        return connection;
+    }
+
+    // Send a task without waiting for it to run
+    // The future completes with the processed task (or null if it failed), or with a TimeoutException once the task's
+    // timeout passes without a response. Futures are completed on the reader thread, so callbacks should be short.
+    CompletableFuture<Task> send(Task task) throws IOException {
+        long correlationId = nextCorrelationId.incrementAndGet();
+        CompletableFuture<Task> future = new CompletableFuture<>();
+        pendingRequests.put(correlationId, future);
+        if (!open.get()) { // Closed before the request was registered, so close() didn't see it
+            pendingRequests.remove(correlationId);
+            throw new IOException("Connection to " + endpoint + " is closed");
+        }
+        TimingWheel.Timeout timeout = timeouts.schedule(task.getTimeout(), () -> {
+            if (pendingRequests.remove(correlationId) != null) {
+                future.completeExceptionally(new TimeoutException("Task " + task.getId() + " timed out after " + task.getTimeout() + " ms"));
+            }
+        });
+        // A request that gets its response (or fails) doesn't need its timeout any more
+        future.whenComplete((result, failure) -> timeout.cancel());
+        try {
+            synchronized (writeLock) {
+                WireFormat.writeFrame(channel, new WireFormat.Request(correlationId, task));
+            }
+        } catch (IOException e) {
+            pendingRequests.remove(correlationId);
+            close(e);
+            throw e;
+        }
+        return future;
+    }
+
+    // Get the number of requests still waiting for a response
+    int getPendingCount() {
+        return pendingRequests.size();
+    }
+
+    boolean isOpen() {
+        return open.get();
+    }
+
+    // Close the connection, failing every request still waiting for a response
+    void close(Throwable cause) {
+        if (!open.compareAndSet(true, false)) {
+            return;
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            AlertSystem.sendAlertWarning("Failed to close connection to " + endpoint + ": " + e.getMessage());
+        }
+        IOException failure = new IOException("Connection to " + endpoint + " closed", cause);
+        List<Long> correlationIds = new ArrayList<>(pendingRequests.keySet());
+        for (Long correlationId : correlationIds) {
+            CompletableFuture<Task> future = pendingRequests.remove(correlationId);
+            if (future != null) {
+                future.completeExceptionally(failure);
+            }
+        }
+    }
+
+    // Read responses until the connection closes, completing the matching request for each one
+    private void readResponses() {
+        try {
+            while (open.get()) {
+                Object message = WireFormat.readFrame(channel, header);
+                if (!(message instanceof WireFormat.Response response)) {
+                    throw new IOException("Unexpected message from " + endpoint);
+                }
+                // Responses to requests that have already timed out are dropped
+                CompletableFuture<Task> future = pendingRequests.remove(response.correlationId);
+                if (future != null) {
+                    future.complete(response.task);
+                }
+            }
+        } catch (IOException | ClassNotFoundException e) {
+            close(e);
+        }
+    }
+}
@@ -1,13 +1,17 @@
 package dev.evelyn.taskscheduler.servers;
 
 import dev.evelyn.taskscheduler.CircuitBreaker;
+import dev.evelyn.taskscheduler.TimingWheel;
+import dev.evelyn.taskscheduler.exceptions.ServerException;
 import dev.evelyn.taskscheduler.metrics.AlertSystem;
 import dev.evelyn.taskscheduler.tasks.Task;
 
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
 
 // This local class represents and handles the connection to a remote task processor, which could be hosted on another computer
 public class RemoteServer extends Server {
@@ -19,60 +23,113 @@ public class RemoteServer extends Server {
     class is just a representation of that remote server on the main computer hosting the TaskScheduler application)
     */
     private final RemoteServerProcessor processor;
-    // Circuit breaker to handle server failures
-    private final CircuitBreaker circuitBreaker = new CircuitBreaker(0, 100);
+    // Circuit breaker to handle server failures, which opens once at least 5 of the requests in the last 10 s failed and
+    // they make up half of those requests, then lets 3 probe requests through after 100 ms to check for recovery
+    private final CircuitBreaker circuitBreaker = newCircuitBreaker();
+
+    // Pool of long-lived connections to the processor, which may be shared with other remote servers
+    private final ConnectionPool connectionPool;
+    // Whether this server created its pool, and so should close it when it stops
+    private final boolean ownsConnectionPool;
+    // Maximum number of queued tasks sent to the processor in one frame (1 sends each task on its own)
+    private int batchSize = 256;
+    // Connection shared by every asynchronous request, opened on first use and reopened if it breaks
+    private MultiplexedConnection multiplexedConnection;
+    // Fails asynchronous requests that get no response within their task's timeout
+    private final TimingWheel requestTimeouts = new TimingWheel(10, 512);
 
     public RemoteServer(String address, int port) {
+        this(address, port, new ConnectionPool(), true);
+    }
+
+    // Constructor for remote servers that share a connection pool
+    public RemoteServer(String address, int port, ConnectionPool connectionPool) {
+        this(address, port, connectionPool, false);
+    }
+
+    private RemoteServer(String address, int port, ConnectionPool connectionPool, boolean ownsConnectionPool) {
+        super(address + ":" + port);
         this.address = address;
         this.port = port;
+        this.connectionPool = connectionPool;
+        this.ownsConnectionPool = ownsConnectionPool;
+        getMetrics().gauge("circuit_breaker_opened", () -> circuitBreaker.getTransitionCount(CircuitBreaker.State.OPEN));
+        getMetrics().gauge("circuit_breaker_half_opened", () -> circuitBreaker.getTransitionCount(CircuitBreaker.State.HALF_OPEN));
+        getMetrics().gauge("circuit_breaker_closed", () -> circuitBreaker.getTransitionCount(CircuitBreaker.State.CLOSED));
         processor = new RemoteServerProcessor(port, circuitBreaker);
         // Start the processor on a new thread to listen for incoming tasks
         Thread thread = new Thread(processor::start);
         thread.start();
+        // Wait for the processor to open its socket, so the first task doesn't find nothing listening
+        if (!processor.awaitListening(1000)) {
+            logWarning("Remote task processor on port " + port + " is not listening yet");
+        }
     }
 
-    // Handle the case where the circuit breaker is open
-    private Task handleCircuitBreaker(Task task) {
-        // Sleep thread for the circuit breaker timeout
+    // Handle the case where the circuit breaker is open, returning whether a request can be sent after waiting
+    private boolean awaitCircuitBreaker() {
+        // Sleep thread for the circuit breaker timeout, after which it lets probe requests through
         try {
             Thread.sleep(circuitBreaker.getTimeout());
         } catch (InterruptedException e) {
             logWarning("Thread interrupted while waiting for circuit breaker to close");
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        return circuitBreaker.canSendRequest();
+    }
+
+    // Send and receive a task to and from the remote server over a pooled connection
+    private Task sendAndReceiveTask(Task task) throws IOException, ClassNotFoundException, InterruptedException {
+        ConnectionPool.Connection connection = connectionPool.borrow(address, port);
+        boolean completed = false;
+        try {
+            Task processedTask = sendAndReceiveTask(task, connection);
+            completed = true;
+            return processedTask;
+        } finally {
+            // A connection that failed part-way through a request may have a response still on its way, so it is closed
+            if (completed) {
+                connectionPool.release(connection);
+            } else {
+                connectionPool.invalidate(connection);
+            }
         }
-        // If the circuit breaker is still open, fail the task
-        return failTask(task, "Circuit breaker is open, timed out for " + circuitBreaker.getTimeout() + " ms");
     }
 
-    // Send and receive a task to and from the remote server
-    private Task sendAndReceiveTask(Task task, ObjectOutputStream out, ObjectInputStream in) throws IOException, ClassNotFoundException, InterruptedException {
+    private Task sendAndReceiveTask(Task task, ConnectionPool.Connection connection) throws IOException, ClassNotFoundException, InterruptedException {
         // Serialize and send the task to the remote server
-        out.writeObject(task);
-        out.flush();
+        connection.send(task);
         // Simulate latency from the network
         int latency = processor.getLatencyMs();
         Thread.sleep(latency);
-        logInfo("Waiting " + latency + " ms for task processing on " + address + ":" + port);
+        networkLatency.record(latency);
+        logInfo(() -> "Waiting " + latency + " ms for task processing on " + address + ":" + port);
         // Add latency to the task's execution time for the total time it took to process the task
-        totalExecutionTime += latency;
-        totalExecutionTime += task.getEstimatedDuration().getDurationMs().longValue();
+        totalExecutionTime.add(latency);
+        totalExecutionTime.add(task.getEstimatedDuration().toMillis());
         // Receive and deserialize the processed task
-        Task processedTask = (Task) in.readObject();
-        logInfo("Received processed task from " + address + ":" + port);
+        Task processedTask = (Task) connection.receive();
+        logInfo(() -> "Received processed task from " + address + ":" + port);
         return processedTask;
     }
 
     // The processTask method, which is called from the Server class in the executeTasks method (which did not change)
     @Override
     Task processTask(Task task) {
-        totalTasksExecuted++; // Increment total tasks executed
-        if (!circuitBreaker.canSendRequest()) { // Handle circuit breaker if necessary
-            return handleCircuitBreaker(task);
-        }
-        // Try to connect to the remote server and send the task
-        try (Socket socket = new Socket(address, port);
-             ObjectOutputStream out = new ObjectOutputStream(socket.getOutputStream());
-             ObjectInputStream in = new ObjectInputStream(socket.getInputStream())) {
-            return sendAndReceiveTask(task, out, in);
+        totalTasksExecuted.increment(); // Increment total tasks executed
+        if (!circuitBreaker.canSendRequest() && !awaitCircuitBreaker()) { // Handle circuit breaker if necessary
+            // If the circuit breaker is still open, fail the task
+            return rejectTask(task, "Circuit breaker is open, timed out for " + circuitBreaker.getTimeout() + " ms");
+        }
+        // Send the task to the remote server on a pooled connection
+        try {
+            Task processedTask = sendAndReceiveTask(task);
+            if (processedTask == null || !processedTask.isCompleted()) { // The processor ran the task and it failed
+                return failTask(task, "Task " + task.getId() + " failed on " + address + ":" + port);
+            }
+            circuitBreaker.reportSuccess();
+            return processedTask;
         } catch (IOException | ClassNotFoundException e) { // Handle exceptions
             return failTask(task, "Task processing failed on " + address + ":" + port + ": " + e.getMessage());
         } catch (InterruptedException e) { // Handle thread interruption
@@ -80,25 +137,232 @@ public class RemoteServer extends Server {
         }
     }
 
+    // Send a task to the processor without waiting for it, over a connection shared with other in-flight tasks
+    // The future completes with the processed task, or exceptionally with a ServerException if the task failed or the
+    // connection broke, or a TimeoutException if no response arrived within the task's timeout
+    public CompletableFuture<Task> submitAsync(Task task) {
+        totalTasksExecuted.increment(); // Increment total tasks executed
+        if (!circuitBreaker.canSendRequest()) {
+            return CompletableFuture.failedFuture(new ServerException("Circuit breaker is open for " + this));
+        }
+        CompletableFuture<Task> response;
+        try {
+            response = getMultiplexedConnection().send(task);
+        } catch (IOException e) {
+            String message = "Task processing failed on " + address + ":" + port + ": " + e.getMessage();
+            failAsyncTask(message);
+            return CompletableFuture.failedFuture(new ServerException(message));
+        }
+        CompletableFuture<Task> result = new CompletableFuture<>();
+        response.whenComplete((processedTask, error) -> {
+            if (error instanceof TimeoutException) {
+                failAsyncTask("Task " + task.getId() + " timed out on " + address + ":" + port);
+                result.completeExceptionally(error);
+            } else if (error != null) {
+                String message = "Task processing failed on " + address + ":" + port + ": " + error.getMessage();
+                failAsyncTask(message);
+                result.completeExceptionally(new ServerException(message));
+            } else if (processedTask == null || !processedTask.isCompleted()) {
+                String message = "Task " + task.getId() + " failed on " + address + ":" + port;
+                failAsyncTask(message);
+                result.completeExceptionally(new ServerException(message));
+            } else {
+                circuitBreaker.reportSuccess();
+                totalCompletedTasks.increment();
+                result.complete(processedTask);
+            }
+        });
+        return result;
+    }
+
+    // Get the shared connection for asynchronous requests, opening a new one if there isn't a working one
+    private synchronized MultiplexedConnection getMultiplexedConnection() throws IOException {
+        if (multiplexedConnection == null || !multiplexedConnection.isOpen()) {
+            multiplexedConnection = MultiplexedConnection.open(address, port, 5000, requestTimeouts);
+            logInfo(() -> "Opened multiplexed connection to " + address + ":" + port);
+        }
+        return multiplexedConnection;
+    }
+
+    // Record a failed asynchronous request (the caller gets the failure through its future, so it isn't queued for retry)
+    private void failAsyncTask(String message) {
+        circuitBreaker.reportFailure();
+        logSevere(message);
+        totalFailedTasks.increment(); // Increment total failed tasks
+    }
+
+    // Send the queue to the processor in batches of up to batchSize tasks, so each batch shares one round trip
+    // The processor runs every task in a batch at once, so completed tasks come back in the order they finish
+    @Override
+    public List<Task> executeTasks() throws ServerException {
+        if (batchSize == 1) {
+            return super.executeTasks();
+        }
+        List<Task> completedTasks = new ArrayList<>();
+        List<Task> batch;
+        while (!(batch = takeTasks(batchSize)).isEmpty()) {
+            completedTasks.addAll(processBatch(batch));
+        }
+        totalCompletedTasks.add(completedTasks.size()); // Update total completed tasks
+        return completedTasks;
+    }
+
+    // Send a batch of tasks in one frame and collect the result of each task, returning the completed ones
+    private List<Task> processBatch(List<Task> batch) {
+        totalTasksExecuted.add(batch.size()); // Increment total tasks executed
+        // Handle circuit breaker if necessary (waiting once for the whole batch, which is sent as a single probe)
+        if (!circuitBreaker.canSendRequest() && !awaitCircuitBreaker()) {
+            batch.forEach(task -> rejectTask(task, "Circuit breaker is open"));
+            return new ArrayList<>();
+        }
+        Task[] results = new Task[batch.size()];
+        boolean[] received = new boolean[batch.size()];
+        boolean batchFailed = false;
+        try {
+            sendAndReceiveBatch(batch, results, received);
+        } catch (IOException | ClassNotFoundException e) { // Handle exceptions
+            failUnreceivedTasks(batch, received, "Batch processing failed on " + address + ":" + port + ": " + e.getMessage());
+            batchFailed = true;
+        } catch (InterruptedException e) { // Handle thread interruption
+            Thread.currentThread().interrupt();
+            failUnreceivedTasks(batch, received, "Thread interrupted while waiting for batch processing on " + address + ":" + port);
+            batchFailed = true;
+        }
+        List<Task> completedTasks = new ArrayList<>();
+        for (int i = 0; i < results.length; i++) {
+            Task result = results[i];
+            if (result != null && result.isCompleted()) {
+                completedTasks.add(result);
+            } else if (received[i]) { // As with single tasks, a task that failed on the processor comes back as null
+                rejectTask(batch.get(i), "Task " + batch.get(i).getId() + " failed on " + address + ":" + port);
+                batchFailed = true;
+            }
+        }
+        // The batch was a single request, which took a single permit, so the circuit breaker hears about it once
+        if (batchFailed) {
+            circuitBreaker.reportFailure();
+        } else {
+            circuitBreaker.reportSuccess();
+        }
+        return completedTasks;
+    }
+
+    // Send a batch over a pooled connection and read back one result per task, in whatever order they finish
+    private void sendAndReceiveBatch(List<Task> batch, Task[] results, boolean[] received) throws IOException, ClassNotFoundException, InterruptedException {
+        ConnectionPool.Connection connection = connectionPool.borrow(address, port);
+        boolean completed = false;
+        try {
+            connection.send(new WireFormat.TaskBatch(batch));
+            // Simulate latency from the network, which is paid once for the whole batch
+            int latency = processor.getLatencyMs();
+            Thread.sleep(latency);
+            networkLatency.record(latency);
+            logInfo(() -> "Waiting " + latency + " ms for batch of " + batch.size() + " tasks on " + address + ":" + port);
+            totalExecutionTime.add(latency);
+            for (Task task : batch) {
+                totalExecutionTime.add(task.getEstimatedDuration().toMillis());
+            }
+            for (int count = 0; count < batch.size(); count++) {
+                if (!(connection.receive() instanceof WireFormat.BatchResult result)) {
+                    throw new IOException("Expected a batch result from " + address + ":" + port);
+                }
+                if (result.index < 0 || result.index >= batch.size() || received[result.index]) {
+                    throw new IOException("Unexpected result for batch position " + result.index);
+                }
+                results[result.index] = result.task;
+                received[result.index] = true;
+            }
+            completed = true;
+            logInfo(() -> "Received results for batch of " + batch.size() + " tasks from " + address + ":" + port);
+        } finally {
+            // A connection that failed part-way through a batch may still have results on their way, so it is closed
+            if (completed) {
+                connectionPool.release(connection);
+            } else {
+                connectionPool.invalidate(connection);
+            }
+        }
+    }
+
+    // Fail every task in a batch whose result never arrived (the caller reports the batch to the circuit breaker)
+    private void failUnreceivedTasks(List<Task> batch, boolean[] received, String message) {
+        for (int i = 0; i < batch.size(); i++) {
+            if (!received[i]) {
+                rejectTask(batch.get(i), message);
+            }
+        }
+    }
+
+    // Set the maximum number of tasks sent to the processor in one frame (1 sends each task on its own)
+    public void setBatchSize(int batchSize) throws ServerException {
+        if (batchSize < 1) {
+            throw new ServerException("Batch size must be at least 1");
+        }
+        this.batchSize = batchSize;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    // Without batching, each remote task needs its own round trip, so the queue is processed one task at a time
+    @Override
+    boolean supportsPipelining() {
+        return false;
+    }
+
     // Handle a failed task
     private Task failTask(Task task, String message) {
         // Report the failure to the circuit breaker, which will open if there are too many failures in a given time frame
         circuitBreaker.reportFailure();
         logSevere(message);
         failedTasks.add(task); // Add task to failed tasks list
-        totalFailedTasks++; // Increment total failed tasks
+        totalFailedTasks.increment(); // Increment total failed tasks
         return null; // Return null on failure
     }
 
+    // Fail a task without reporting it to the circuit breaker
+    // Used when the task was never sent because the breaker is open, or when its batch is reported as a whole.
+    private Task rejectTask(Task task, String message) {
+        logSevere(message);
+        failedTasks.add(task);
+        totalFailedTasks.increment();
+        return null;
+    }
+
+    // Choose how both this server and its processor run tasks
+    @Override
+    public void setExecutionStrategy(ExecutionStrategy executionStrategy) throws ServerException {
+        super.setExecutionStrategy(executionStrategy);
+        processor.setExecutionStrategy(executionStrategy);
+    }
+
     // Handle shutdown of the remote server processor
     public void stop() {
+        synchronized (this) {
+            if (multiplexedConnection != null) {
+                multiplexedConnection.close(null);
+            }
+        }
+        requestTimeouts.stop();
+        if (ownsConnectionPool) {
+            connectionPool.close();
+        }
         processor.stop();
         AlertSystem.sendAlertInfo("Disconnected from server " + address + ":" + port);
     }
 
+    // Disconnect from the remote server as well as shutting down the execution strategy
+    @Override
+    public void close() {
+        stop();
+        super.close();
+    }
+
     // Logging methods for different log levels (I wanted to have the prefix "[REMOTE SERVER]" in the logs for clarity)
-    private void logInfo(String message) {
-        AlertSystem.sendAlertInfo("[REMOTE SERVER] " + message);
+    // Info messages are only built if they will be logged, since they are sent for every task
+    private void logInfo(Supplier<String> message) {
+        AlertSystem.sendAlertInfo(() -> "[REMOTE SERVER] " + message.get());
     }
 
     private void logWarning(String message) {
@@ -109,9 +373,41 @@ public class RemoteServer extends Server {
         AlertSystem.sendAlertError("[REMOTE SERVER] " + message);
     }
 
+    public ConnectionPool getConnectionPool() {
+        return connectionPool;
+    }
+
+    // Create the circuit breaker for a remote server, which opens once half of its recent requests have failed
+    private static CircuitBreaker newCircuitBreaker() {
+        CircuitBreaker circuitBreaker = new CircuitBreaker(5, 100);
+        try {
+            circuitBreaker.setFailureRateThreshold(0.5);
+            circuitBreaker.setHalfOpenProbes(3);
+        } catch (ServerException e) { // These settings are always valid
+            throw new IllegalStateException(e);
+        }
+        return circuitBreaker;
+    }
+
     // Ensure that the remote server is responsive and still turned on
+    // This only looks at the circuit breaker's state, so it never takes one of its half-open probe permits
     public boolean isResponsive() {
-        return (circuitBreaker.canSendRequest() && processor.isStillRunning());
+        return (circuitBreaker.getState() != CircuitBreaker.State.OPEN && processor.isStillRunning());
+    }
+
+    // Circuit breaker metrics
+    public CircuitBreaker.State getCircuitBreakerState() {
+        return circuitBreaker.getState();
+    }
+
+    // Get the number of times this server's circuit breaker has moved into a state
+    public long getCircuitBreakerTransitions(CircuitBreaker.State state) {
+        return circuitBreaker.getTransitionCount(state);
+    }
+
+    // Get the fraction of recent requests to this server that failed
+    public double getRecentFailureRate() {
+        return circuitBreaker.getFailureRate();
     }
 
     public String toString() {
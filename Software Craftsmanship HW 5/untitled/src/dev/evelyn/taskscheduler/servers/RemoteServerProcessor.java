@@ -1,23 +1,48 @@
 package dev.evelyn.taskscheduler.servers;
 
 import dev.evelyn.taskscheduler.CircuitBreaker;
+import dev.evelyn.taskscheduler.TimingWheel;
 import dev.evelyn.taskscheduler.exceptions.TaskException;
 import dev.evelyn.taskscheduler.metrics.AlertSystem;
 import dev.evelyn.taskscheduler.tasks.Task;
 
-import java.io.*;
-import java.net.ServerSocket;
-import java.net.Socket;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Queue;
 import java.util.Random;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 // This class is the representation of a remote server processor--the part that is or could be running on another machine
+// A single selector thread accepts connections and reads and writes frames without blocking. Decoding and replying
+// happen on a small worker pool, and the tasks themselves run on the execution strategy's threads, so a slow task
+// only holds up its own connection.
 public final class RemoteServerProcessor {
     private final int port;
-    private boolean running;
+    private volatile boolean running;
+    private volatile Selector selector;
+    // Counted down once the server channel is open (or has failed to open)
+    private final CountDownLatch listening = new CountDownLatch(1);
+    // Connections with replies waiting (or waiting to be closed), which the selector thread needs to act on
+    private final Queue<ClientConnection> connectionsToWrite = new ConcurrentLinkedQueue<>();
+    // Threads that decode requests and encode replies, so the selector thread only moves bytes
+    private final ExecutorService workers = Executors.newFixedThreadPool(
+            Runtime.getRuntime().availableProcessors(), runnable -> {
+                Thread thread = new Thread(runnable, "remote-processor-worker");
+                thread.setDaemon(true);
+                return thread;
+            });
+    // Cancels tasks that run past their timeout, without a thread waiting on each one
+    private final TimingWheel timeouts = new TimingWheel(10, 512);
     private final Random random = new Random();
     private final CircuitBreaker circuitBreaker;
-    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private ExecutionStrategy executionStrategy = ExecutionStrategy.shared();
 
     public RemoteServerProcessor(int port, CircuitBreaker circuitBreaker) {
         this.port = port;
@@ -25,7 +50,7 @@ public final class RemoteServerProcessor {
         this.circuitBreaker = circuitBreaker;
     }
 
-    // Start the server processor
+    // Start the server processor, running the selector loop on the calling thread until stop() is called
     public void start() {
         if (running) { // Prevent multiple instances of the server processor from running
             AlertSystem.sendAlertWarning("Remote task processor is already running");
@@ -33,46 +58,143 @@ public final class RemoteServerProcessor {
         } else {
             running = true;
         }
-        // Create the server socket and listen for incoming connections
-        try (ServerSocket serverSocket = new ServerSocket(port)) {
-            logInfo("Remote task processor is listening on port " + port);
+        // Create the server channel and listen for incoming connections
+        try (Selector selector = Selector.open();
+             ServerSocketChannel serverChannel = ServerSocketChannel.open()) {
+            serverChannel.bind(new InetSocketAddress(port));
+            serverChannel.configureBlocking(false);
+            serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+            this.selector = selector;
+            logInfo(() -> "Remote task processor is listening on port " + port);
+            listening.countDown();
             while (running) { // Loop until the server is stopped
-                handleClientConnection(serverSocket);
+                selector.select();
+                watchConnectionsToWrite();
+                handleSelectedKeys(selector);
             }
+            closeAllConnections(selector);
         } catch (IOException e) {
             logSevere("Server exception: " + e.getMessage());
+        } finally {
+            running = false;
+            listening.countDown(); // Don't leave anyone waiting if the channel couldn't be opened
+            workers.shutdownNow();
+            timeouts.stop();
         }
     }
 
-    // Handle a single connection
-    private void handleClientConnection(ServerSocket serverSocket) {
-        try (Socket socket = serverSocket.accept(); // Accept incoming connection
-             // Create input and output streams for the socket
-             ObjectInputStream in = new ObjectInputStream(socket.getInputStream());
-             ObjectOutputStream out = new ObjectOutputStream(socket.getOutputStream())) {
-            // Receive, process, and send a single task
-            Task task = receiveTask(in, socket);
-            task = processTask(task);
-            sendProcessedTask(task, out, socket);
-        } catch (IOException | ClassNotFoundException e) { // Handle exceptions
-            logSevere("Server exception: " + e.getMessage());
-            circuitBreaker.reportFailure();
+    // Wait (for up to timeoutMs) until the processor is accepting connections, returning false if it isn't
+    public boolean awaitListening(long timeoutMs) {
+        try {
+            return listening.await(timeoutMs, TimeUnit.MILLISECONDS) && running;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
         }
     }
 
-    // Receive a task from the client
-    private Task receiveTask(ObjectInputStream in, Socket socket) throws IOException, ClassNotFoundException {
-        Task task = (Task) in.readObject(); // Deserialize the task object
-        logInfo("Received task " + task.getId() + " from " + socket.getInetAddress());
-        return task;
+    private void handleSelectedKeys(Selector selector) {
+        Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+        while (keys.hasNext()) {
+            SelectionKey key = keys.next();
+            keys.remove();
+            try {
+                if (!key.isValid()) {
+                    continue;
+                }
+                if (key.isAcceptable()) {
+                    acceptConnection((ServerSocketChannel) key.channel(), selector);
+                    continue;
+                }
+                ClientConnection connection = (ClientConnection) key.attachment();
+                if (key.isReadable()) {
+                    connection.read();
+                }
+                if (key.isValid() && key.isWritable()) {
+                    connection.write();
+                }
+            } catch (IOException e) {
+                logSevere("Server exception: " + e.getMessage());
+                circuitBreaker.reportFailure();
+                closeConnection(key);
+            }
+        }
     }
 
-    // Send a processed task back to the client
-    private void sendProcessedTask(Task task, ObjectOutputStream out, Socket socket) throws IOException {
-        out.writeObject(task); // Serialize and send the task object
-        out.flush();
-        assert task != null;
-        logInfo("Processed and sent task " + task.getId() + " back to " + socket.getInetAddress());
+    // Accept a new client and start watching it for incoming frames
+    private void acceptConnection(ServerSocketChannel serverChannel, Selector selector) throws IOException {
+        SocketChannel channel = serverChannel.accept();
+        if (channel == null) {
+            return;
+        }
+        channel.configureBlocking(false);
+        channel.socket().setTcpNoDelay(true);
+        SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+        key.attach(new ClientConnection(channel, key));
+    }
+
+    // Watch connections that have replies waiting for writability (interest ops are only changed on the selector thread)
+    // Connections are closed here too, so their buffers are only ever released by the thread that reads and writes them
+    private void watchConnectionsToWrite() {
+        ClientConnection connection;
+        while ((connection = connectionsToWrite.poll()) != null) {
+            if (connection.closeRequested && connection.key.isValid()) {
+                closeConnection(connection.key);
+            } else if (connection.key.isValid()) {
+                connection.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+            } else {
+                connection.releaseBuffers(); // Replies that finished after the connection closed
+            }
+        }
+    }
+
+    // Decode a request in place on a worker thread and start handling it, releasing its buffer once it's decoded
+    private void handleFrame(ClientConnection connection, ByteBuffer payload) {
+        Object message;
+        try {
+            message = WireFormat.decode(payload);
+        } catch (IOException | ClassNotFoundException e) {
+            logSevere("Could not decode request: " + e.getMessage());
+            circuitBreaker.reportFailure();
+            connection.requestClose(); // The client would otherwise wait forever for a reply
+            return;
+        } finally {
+            BufferPool.getDefault().release(payload);
+        }
+        if (ConnectionPool.PING.equals(message)) { // Health check from the connection pool
+            connection.reply(ConnectionPool.PING);
+            return;
+        }
+        if (message instanceof WireFormat.TaskBatch batch) {
+            handleBatch(connection, batch);
+            return;
+        }
+        if (message instanceof WireFormat.Request request && request.task != null) {
+            // Replies to multiplexed requests go back as soon as each task finishes, in any order
+            processTaskAsync(request.task, result -> connection.reply(new WireFormat.Response(request.correlationId, result)));
+            return;
+        }
+        if (!(message instanceof Task task)) {
+            logSevere("Unexpected request: " + message);
+            connection.requestClose();
+            return;
+        }
+        logInfo(() -> "Received task " + task.getId() + " from " + connection.channel.socket().getInetAddress());
+        processTaskAsync(task, connection::reply);
+    }
+
+    // Start every task in a batch at once, replying with each task's result as soon as it finishes
+    private void handleBatch(ClientConnection connection, WireFormat.TaskBatch batch) {
+        logInfo(() -> "Received batch of " + batch.tasks.size() + " tasks from " + connection.channel.socket().getInetAddress());
+        for (int i = 0; i < batch.tasks.size(); i++) {
+            int index = i;
+            Task task = batch.tasks.get(i);
+            if (task == null) {
+                connection.reply(new WireFormat.BatchResult(index, null));
+                continue;
+            }
+            processTaskAsync(task, result -> connection.reply(new WireFormat.BatchResult(index, result)));
+        }
     }
 
     // Process a single task
@@ -80,7 +202,7 @@ public final class RemoteServerProcessor {
         Future<?> future = submitTask(task); // Submit task to the executor service
         try {
             future.get(task.getTimeout(), TimeUnit.MILLISECONDS); // Wait for task completion within its timeout
-            AlertSystem.sendAlertInfo("Task " + task.getId() + " completed successfully on local server");
+            AlertSystem.sendAlertInfo(() -> "Task " + task.getId() + " completed successfully on local server");
             return task; // Return completed task
         } catch (TimeoutException e) {
             // If the task times out, handle failure and log the timeout
@@ -94,6 +216,37 @@ public final class RemoteServerProcessor {
         }
     }
 
+    // Process a single task without blocking, passing the task (or null if it failed or timed out) to onDone
+    private void processTaskAsync(Task task, Consumer<Task> onDone) {
+        AtomicReference<TimingWheel.Timeout> timeout = new AtomicReference<>();
+        FutureTask<Void> work = new FutureTask<>(createTaskWork(task), null) {
+            // Runs once the task finishes, fails, or is cancelled by its timeout
+            @Override
+            protected void done() {
+                // The timeout is only missing if it fired before the work was handed to the executor
+                TimingWheel.Timeout scheduled = timeout.get();
+                if (scheduled != null) {
+                    scheduled.cancel(); // Otherwise it would hold the task until its deadline
+                }
+                if (isCancelled()) {
+                    handleFailedTask(task, "Task timed out");
+                    onDone.accept(null);
+                    return;
+                }
+                try {
+                    get();
+                    AlertSystem.sendAlertInfo(() -> "Task " + task.getId() + " completed successfully on local server");
+                    onDone.accept(task);
+                } catch (ExecutionException | InterruptedException e) {
+                    handleFailedTask(task, "Task failed or was interrupted");
+                    onDone.accept(null);
+                }
+            }
+        };
+        timeout.set(timeouts.schedule(task.getTimeout(), () -> work.cancel(true)));
+        executionStrategy.executorFor(task).execute(work);
+    }
+
     // Handle a failed task
     public void handleFailedTask(Task task, String message) {
         task.cleanup(); // Ensure the task cleans up resources upon failure
@@ -103,27 +256,65 @@ public final class RemoteServerProcessor {
     // Submit a task to the executor service
     private Future<?> submitTask(Task task) {
         // Returns a Future object that represents the future result of the task
-        return executor.submit(() -> {
+        return executionStrategy.executorFor(task).submit(createTaskWork(task));
+    }
+
+    // Create the work that runs a task on an executor thread
+    private Runnable createTaskWork(Task task) {
+        return () -> {
             try {
                 // Simulate task execution by sleeping for the estimated duration
-                Thread.sleep(task.getEstimatedDuration().getDurationMs().longValue());
+                Thread.sleep(task.getEstimatedDuration().toMillis());
                 task.execute();
             } catch (TaskException | InterruptedException e) {
                 AlertSystem.sendAlertError("Task failed: " + task.getId());
                 throw new RuntimeException(e); // Throw an exception to signal task failure
             }
-        });
+        };
     }
 
-    // Stop the server processor
+    // Choose how the processor runs tasks (cached pool, bounded pool or virtual threads), shutting down the one it replaces
+    public void setExecutionStrategy(ExecutionStrategy executionStrategy) {
+        ExecutionStrategy replaced = this.executionStrategy;
+        this.executionStrategy = executionStrategy;
+        if (replaced != executionStrategy) {
+            replaced.shutdown();
+        }
+    }
+
+    // Stop the server processor, which closes the server channel and every open connection
     public void stop() {
         running = false;
-        logInfo("Remote task processor stopped");
+        Selector currentSelector = selector;
+        if (currentSelector != null) {
+            currentSelector.wakeup(); // Let the selector loop see that it should stop
+        }
+        logInfo(() -> "Remote task processor stopped");
+    }
+
+    private void closeAllConnections(Selector selector) {
+        for (SelectionKey key : selector.keys()) {
+            closeConnection(key);
+        }
+    }
+
+    // Close a client's connection (only called on the selector thread)
+    private void closeConnection(SelectionKey key) {
+        if (key.attachment() instanceof ClientConnection connection) {
+            connection.releaseBuffers();
+        }
+        key.cancel();
+        try {
+            key.channel().close();
+        } catch (IOException e) {
+            logSevere("Failed to close connection: " + e.getMessage());
+        }
     }
 
     // Logging methods for different log levels (I wanted to have the prefix "[SERVER PROCESSOR]" in the logs for clarity)
-    private void logInfo(String message) {
-        AlertSystem.sendAlertInfo("[SERVER PROCESSOR] " + message);
+    // Info messages are only built if they will be logged, since they are sent for every task
+    private void logInfo(Supplier<String> message) {
+        AlertSystem.sendAlertInfo(() -> "[SERVER PROCESSOR] " + message.get());
     }
 
     private void logSevere(String message) {
@@ -138,4 +329,123 @@ public final class RemoteServerProcessor {
     public boolean isStillRunning() {
         return running;
     }
+
+    // A connected client: the frame it is part-way through sending, and the replies waiting to be written to it
+    // Frames are read into and written from pooled direct buffers, so moving a message doesn't allocate on the heap
+    private final class ClientConnection {
+        // Most replies that are written with a single gathering write
+        private static final int MAX_GATHERED_REPLIES = 16;
+
+        private final SocketChannel channel;
+        private final SelectionKey key;
+        private final ByteBuffer header = ByteBuffer.allocateDirect(WireFormat.HEADER_BYTES);
+        // Payload of the frame being read, or null while the header is still being read
+        private ByteBuffer payload;
+        private final Queue<ByteBuffer> replies = new ConcurrentLinkedQueue<>();
+        // Replies taken from the queue for the current gathering write, reused for every write
+        private final ByteBuffer[] gathered = new ByteBuffer[MAX_GATHERED_REPLIES];
+        private int gatheredCount = 0;
+        private volatile boolean closeRequested = false;
+
+        private ClientConnection(SocketChannel channel, SelectionKey key) {
+            this.channel = channel;
+            this.key = key;
+        }
+
+        // Read whatever bytes are available, handing each complete frame to the workers
+        private void read() throws IOException {
+            while (true) {
+                ByteBuffer buffer = payload == null ? header : payload;
+                int bytesRead = channel.read(buffer);
+                if (bytesRead < 0) { // The client closed the connection
+                    closeConnection(key);
+                    return;
+                }
+                if (buffer.hasRemaining()) {
+                    return; // Wait for the rest of the frame
+                }
+                if (payload == null) {
+                    header.flip();
+                    payload = BufferPool.getDefault().acquire(WireFormat.checkPayloadLength(header.getInt()));
+                    header.clear();
+                }
+                if (!payload.hasRemaining()) {
+                    ByteBuffer frame = payload.flip();
+                    payload = null;
+                    workers.execute(() -> handleFrame(this, frame));
+                }
+            }
+        }
+
+        // Write as many waiting replies as the socket will take, several at a time with gathering writes, and stop
+        // watching for writability once they're all sent
+        private void write() throws IOException {
+            while (true) {
+                ByteBuffer reply;
+                while (gatheredCount < gathered.length && (reply = replies.poll()) != null) {
+                    gathered[gatheredCount++] = reply;
+                }
+                if (gatheredCount == 0) {
+                    break;
+                }
+                channel.write(gathered, 0, gatheredCount);
+                int sent = 0;
+                while (sent < gatheredCount && !gathered[sent].hasRemaining()) {
+                    BufferPool.getDefault().release(gathered[sent]);
+                    sent++;
+                }
+                // Move replies that weren't fully sent to the front for the next write
+                System.arraycopy(gathered, sent, gathered, 0, gatheredCount - sent);
+                Arrays.fill(gathered, gatheredCount - sent, gatheredCount, null);
+                gatheredCount -= sent;
+                if (gatheredCount > 0) {
+                    return; // The socket's send buffer is full
+                }
+            }
+            key.interestOps(SelectionKey.OP_READ);
+            // A reply added after the queue was found empty has already asked to be watched again
+        }
+
+        // Queue a reply (from any thread) and have the selector thread write it
+        private void reply(Object message) {
+            try {
+                replies.add(WireFormat.encodeFrame(message));
+            } catch (IOException e) {
+                logSevere("Could not encode reply: " + e.getMessage());
+                return;
+            }
+            wakeSelector();
+        }
+
+        // Ask the selector thread to close this connection (from a worker thread)
+        private void requestClose() {
+            closeRequested = true;
+            wakeSelector();
+        }
+
+        private void wakeSelector() {
+            connectionsToWrite.add(this);
+            Selector currentSelector = selector;
+            if (currentSelector != null) {
+                currentSelector.wakeup();
+            }
+        }
+
+        // Return every buffer this connection holds to the pool (only called on the selector thread)
+        private void releaseBuffers() {
+            if (payload != null) {
+                BufferPool.getDefault().release(payload);
+                payload = null;
+            }
+            for (int i = 0; i < gatheredCount; i++) {
+                BufferPool.getDefault().release(gathered[i]);
+                gathered[i] = null;
+            }
+            gatheredCount = 0;
+            ByteBuffer reply;
+            while ((reply = replies.poll()) != null) {
+                BufferPool.getDefault().release(reply);
+            }
+        }
+    }
 }
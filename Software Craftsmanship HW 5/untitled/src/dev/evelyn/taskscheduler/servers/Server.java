@@ -1,42 +1,99 @@
 package dev.evelyn.taskscheduler.servers;
 
+import dev.evelyn.taskscheduler.TimeSource;
 import dev.evelyn.taskscheduler.exceptions.ServerException;
 import dev.evelyn.taskscheduler.exceptions.TaskException;
 import dev.evelyn.taskscheduler.metrics.AlertSystem;
+import dev.evelyn.taskscheduler.metrics.Counter;
+import dev.evelyn.taskscheduler.metrics.LatencyHistogram;
+import dev.evelyn.taskscheduler.metrics.MetricsRegistry;
 import dev.evelyn.taskscheduler.tasks.Task;
 
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.List;
-import java.util.Objects;
-import java.util.stream.Collectors;
+import java.util.ListIterator;
+import java.util.Map;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class Server {
+    // Numbers the servers that aren't given a name, so every server has a name that stays the same for its lifetime
+    private static final AtomicInteger NEXT_SERVER_NUMBER = new AtomicInteger();
+    // Name used in logs and as the server's label in reported metrics
+    private final String name;
     // Task queue and failed task lists
-    final List<Task> taskQueue = new ArrayList<>();
+    // A linked list used as a deque: tasks run from the front, and other servers steal from the back
+    // Access is synchronized on the queue, since a stealing server takes tasks from another server's thread
+    final LinkedList<Task> taskQueue = new LinkedList<>();
+    // Map of queued tasks to when they were added, so the time each one waits can be recorded when it leaves the queue
+    private final Map<Task, Long> enqueueTimes = new IdentityHashMap<>();
+    // Clock for queue wait times, which a simulation replaces with its virtual clock
+    private volatile TimeSource timeSource = TimeSource.SYSTEM;
     final List<Task> failedTasks = new ArrayList<>();
-    // Executor service which manages task execution
-    private final ExecutorService executor = Executors.newCachedThreadPool();
-    // Add a task to the task queue
+    // Strategy which picks the executor that runs each task
+    private ExecutionStrategy executionStrategy = ExecutionStrategy.shared();
+    // Maximum number of tasks run at the same time by executeTasks (1 runs the queue one task at a time)
+    private int maxConcurrentTasks = 1;
+    // How fast this server runs a task compared to its estimated duration (2 runs tasks in half the time)
+    private double speedFactor = 1;
+    // Servers this server steals queued tasks from once its own queue is empty (null to never steal)
+    private volatile WorkStealingGroup workStealingGroup;
+    // Add a task to the task queue, keeping the queue ordered by priority (tasks of equal priority stay in order)
     public void addTask(Task task) {
-        taskQueue.add(task);
+        synchronized (taskQueue) {
+            ListIterator<Task> iterator = taskQueue.listIterator(taskQueue.size());
+            while (iterator.hasPrevious()) {
+                if (iterator.previous().getPriority().compareTo(task.getPriority()) <= 0) {
+                    iterator.next(); // Insert after the last task with the same or a higher priority
+                    break;
+                }
+            }
+            iterator.add(task);
+            enqueueTimes.put(task, timeSource.currentTimeMillis());
+        }
+    }
+    // Per-server performance metrics, which executor threads update while the performance monitor reads them
+    private final MetricsRegistry metrics = new MetricsRegistry();
+    protected final Counter totalExecutionTime = metrics.counter("execution_time_ms");
+    protected final Counter totalTasksExecuted = metrics.counter("tasks_executed");
+    protected final Counter totalCompletedTasks = metrics.counter("tasks_completed");
+    protected final Counter totalFailedTasks = metrics.counter("tasks_failed");
+    // Tasks this server has taken to run, from its own queue or stolen from another server, and their estimated ms
+    private final Counter totalTasksStarted = metrics.counter("tasks_started");
+    private final Counter totalEstimatedMsStarted = metrics.counter("estimated_ms_started");
+    // Latencies of each stage a task goes through: waiting in the queue, executing, and crossing the network
+    final LatencyHistogram queueWaitLatency = new LatencyHistogram();
+    final LatencyHistogram executionLatency = new LatencyHistogram();
+    final LatencyHistogram networkLatency = new LatencyHistogram();
+
+    public Server() {
+        this("server-" + NEXT_SERVER_NUMBER.incrementAndGet());
+    }
+
+    public Server(String name) {
+        this.name = name;
+        metrics.gauge("queue_length", this::getQueueLength);
     }
-    // Per-server performance metrics
-    protected long totalExecutionTime = 0;
-    protected long totalTasksExecuted = 0;
-    protected long totalCompletedTasks = 0;
-    protected long totalFailedTasks = 0;
 
     public List<Task> executeTasks() throws ServerException {
+        if (maxConcurrentTasks > 1 && supportsPipelining()) {
+            return executeTasksPipelined();
+        }
         try {
-            // Process each task in the queue and return a list of successfully completed tasks
-            List<Task> completedTasks = taskQueue.stream()
-                    .map(this::processTask)  // Process each task
-                    .filter(Objects::nonNull)  // Filter out failed tasks (which return null)
-                    .filter(Task::isCompleted) // Ensure only completed tasks remain
-                    .collect(Collectors.toList());
-            taskQueue.clear(); // Clear task queue after execution
-            totalCompletedTasks += completedTasks.size(); // Update total completed tasks
+            // Take each task off the queue as it starts and return a list of successfully completed tasks
+            List<Task> completedTasks = new ArrayList<>();
+            Task task;
+            while ((task = nextTask()) != null) {
+                Task result = processTask(task); // Failed tasks return null
+                if (result != null && result.isCompleted()) { // Ensure only completed tasks remain
+                    completedTasks.add(result);
+                }
+            }
+            totalCompletedTasks.add(completedTasks.size()); // Update total completed tasks
             return completedTasks;
         } catch (Exception e) {
             // Log and throw a ServerException if any task processing fails unexpectedly
@@ -44,13 +101,225 @@ public class Server {
         }
     }
 
+    // Submit up to maxConcurrentTasks tasks at once and collect them in the order they finish
+    // Completed tasks are returned in completion order rather than queue order
+    private List<Task> executeTasksPipelined() throws ServerException {
+        // Tasks are added to this queue as they finish, in the same way as an ExecutorCompletionService
+        BlockingQueue<Future<Task>> finishedTasks = new LinkedBlockingQueue<>();
+        // Map of running tasks to the time (in ms) at which they time out
+        Map<Future<Task>, PipelinedTask> runningTasks = new HashMap<>();
+        List<Task> completedTasks = new ArrayList<>();
+        try {
+            while (true) {
+                // Fill the pipeline up to the concurrency limit, only taking tasks off the queue as they start
+                Task task;
+                while (runningTasks.size() < maxConcurrentTasks && (task = nextTask()) != null) {
+                    totalTasksExecuted.increment(); // Increment total tasks executed
+                    Future<Task> future = submitPipelinedTask(task, finishedTasks);
+                    runningTasks.put(future, new PipelinedTask(task, System.currentTimeMillis() + task.getTimeout()));
+                }
+                if (runningTasks.isEmpty()) {
+                    break; // Nothing is running and there is nothing left to start
+                }
+                // Wait for the next task to finish, but no longer than the earliest timeout
+                Future<Task> future = finishedTasks.poll(timeUntilNextTimeout(runningTasks), TimeUnit.MILLISECONDS);
+                if (future == null) {
+                    cancelTimedOutTasks(runningTasks);
+                    continue;
+                }
+                PipelinedTask finished = runningTasks.remove(future);
+                if (finished == null) { // Cancelled tasks are also handed back, but have already been handled
+                    continue;
+                }
+                collectPipelinedTask(future, finished.task, completedTasks);
+            }
+        } catch (InterruptedException e) {
+            runningTasks.keySet().forEach(future -> future.cancel(true));
+            Thread.currentThread().interrupt();
+            throw new ServerException("Task execution was interrupted", e);
+        }
+        totalCompletedTasks.add(completedTasks.size()); // Update total completed tasks
+        return completedTasks;
+    }
+
+    // Submit a task to the executor chosen by the execution strategy, adding it to finishedTasks when it finishes
+    private Future<Task> submitPipelinedTask(Task task, BlockingQueue<Future<Task>> finishedTasks) {
+        FutureTask<Task> future = new FutureTask<>(createTaskWork(task)) {
+            @Override
+            protected void done() {
+                finishedTasks.add(this);
+            }
+        };
+        executionStrategy.executorFor(task).execute(future);
+        return future;
+    }
+
+    // Get the result of a finished task, recording it as completed or failed
+    private void collectPipelinedTask(Future<Task> future, Task task, List<Task> completedTasks) throws InterruptedException {
+        try {
+            future.get();
+            if (task.isCompleted()) {
+                AlertSystem.sendAlertInfo(() -> "Task " + task.getId() + " completed successfully on local server");
+                completedTasks.add(task);
+            }
+        } catch (ExecutionException e) {
+            handleFailedTask(task, "Task failed or was interrupted");
+        }
+    }
+
+    // Get the time in ms until the first running task times out
+    private long timeUntilNextTimeout(Map<Future<Task>, PipelinedTask> runningTasks) {
+        long earliestDeadline = runningTasks.values().stream()
+                .mapToLong(running -> running.deadline)
+                .min()
+                .orElse(System.currentTimeMillis());
+        return Math.max(0, earliestDeadline - System.currentTimeMillis());
+    }
+
+    // Cancel and fail every running task that has passed its timeout
+    private void cancelTimedOutTasks(Map<Future<Task>, PipelinedTask> runningTasks) {
+        long now = System.currentTimeMillis();
+        Iterator<Map.Entry<Future<Task>, PipelinedTask>> iterator = runningTasks.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Future<Task>, PipelinedTask> entry = iterator.next();
+            if (entry.getValue().deadline <= now && !entry.getKey().isDone()) {
+                entry.getKey().cancel(true);
+                handleFailedTask(entry.getValue().task, "Task timed out");
+                iterator.remove();
+            }
+        }
+    }
+
+    // Set the maximum number of tasks executeTasks runs at the same time
+    public void setMaxConcurrentTasks(int maxConcurrentTasks) throws ServerException {
+        if (maxConcurrentTasks < 1) {
+            throw new ServerException("Maximum concurrent tasks must be at least 1");
+        }
+        this.maxConcurrentTasks = maxConcurrentTasks;
+    }
+
+    public int getMaxConcurrentTasks() {
+        return maxConcurrentTasks;
+    }
+
+    // Declare the server's capacity: how many tasks it runs at once (its cores), and how fast it runs each one
+    public void setCapacity(int cores, double speedFactor) throws ServerException {
+        if (!(speedFactor > 0) || Double.isInfinite(speedFactor)) {
+            throw new ServerException("Speed factor must be a positive number");
+        }
+        setMaxConcurrentTasks(cores);
+        this.speedFactor = speedFactor;
+    }
+
+    public double getSpeedFactor() {
+        return speedFactor;
+    }
+
+    // Get the server's capacity weight compared to a single core running at the estimated speed
+    public double getCapacity() {
+        return maxConcurrentTasks * speedFactor;
+    }
+
+    // Get how long (in ms) this server is expected to take to run a task, given its speed factor
+    public long getExpectedDuration(Task task) {
+        return Math.round(task.getEstimatedDuration().toMillis() / speedFactor);
+    }
+
+    // Choose how this server's tasks are run (cached pool, bounded pool or virtual threads)
+    // The server owns the strategy it is given, so the strategy it replaces is shut down once its tasks finish.
+    public void setExecutionStrategy(ExecutionStrategy executionStrategy) throws ServerException {
+        if (executionStrategy == null) {
+            throw new ServerException("Execution strategy cannot be null");
+        }
+        ExecutionStrategy replaced = this.executionStrategy;
+        this.executionStrategy = executionStrategy;
+        if (replaced != executionStrategy) {
+            replaced.shutdown();
+        }
+    }
+
+    // Shut down the execution strategy this server was given, once the tasks already started have finished
+    public void close() {
+        executionStrategy.shutdown();
+    }
+
+    // Let this server steal queued tasks from the other servers in a group once its own queue is empty (null to stop)
+    public void setWorkStealingGroup(WorkStealingGroup workStealingGroup) {
+        this.workStealingGroup = workStealingGroup;
+    }
+
+    // Take the next task to start: the front of this server's queue, or a task stolen from the busiest server in its
+    // work stealing group once the queue is empty
+    Task nextTask() {
+        Task task = pollTask();
+        WorkStealingGroup group = workStealingGroup;
+        if (task == null && group != null) {
+            task = group.steal(this);
+        }
+        if (task != null) {
+            recordStart(task);
+        }
+        return task;
+    }
+
+    // Take up to maxTasks tasks off the front of the queue, or a single stolen task once the queue is empty
+    List<Task> takeTasks(int maxTasks) {
+        List<Task> tasks = new ArrayList<>();
+        synchronized (taskQueue) {
+            while (tasks.size() < maxTasks && !taskQueue.isEmpty()) {
+                tasks.add(leaveQueue(taskQueue.pollFirst()));
+            }
+        }
+        tasks.forEach(this::recordStart);
+        if (tasks.isEmpty()) {
+            Task stolenTask = nextTask();
+            if (stolenTask != null) {
+                tasks.add(stolenTask);
+            }
+        }
+        return tasks;
+    }
+
+    // Remove a task that hasn't started, for another server to run, or return null if the queue is empty
+    // The task comes from the back of the highest priority waiting here, so the thief never runs a lower priority task
+    // while a higher priority one is still queued, and the owner keeps the tasks it would start next
+    public Task stealTask() {
+        synchronized (taskQueue) {
+            Task first = taskQueue.peekFirst();
+            if (first == null) {
+                return null;
+            }
+            Iterator<Task> iterator = taskQueue.descendingIterator();
+            while (iterator.hasNext()) {
+                Task task = iterator.next();
+                if (task.getPriority() == first.getPriority()) {
+                    iterator.remove();
+                    return leaveQueue(task); // The thief starts it straight away, so its wait ends here
+                }
+            }
+            return null;
+        }
+    }
+
+    // Get the number of tasks waiting in the queue
+    public int getQueueLength() {
+        synchronized (taskQueue) {
+            return taskQueue.size();
+        }
+    }
+
+    // Whether this server can run its queue in pipelined mode
+    boolean supportsPipelining() {
+        return true;
+    }
+
     // Process a single task
     Task processTask(Task task) {
-        totalTasksExecuted++; // Increment total tasks executed
+        totalTasksExecuted.increment(); // Increment total tasks executed
         Future<?> future = submitTask(task); // Submit task to the executor service
         try {
             future.get(task.getTimeout(), TimeUnit.MILLISECONDS); // Wait for task completion within its timeout
-            AlertSystem.sendAlertInfo("Task " + task.getId() + " completed successfully on local server");
+            AlertSystem.sendAlertInfo(() -> "Task " + task.getId() + " completed successfully on local server");
             return task; // Return completed task
         } catch (TimeoutException e) {
             // If the task times out, handle failure and log the timeout
@@ -65,13 +334,18 @@ public class Server {
     }
 
     // Submit a task to the executor service
-    private Future<?> submitTask(Task task) {
+    private Future<Task> submitTask(Task task) {
         // Returns a Future object that represents the future result of the task
-        return executor.submit(() -> {
+        return executionStrategy.executorFor(task).submit(createTaskWork(task));
+    }
+
+    // Create the work that runs a task on an executor thread, returning the task once it has executed
+    private Callable<Task> createTaskWork(Task task) {
+        return () -> {
             long startTime = System.currentTimeMillis(); // Track start time for performance metrics
             try {
-                // Simulate task execution by sleeping for the estimated duration
-                Thread.sleep(task.getEstimatedDuration().getDurationMs().longValue());
+                // Simulate task execution by sleeping for the estimated duration, scaled by the server's speed
+                Thread.sleep(getExpectedDuration(task));
                 task.execute();
             } catch (TaskException | InterruptedException e) {
                 AlertSystem.sendAlertError("Task failed: " + task.getId());
@@ -79,14 +353,27 @@ public class Server {
             } finally {
                 // Always update the performance monitor after the task completes or fails
                 long executionTime = System.currentTimeMillis() - startTime;
-                totalExecutionTime += executionTime;
+                totalExecutionTime.add(executionTime);
+                executionLatency.record(executionTime);
             }
-        });
+            return task;
+        };
+    }
+
+    // A task running in pipelined mode and the time at which it times out
+    private static final class PipelinedTask {
+        private final Task task;
+        private final long deadline;
+
+        private PipelinedTask(Task task, long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+        }
     }
 
     // Handle failed task logic (cleanup, logging, etc.)
     public void handleFailedTask(Task task, String message) {
-        totalFailedTasks++; // Increment total failed tasks
+        totalFailedTasks.increment(); // Increment total failed tasks
         task.cleanup(); // Ensure the task cleans up resources upon failure
         AlertSystem.sendAlertError(message + ": " + task.getId()); // Log the failure message
         failedTasks.add(task); // Add the task to the failed task list
@@ -98,30 +385,107 @@ public class Server {
         return new ArrayList<>(failedTasks);
     }
 
+    // Remove and return the failed tasks, so whoever retries them takes them off the server
+    public List<Task> drainFailedTasks() {
+        List<Task> drained = new ArrayList<>(failedTasks);
+        failedTasks.clear();
+        return drained;
+    }
+
     // Get the list of tasks
     public List<Task> getTasks() {
-        return new ArrayList<>(taskQueue);
+        synchronized (taskQueue) {
+            return new ArrayList<>(taskQueue);
+        }
+    }
+
+    // Remove and return the highest priority task in the queue, or null if the queue is empty
+    public Task pollTask() {
+        synchronized (taskQueue) {
+            Task task = taskQueue.pollFirst();
+            return task != null ? leaveQueue(task) : null;
+        }
+    }
+
+    // Count a task this server is about to run, so its throughput is measured over the tasks it actually ran
+    private void recordStart(Task task) {
+        totalTasksStarted.increment();
+        totalEstimatedMsStarted.add(task.getEstimatedDuration().toMillis());
+    }
+
+    // Record how long a task that is about to start waited in the queue (called while holding the queue's lock)
+    private Task leaveQueue(Task task) {
+        Long enqueueTime = enqueueTimes.remove(task);
+        if (enqueueTime != null) {
+            queueWaitLatency.record(timeSource.currentTimeMillis() - enqueueTime);
+        }
+        return task;
     }
 
     // Clear the task queue
     public void clearTasks() {
-        taskQueue.clear();
+        synchronized (taskQueue) {
+            taskQueue.clear();
+            enqueueTimes.clear();
+        }
+    }
+
+    // Set the clock used to time how long tasks wait in the queue
+    public void setTimeSource(TimeSource timeSource) {
+        this.timeSource = timeSource;
     }
 
     // Getters for performance metrics
     public long getTotalExecutionTime() {
-        return totalExecutionTime;
+        return totalExecutionTime.get();
     }
 
     public long getTotalTasksExecuted() {
-        return totalTasksExecuted;
+        return totalTasksExecuted.get();
     }
 
     public long getTotalCompletedTasks() {
-        return totalCompletedTasks;
+        return totalCompletedTasks.get();
     }
 
     public long getTotalFailedTasks() {
-        return totalFailedTasks;
+        return totalFailedTasks.get();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String toString() {
+        return "Server[" + name + "]";
+    }
+
+    // Number of tasks executeTasks has taken to run, including ones stolen from other servers
+    public long getTotalTasksStarted() {
+        return totalTasksStarted.get();
+    }
+
+    // Total estimated duration (in ms) of the tasks executeTasks has taken to run
+    public long getTotalEstimatedMsStarted() {
+        return totalEstimatedMsStarted.get();
+    }
+
+    // Latency histograms for each stage, which can be merged with other servers' histograms of the same stage
+    public LatencyHistogram getQueueWaitLatency() {
+        return queueWaitLatency;
+    }
+
+    public LatencyHistogram getExecutionLatency() {
+        return executionLatency;
+    }
+
+    // Only remote servers have network latency
+    public LatencyHistogram getNetworkLatency() {
+        return networkLatency;
+    }
+
+    // Get every metric for this server, including ones subclasses add
+    public MetricsRegistry getMetrics() {
+        return metrics;
     }
 }
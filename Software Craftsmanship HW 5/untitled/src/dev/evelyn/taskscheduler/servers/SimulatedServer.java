@@ -0,0 +1,79 @@
+package dev.evelyn.taskscheduler.servers;
+
+import dev.evelyn.taskscheduler.CircuitBreaker;
+import dev.evelyn.taskscheduler.exceptions.ServerException;
+import dev.evelyn.taskscheduler.tasks.Task;
+
+import java.util.List;
+
+// A server whose tasks are run by a SimulationEngine on a virtual clock instead of by sleeping threads
+// It can model a local server, or a remote server with a fixed network latency and a circuit breaker
+public class SimulatedServer extends Server {
+    private final long latencyMs;
+    private final CircuitBreaker circuitBreaker;
+
+    // A simulated local server
+    public SimulatedServer(String name) {
+        this(name, 0, null);
+    }
+
+    // A simulated remote server, where the circuit breaker should use the simulation's clock
+    public SimulatedServer(String name, long latencyMs, CircuitBreaker circuitBreaker) {
+        super(name);
+        this.latencyMs = latencyMs;
+        this.circuitBreaker = circuitBreaker;
+    }
+
+    // Simulated servers never sleep, so their tasks can only be run by a SimulationEngine
+    @Override
+    public List<Task> executeTasks() throws ServerException {
+        throw new ServerException("Simulated servers can only be executed by a SimulationEngine");
+    }
+
+    // Record a task that finished running, along with how long it occupied the server
+    public void recordExecution(Task task, long executionTime, boolean successful) {
+        totalTasksExecuted.increment();
+        totalExecutionTime.add(executionTime);
+        // The network latency is part of the time the task occupied the server, but not of its execution
+        long networkTime = Math.min(latencyMs, executionTime);
+        networkLatency.record(networkTime);
+        executionLatency.record(executionTime - networkTime);
+        if (successful) {
+            totalCompletedTasks.increment();
+        } else {
+            totalFailedTasks.increment();
+            failedTasks.add(task);
+        }
+    }
+
+    // Report a success to the circuit breaker, if the server has one
+    public void reportSuccess() {
+        if (circuitBreaker != null) {
+            circuitBreaker.reportSuccess();
+        }
+    }
+
+    // Report a failure to the circuit breaker, if the server has one
+    public void reportFailure() {
+        if (circuitBreaker != null) {
+            circuitBreaker.reportFailure();
+        }
+    }
+
+    // Whether a task can be sent to this server right now (always true for local servers)
+    public boolean canSendRequest() {
+        return circuitBreaker == null || circuitBreaker.canSendRequest();
+    }
+
+    public long getLatencyMs() {
+        return latencyMs;
+    }
+
+    public CircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    public String toString() {
+        return "SimulatedServer[" + getName() + "]";
+    }
+}
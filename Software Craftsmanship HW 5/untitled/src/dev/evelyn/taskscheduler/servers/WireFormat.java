@@ -0,0 +1,232 @@
+package dev.evelyn.taskscheduler.servers;
+
+import dev.evelyn.taskscheduler.tasks.Task;
+import dev.evelyn.taskscheduler.tasks.TaskCodecRegistry;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+// Framing for messages between RemoteServer and RemoteServerProcessor
+// Every message is sent as a frame: a 4-byte length followed by that many bytes of payload. Frames let the
+// processor read messages with non-blocking channels, since it always knows how many bytes make up the next one.
+// A payload starts with the format version and the kind of message, followed by the message itself.
+final class WireFormat {
+    // Size of the length that starts each frame
+    static final int HEADER_BYTES = Integer.BYTES;
+    // Largest payload either side will accept, so a corrupt length can't make it allocate an enormous buffer
+    static final int MAX_PAYLOAD_BYTES = 16 * 1024 * 1024;
+    // Version of the payload layout, written first in every payload so incompatible peers fail fast
+    static final int VERSION = 1;
+    // Kinds of message, written after the version
+    private static final int KIND_NULL = 0;
+    private static final int KIND_PING = 1;
+    private static final int KIND_TASK = 2;
+    private static final int KIND_SERIALIZED = 3;
+    private static final int KIND_BATCH = 4;
+    private static final int KIND_BATCH_RESULT = 5;
+    private static final int KIND_REQUEST = 6;
+    private static final int KIND_RESPONSE = 7;
+
+    private WireFormat() {
+    }
+
+    // Encode a message (a task, null for a failed task, a ping, or a batch message) as a frame in a pooled buffer
+    // The length is patched into the header once the payload is written, so the payload is never copied. The buffer is
+    // ready to be written to a channel, and the caller must release it to the pool once it has been sent.
+    static ByteBuffer encodeFrame(Object message) throws IOException {
+        ByteBufferOutput out = new ByteBufferOutput(BufferPool.getDefault(), BufferPool.MIN_BUFFER_SIZE);
+        try {
+            out.writeInt(0); // Replaced with the payload length below
+            out.writeByte(VERSION);
+            writeMessage(message, out);
+            out.putInt(0, checkPayloadLength(out.position() - HEADER_BYTES));
+            return out.takeBuffer();
+        } finally {
+            out.close();
+        }
+    }
+
+    // Decode a payload in place from the buffer it was read into
+    static Object decode(ByteBuffer payload) throws IOException, ClassNotFoundException {
+        ByteBufferInput in = new ByteBufferInput(payload);
+        int version = in.readUnsignedByte();
+        if (version != VERSION) {
+            throw new IOException("Unsupported wire format version: " + version);
+        }
+        return readMessage(in);
+    }
+
+    // Write the kind of a message followed by the message itself
+    // Tasks with a registered codec are written as compact binary fields; anything else falls back to Java serialization
+    private static void writeMessage(Object message, ByteBufferOutput out) throws IOException {
+        if (message == null) {
+            out.writeByte(KIND_NULL);
+        } else if (ConnectionPool.PING.equals(message)) {
+            out.writeByte(KIND_PING);
+        } else if (message instanceof Task task && TaskCodecRegistry.getDefault().canWrite(task)) {
+            out.writeByte(KIND_TASK);
+            TaskCodecRegistry.getDefault().write(task, out);
+        } else if (message instanceof TaskBatch batch) {
+            out.writeByte(KIND_BATCH);
+            out.writeInt(batch.tasks.size());
+            for (Task task : batch.tasks) {
+                writeMessage(task, out);
+            }
+        } else if (message instanceof BatchResult result) {
+            out.writeByte(KIND_BATCH_RESULT);
+            out.writeInt(result.index);
+            writeMessage(result.task, out);
+        } else if (message instanceof Request request) {
+            out.writeByte(KIND_REQUEST);
+            out.writeLong(request.correlationId);
+            writeMessage(request.task, out);
+        } else if (message instanceof Response response) {
+            out.writeByte(KIND_RESPONSE);
+            out.writeLong(response.correlationId);
+            writeMessage(response.task, out);
+        } else {
+            out.writeByte(KIND_SERIALIZED);
+            // The object stream is flushed but not closed, since a batch may write more messages after it
+            ObjectOutputStream objectOut = new ObjectOutputStream(out);
+            objectOut.writeObject(message);
+            objectOut.flush();
+        }
+    }
+
+    private static Object readMessage(ByteBufferInput in) throws IOException, ClassNotFoundException {
+        int kind = in.readUnsignedByte();
+        if (kind == KIND_NULL) {
+            return null;
+        } else if (kind == KIND_PING) {
+            return ConnectionPool.PING;
+        } else if (kind == KIND_TASK) {
+            return TaskCodecRegistry.getDefault().read(in);
+        } else if (kind == KIND_BATCH) {
+            int size = in.readInt();
+            if (size < 0) {
+                throw new IOException("Invalid batch size: " + size);
+            }
+            List<Task> tasks = new ArrayList<>(Math.min(size, 1024));
+            for (int i = 0; i < size; i++) {
+                tasks.add(readTask(in));
+            }
+            return new TaskBatch(tasks);
+        } else if (kind == KIND_BATCH_RESULT) {
+            int index = in.readInt();
+            return new BatchResult(index, readTask(in));
+        } else if (kind == KIND_REQUEST) {
+            long correlationId = in.readLong();
+            return new Request(correlationId, readTask(in));
+        } else if (kind == KIND_RESPONSE) {
+            long correlationId = in.readLong();
+            return new Response(correlationId, readTask(in));
+        } else if (kind == KIND_SERIALIZED) {
+            return new ObjectInputStream(in).readObject();
+        }
+        throw new IOException("Unknown message kind: " + kind);
+    }
+
+    // Read a message that must be a task (or null)
+    private static Task readTask(ByteBufferInput in) throws IOException, ClassNotFoundException {
+        Object message = readMessage(in);
+        if (message != null && !(message instanceof Task)) {
+            throw new IOException("Expected a task but read " + message.getClass().getName());
+        }
+        return (Task) message;
+    }
+
+    // Write a message as a single frame to a blocking channel
+    static void writeFrame(WritableByteChannel channel, Object message) throws IOException {
+        ByteBuffer frame = encodeFrame(message);
+        try {
+            while (frame.hasRemaining()) {
+                channel.write(frame);
+            }
+        } finally {
+            BufferPool.getDefault().release(frame);
+        }
+    }
+
+    // Read a single frame from a blocking channel, using a header buffer the caller keeps for the connection
+    static Object readFrame(ReadableByteChannel channel, ByteBuffer header) throws IOException, ClassNotFoundException {
+        header.clear();
+        readFully(channel, header);
+        ByteBuffer payload = BufferPool.getDefault().acquire(checkPayloadLength(header.flip().getInt()));
+        try {
+            readFully(channel, payload);
+            return decode(payload.flip());
+        } finally {
+            BufferPool.getDefault().release(payload);
+        }
+    }
+
+    // Read a single frame from a blocking stream, for reads that need the socket's timeout (channels ignore it)
+    static Object readFrame(DataInputStream in) throws IOException, ClassNotFoundException {
+        byte[] payload = new byte[checkPayloadLength(in.readInt())];
+        in.readFully(payload);
+        return decode(ByteBuffer.wrap(payload));
+    }
+
+    private static void readFully(ReadableByteChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                throw new EOFException("Connection closed part way through a frame");
+            }
+        }
+    }
+
+    // Ensure the length read from a frame header is one this side is willing to read
+    static int checkPayloadLength(int length) throws IOException {
+        if (length < 0 || length > MAX_PAYLOAD_BYTES) {
+            throw new IOException("Invalid frame length: " + length);
+        }
+        return length;
+    }
+
+    // Request to run a group of tasks, sent as one frame so the round trip is shared by all of them
+    static final class TaskBatch {
+        final List<Task> tasks;
+
+        TaskBatch(List<Task> tasks) {
+            this.tasks = tasks;
+        }
+    }
+
+    // Result of one task in a batch (null if it failed), sent back as soon as that task finishes
+    static final class BatchResult {
+        // Position of the task in its batch
+        final int index;
+        final Task task;
+
+        BatchResult(int index, Task task) {
+            this.index = index;
+            this.task = task;
+        }
+    }
+
+    // A task sent on a multiplexed connection, tagged so its response can be matched up whatever order it arrives in
+    static final class Request {
+        final long correlationId;
+        final Task task;
+
+        Request(long correlationId, Task task) {
+            this.correlationId = correlationId;
+            this.task = task;
+        }
+    }
+
+    // Response to a Request (with a null task if it failed), carrying the same correlation ID
+    static final class Response {
+        final long correlationId;
+        final Task task;
+
+        Response(long correlationId, Task task) {
+            this.correlationId = correlationId;
+            this.task = task;
+        }
+    }
+}
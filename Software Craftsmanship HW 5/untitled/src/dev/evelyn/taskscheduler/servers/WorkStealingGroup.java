@@ -0,0 +1,52 @@
+package dev.evelyn.taskscheduler.servers;
+
+import dev.evelyn.taskscheduler.metrics.AlertSystem;
+import dev.evelyn.taskscheduler.tasks.Task;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Servers executing at the same time that can take queued tasks from each other
+// When a server runs out of tasks it steals one that hasn't started from whichever server has the longest queue, so
+// a server whose tasks took longer than estimated doesn't hold up the rest of the run while the others sit idle.
+public final class WorkStealingGroup {
+    private final List<Server> servers;
+    private final AtomicLong stolenTaskCount = new AtomicLong();
+
+    public WorkStealingGroup(Collection<Server> servers) {
+        this.servers = new ArrayList<>(servers);
+    }
+
+    // Steal a task for a server that has run out of work, or return null if no other server has any left
+    Task steal(Server thief) {
+        while (true) {
+            Server busiestServer = null;
+            int longestQueue = 0;
+            for (Server server : servers) {
+                int queueLength = server.getQueueLength();
+                if (server != thief && queueLength > longestQueue) {
+                    busiestServer = server;
+                    longestQueue = queueLength;
+                }
+            }
+            if (busiestServer == null) {
+                return null;
+            }
+            Task task = busiestServer.stealTask();
+            if (task != null) {
+                stolenTaskCount.incrementAndGet();
+                Server victim = busiestServer;
+                AlertSystem.sendAlertInfo(() -> "Server " + thief + " stole task " + task.getId() + " from server " + victim);
+                return task;
+            }
+            // The busiest server's queue emptied before the steal, so look again
+        }
+    }
+
+    // Get the number of tasks stolen between the servers in this group
+    public long getStolenTaskCount() {
+        return stolenTaskCount.get();
+    }
+}
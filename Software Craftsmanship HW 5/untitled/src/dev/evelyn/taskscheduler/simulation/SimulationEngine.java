@@ -0,0 +1,242 @@
+package dev.evelyn.taskscheduler.simulation;
+
+import dev.evelyn.taskscheduler.RetryPolicy;
+import dev.evelyn.taskscheduler.TaskScheduler;
+import dev.evelyn.taskscheduler.exceptions.SchedulerException;
+import dev.evelyn.taskscheduler.exceptions.SchedulerFullException;
+import dev.evelyn.taskscheduler.exceptions.TaskException;
+import dev.evelyn.taskscheduler.metrics.PerformanceMonitor;
+import dev.evelyn.taskscheduler.servers.Server;
+import dev.evelyn.taskscheduler.servers.SimulatedServer;
+import dev.evelyn.taskscheduler.tasks.Task;
+
+import java.util.*;
+
+// Discrete-event simulation of a TaskScheduler, which runs on a virtual clock instead of sleeping
+// Tasks are still placed by the scheduler, retried with its RetryPolicy, and measured with a PerformanceMonitor,
+// but their durations and network latencies only move the virtual clock forward
+public final class SimulationEngine {
+    private final TaskScheduler scheduler;
+    private final RetryPolicy retryPolicy;
+    private final VirtualClock clock = new VirtualClock();
+    // Events ordered by time, and by the order they were scheduled for events at the same time
+    private final PriorityQueue<Event> events = new PriorityQueue<>();
+    private final List<SimulatedServer> servers = new ArrayList<>();
+    // Servers with at least one free slot, which are the only ones that can start a task
+    private final Set<SimulatedServer> serversWithFreeSlots = new LinkedHashSet<>();
+    // Map of servers to the number of tasks they are running
+    private final Map<SimulatedServer, Integer> runningTasks = new HashMap<>();
+    // Map of servers to the total time their slots were busy
+    private final Map<SimulatedServer, Long> busyTime = new HashMap<>();
+    // Map of task IDs to the number of times the task has failed, used to count retry attempts
+    private final Map<String, Integer> failedAttempts = new HashMap<>();
+    // Draws the retry jitter, seeded so the same simulation always produces the same report
+    private final Random random;
+    private long nextSequence = 0;
+    private long submittedTasks = 0;
+    private long completedTasks = 0;
+    private long failedTasks = 0;
+    private long rejectedTasks = 0;
+
+    public SimulationEngine(TaskScheduler scheduler, long seed) {
+        this.scheduler = scheduler;
+        this.retryPolicy = scheduler.getRetryPolicy();
+        this.random = new Random(seed);
+    }
+
+    public SimulationEngine(TaskScheduler scheduler) {
+        this(scheduler, 0);
+    }
+
+    // Add a server to both the simulation and the scheduler
+    public void addServer(SimulatedServer server) throws SchedulerException {
+        scheduler.addServer(server);
+        server.setTimeSource(clock);
+        servers.add(server);
+        serversWithFreeSlots.add(server);
+        runningTasks.put(server, 0);
+        busyTime.put(server, 0L);
+    }
+
+    // Submit a task that arrives at the scheduler at a virtual time (in ms)
+    public void submit(Task task, long arrivalTime) {
+        submittedTasks++;
+        schedule(arrivalTime, () -> arrive(task));
+    }
+
+    // Submit a group of dependent tasks that arrives at a virtual time (in ms), as with TaskScheduler.scheduleGraph
+    public void submitGraph(Collection<Task> tasks, long arrivalTime) {
+        submittedTasks += tasks.size();
+        schedule(arrivalTime, () -> arriveGraph(tasks));
+    }
+
+    // Get the virtual clock, for example to build circuit breakers for simulated remote servers
+    public VirtualClock getClock() {
+        return clock;
+    }
+
+    // Run every event until the simulation is finished, then report the results
+    public SimulationReport run() {
+        while (!events.isEmpty()) {
+            Event event = events.poll();
+            clock.advanceTo(event.time);
+            event.action.run();
+        }
+        return buildReport();
+    }
+
+    private void schedule(long time, Runnable action) {
+        events.add(new Event(time, nextSequence++, action));
+    }
+
+    // A task arrives: place it with the scheduler, then start tasks on any server with a free slot
+    private void arrive(Task task) {
+        try {
+            scheduler.scheduleTask(task);
+        } catch (SchedulerException | SchedulerFullException e) {
+            rejectedTasks++;
+            return;
+        }
+        startTasksOnFreeServers();
+    }
+
+    // A group of dependent tasks arrives: the scheduler holds each one until its dependencies complete
+    private void arriveGraph(Collection<Task> tasks) {
+        try {
+            scheduler.scheduleGraph(tasks);
+        } catch (SchedulerException | SchedulerFullException e) {
+            rejectedTasks += tasks.size();
+            return;
+        }
+        startTasksOnFreeServers();
+    }
+
+    private void startTasksOnFreeServers() {
+        for (SimulatedServer server : new ArrayList<>(serversWithFreeSlots)) {
+            startTasks(server);
+        }
+    }
+
+    // Start queued tasks on a server until its slots are full or its queue is empty
+    private void startTasks(SimulatedServer server) {
+        while (runningTasks.get(server) < server.getMaxConcurrentTasks()) {
+            Task task = scheduler.startNextTask(server);
+            if (task == null) {
+                return;
+            }
+            startTask(server, task);
+        }
+        serversWithFreeSlots.remove(server);
+    }
+
+    // Work out how long a task occupies the server and schedule the moment it finishes
+    private void startTask(SimulatedServer server, Task task) {
+        runningTasks.merge(server, 1, Integer::sum);
+        long now = clock.currentTimeMillis();
+        if (!server.canSendRequest()) {
+            // Like a RemoteServer, wait out the open circuit breaker and then fail the task
+            long waitTime = server.getCircuitBreaker().getTimeout();
+            schedule(now + waitTime, () -> finishTask(server, task, waitTime, false));
+            return;
+        }
+        long duration = server.getExpectedDuration(task);
+        if (duration > task.getTimeout()) {
+            // The task is cancelled once its timeout passes, without ever executing
+            long occupiedTime = server.getLatencyMs() + task.getTimeout();
+            schedule(now + occupiedTime, () -> finishTask(server, task, occupiedTime, false));
+        } else {
+            long occupiedTime = server.getLatencyMs() + duration;
+            schedule(now + occupiedTime, () -> finishTask(server, task, occupiedTime, true));
+        }
+    }
+
+    // A task leaves its server: record the outcome, retry it if it failed, and start the next queued task
+    private void finishTask(SimulatedServer server, Task task, long occupiedTime, boolean runTask) {
+        runningTasks.merge(server, -1, Integer::sum);
+        busyTime.merge(server, occupiedTime, Long::sum);
+        boolean successful = runTask && executeTask(task);
+        server.recordExecution(task, occupiedTime, successful);
+        try {
+            scheduler.finishTask(server, task);
+        } catch (SchedulerFullException e) { // Servers are never removed during a simulation
+            throw new IllegalStateException(e);
+        }
+        if (successful) {
+            completedTasks++;
+            failedAttempts.remove(task.getId());
+            server.reportSuccess();
+        } else {
+            server.reportFailure();
+            scheduleRetry(task);
+        }
+        serversWithFreeSlots.add(server);
+        // Completing a task may have released dependent tasks onto any server
+        startTasksOnFreeServers();
+    }
+
+    // As in TaskScheduler, a failed task goes back through the scheduler's placement once its retry delay has passed
+    // Once it is out of retries, the tasks held back waiting for it will never run, so they fail along with it
+    private void scheduleRetry(Task task) {
+        int attempt = failedAttempts.merge(task.getId(), 1, Integer::sum);
+        if (!retryPolicy.shouldRetry(attempt)) {
+            failedAttempts.remove(task.getId());
+            failedTasks += 1 + scheduler.abandonTask(task).size();
+            return;
+        }
+        schedule(clock.currentTimeMillis() + retryPolicy.getJitteredDelay(attempt, random), () -> requeueTask(task));
+    }
+
+    private void requeueTask(Task task) {
+        try {
+            scheduler.requeueTask(task);
+        } catch (SchedulerException | SchedulerFullException e) { // Servers are never removed during a simulation
+            throw new IllegalStateException(e);
+        }
+        startTasksOnFreeServers();
+    }
+
+    // Run the task's own logic (which may fail, as a FailingTask does) without sleeping
+    private boolean executeTask(Task task) {
+        try {
+            task.execute();
+            return task.isCompleted();
+        } catch (TaskException e) {
+            return false;
+        }
+    }
+
+    private SimulationReport buildReport() {
+        long makespan = clock.currentTimeMillis();
+        Map<Server, Double> utilization = new LinkedHashMap<>();
+        long totalBusyTime = 0;
+        long totalCapacity = 0;
+        for (SimulatedServer server : servers) {
+            long capacity = makespan * server.getMaxConcurrentTasks();
+            utilization.put(server, capacity > 0 ? (double) busyTime.get(server) / capacity : 0.0);
+            totalBusyTime += busyTime.get(server);
+            totalCapacity += capacity;
+        }
+        double overallUtilization = totalCapacity > 0 ? (double) totalBusyTime / totalCapacity : 0.0;
+        PerformanceMonitor performanceMonitor = new PerformanceMonitor(new ArrayList<>(servers));
+        return new SimulationReport(makespan, submittedTasks, completedTasks, failedTasks, rejectedTasks,
+                overallUtilization, utilization, performanceMonitor);
+    }
+
+    private static final class Event implements Comparable<Event> {
+        private final long time;
+        private final long sequence;
+        private final Runnable action;
+
+        private Event(long time, long sequence, Runnable action) {
+            this.time = time;
+            this.sequence = sequence;
+            this.action = action;
+        }
+
+        @Override
+        public int compareTo(Event other) {
+            int byTime = Long.compare(time, other.time);
+            return byTime != 0 ? byTime : Long.compare(sequence, other.sequence);
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package dev.evelyn.taskscheduler.simulation;
+
+import dev.evelyn.taskscheduler.metrics.PerformanceMonitor;
+import dev.evelyn.taskscheduler.servers.Server;
+
+import java.util.Collections;
+import java.util.Map;
+
+// Results of a simulation run, including the same metrics the PerformanceMonitor reports for real runs
+public final class SimulationReport {
+    private final long makespan;
+    private final long submittedTasks;
+    private final long completedTasks;
+    private final long failedTasks;
+    private final long rejectedTasks;
+    private final double overallUtilization;
+    private final Map<Server, Double> serverUtilization;
+    private final double successRate;
+    private final double failureRate;
+    private final double averageExecutionTime;
+    private final double taskDistributionBalance;
+
+    SimulationReport(long makespan, long submittedTasks, long completedTasks, long failedTasks, long rejectedTasks,
+                     double overallUtilization, Map<Server, Double> serverUtilization, PerformanceMonitor performanceMonitor) {
+        this.makespan = makespan;
+        this.submittedTasks = submittedTasks;
+        this.completedTasks = completedTasks;
+        this.failedTasks = failedTasks;
+        this.rejectedTasks = rejectedTasks;
+        this.overallUtilization = overallUtilization;
+        this.serverUtilization = Collections.unmodifiableMap(serverUtilization);
+        this.successRate = performanceMonitor.getSuccessRate();
+        this.failureRate = performanceMonitor.getFailureRate();
+        this.averageExecutionTime = performanceMonitor.getAverageExecutionTime();
+        this.taskDistributionBalance = performanceMonitor.getTaskDistributionBalance();
+    }
+
+    // Virtual time (in ms) from the start of the simulation until the last event
+    public long getMakespan() {
+        return makespan;
+    }
+
+    public long getSubmittedTasks() {
+        return submittedTasks;
+    }
+
+    // Tasks that completed, either on their first run or after retries
+    public long getCompletedTasks() {
+        return completedTasks;
+    }
+
+    // Tasks that were still failing after all retries
+    public long getFailedTasks() {
+        return failedTasks;
+    }
+
+    // Tasks the scheduler refused, for example because their dependencies were not met
+    public long getRejectedTasks() {
+        return rejectedTasks;
+    }
+
+    // Fraction (0 to 1) of all server slots that were busy over the makespan
+    public double getOverallUtilization() {
+        return overallUtilization;
+    }
+
+    // Fraction (0 to 1) of each server's slots that were busy over the makespan
+    public Map<Server, Double> getServerUtilization() {
+        return serverUtilization;
+    }
+
+    // PerformanceMonitor metrics for the servers' first runs (retries are not counted, as in real runs)
+    public double getSuccessRate() {
+        return successRate;
+    }
+
+    public double getFailureRate() {
+        return failureRate;
+    }
+
+    public double getAverageExecutionTime() {
+        return averageExecutionTime;
+    }
+
+    public double getTaskDistributionBalance() {
+        return taskDistributionBalance;
+    }
+
+    public String toString() {
+        return "SimulationReport[makespan=" + makespan + "ms, submitted=" + submittedTasks
+                + ", completed=" + completedTasks + ", failed=" + failedTasks + ", rejected=" + rejectedTasks
+                + ", utilization=" + Math.round(overallUtilization * 10000) / 100.0 + "%"
+                + ", successRate=" + successRate + "%, failureRate=" + failureRate + "%"
+                + ", averageExecutionTime=" + averageExecutionTime + "ms]";
+    }
+}
@@ -0,0 +1,18 @@
+package dev.evelyn.taskscheduler.simulation;
+
+import dev.evelyn.taskscheduler.TimeSource;
+
+// Clock for simulations, which only moves when the simulation engine advances it
+public final class VirtualClock implements TimeSource {
+    private long currentTime = 0;
+
+    @Override
+    public synchronized long currentTimeMillis() {
+        return currentTime;
+    }
+
+    // Move the clock forward to a time (the clock never moves backwards)
+    synchronized void advanceTo(long time) {
+        currentTime = Math.max(currentTime, time);
+    }
+}
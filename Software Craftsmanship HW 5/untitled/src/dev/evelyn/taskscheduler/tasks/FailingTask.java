@@ -13,6 +13,13 @@ public class FailingTask extends SimpleTask {
         this.succeedOnAttempt = succeedOnAttempt;
     }
 
+    // Constructor used by TaskCodecRegistry to restore a task part-way through its attempts
+    FailingTask(String id, Duration estimatedDuration, Duration timeout, int succeedOnAttempt, int currentAttempt) {
+        super(id, estimatedDuration, timeout);
+        this.succeedOnAttempt = succeedOnAttempt;
+        this.currentAttempt = currentAttempt;
+    }
+
     @Override
     public void execute() throws TaskException {
         // Only succeed on the specified attempt
@@ -23,5 +30,12 @@ public class FailingTask extends SimpleTask {
         super.execute();
     }
 
+    int getSucceedOnAttempt() {
+        return succeedOnAttempt;
+    }
+
+    int getCurrentAttempt() {
+        return currentAttempt;
+    }
 
 }
@@ -13,6 +13,7 @@ public class SimpleTask implements Task {
     private final Duration estimatedDuration;
     private boolean completed;
     private final Duration timeout;
+    private TaskWorkload workload = TaskWorkload.IO_BOUND; // Simulated tasks sleep, so they are I/O-bound by default
     // Serialization protocol
     @Serial
     private static final long serialVersionUID = 1L;
@@ -21,7 +22,7 @@ public class SimpleTask implements Task {
         this.id = id;
         this.estimatedDuration = estimatedDuration;
         this.completed = false;
-        this.timeout = Duration.ofMillis(estimatedDuration.getDurationMs().longValue() * 2);
+        this.timeout = Duration.ofMillis(estimatedDuration.toMillis() * 2);
     }
 
     public SimpleTask(String id, Duration estimatedDuration, Duration timeout) {
@@ -39,7 +40,7 @@ public class SimpleTask implements Task {
     }
     @Override
     public long getTimeout() {
-        return timeout.getDurationMs().longValue();
+        return timeout.toMillis();
     }
 
     @Override
@@ -65,7 +66,7 @@ public class SimpleTask implements Task {
     @Override
     public void cleanup() {
         // Cleanup task resources
-        AlertSystem.sendAlertInfo("Cleaning up task: " + id);
+        AlertSystem.sendAlertInfo(() -> "Cleaning up task: " + id);
     }
     @Override
     public boolean isCompleted() {
@@ -77,6 +78,21 @@ public class SimpleTask implements Task {
         return estimatedDuration;
     }
 
+    @Override
+    public TaskWorkload getWorkload() {
+        return workload;
+    }
+
+    // Declare whether the task is I/O-bound or CPU-bound
+    public void setWorkload(TaskWorkload workload) {
+        this.workload = workload;
+    }
+
+    // Restore the completed flag of a task read back by TaskCodecRegistry
+    void setCompleted(boolean completed) {
+        this.completed = completed;
+    }
+
     @Override
     // Because we added a getPriority method to the Task interface, we must implement it here
     public TaskPriority getPriority() {
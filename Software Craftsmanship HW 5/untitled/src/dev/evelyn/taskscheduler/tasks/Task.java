@@ -23,5 +23,9 @@ public interface Task extends Serializable {
     long getTimeout();
     // Cleanup method after task fails or is completed
     void cleanup();
+    // Get the kind of work the task does, which decides the threads it runs on (I/O-bound unless a task says otherwise)
+    default TaskWorkload getWorkload() {
+        return TaskWorkload.IO_BOUND;
+    }
 }
 
@@ -0,0 +1,15 @@
+package dev.evelyn.taskscheduler.tasks;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+// Writes one type of task as compact binary fields, and reads it back
+// Register custom task types with TaskCodecRegistry so they don't fall back to Java serialization on the wire
+public interface TaskCodec<T extends Task> {
+    // Write the task's fields (the registry writes the type ID before them)
+    void write(T task, DataOutput out) throws IOException;
+
+    // Read a task written by write
+    T read(DataInput in) throws IOException;
+}
@@ -0,0 +1,214 @@
+package dev.evelyn.taskscheduler.tasks;
+
+import dev.evelyn.taskscheduler.Duration;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Registry of binary codecs for task types, each identified on the wire by a small type ID
+// The built-in task types use IDs below FIRST_CUSTOM_TYPE_ID; custom task types can register any ID from there on.
+// Tasks are matched by their exact class, so a subclass without its own codec isn't written as its parent.
+public final class TaskCodecRegistry {
+    public static final int FIRST_CUSTOM_TYPE_ID = 16;
+    private static final TaskCodecRegistry DEFAULT = createDefault();
+
+    private final Map<Class<?>, Registration<?>> registrationsByClass = new ConcurrentHashMap<>();
+    private final Map<Integer, Registration<?>> registrationsById = new ConcurrentHashMap<>();
+
+    // Get the registry used for remote task traffic
+    public static TaskCodecRegistry getDefault() {
+        return DEFAULT;
+    }
+
+    // Register a codec for a custom task type
+    public <T extends Task> void register(int typeId, Class<T> taskClass, TaskCodec<T> codec) {
+        if (typeId < FIRST_CUSTOM_TYPE_ID || typeId > Short.MAX_VALUE) {
+            throw new IllegalArgumentException("Custom task type IDs must be between " + FIRST_CUSTOM_TYPE_ID + " and " + Short.MAX_VALUE);
+        }
+        add(typeId, taskClass, codec);
+    }
+
+    // Check whether a task can be written with a registered codec
+    public boolean canWrite(Task task) {
+        if (task == null || !registrationsByClass.containsKey(task.getClass())) {
+            return false;
+        }
+        // Durations too long for a long are rare enough to leave to Java serialization
+        return task.getEstimatedDuration().fitsInLong();
+    }
+
+    // Write a task's type ID followed by its fields
+    public void write(Task task, DataOutput out) throws IOException {
+        Registration<?> registration = registrationsByClass.get(task.getClass());
+        if (registration == null) {
+            throw new IOException("No codec registered for " + task.getClass().getName());
+        }
+        out.writeShort(registration.typeId);
+        registration.write(task, out);
+    }
+
+    // Read a task written by write
+    public Task read(DataInput in) throws IOException {
+        int typeId = in.readShort();
+        Registration<?> registration = registrationsById.get(typeId);
+        if (registration == null) {
+            throw new IOException("Unknown task type ID: " + typeId);
+        }
+        return registration.codec.read(in);
+    }
+
+    private <T extends Task> void add(int typeId, Class<T> taskClass, TaskCodec<T> codec) {
+        Registration<T> registration = new Registration<>(typeId, taskClass, codec);
+        synchronized (this) {
+            if (registrationsById.containsKey(typeId) || registrationsByClass.containsKey(taskClass)) {
+                throw new IllegalArgumentException("A codec is already registered for type " + typeId + " or " + taskClass.getName());
+            }
+            registrationsById.put(typeId, registration);
+            registrationsByClass.put(taskClass, registration);
+        }
+    }
+
+    private static TaskCodecRegistry createDefault() {
+        TaskCodecRegistry registry = new TaskCodecRegistry();
+        registry.add(1, SimpleTask.class, new TaskCodec<>() {
+            @Override
+            public void write(SimpleTask task, DataOutput out) throws IOException {
+                writeCommonFields(task, out);
+            }
+
+            @Override
+            public SimpleTask read(DataInput in) throws IOException {
+                CommonFields fields = readCommonFields(in);
+                return fields.restore(new SimpleTask(fields.id, fields.estimatedDuration, fields.timeout));
+            }
+        });
+        registry.add(2, PriorityTask.class, new TaskCodec<>() {
+            @Override
+            public void write(PriorityTask task, DataOutput out) throws IOException {
+                writeCommonFields(task, out);
+                out.writeByte(task.getPriority().ordinal());
+            }
+
+            @Override
+            public PriorityTask read(DataInput in) throws IOException {
+                CommonFields fields = readCommonFields(in);
+                TaskPriority priority = readEnum(TaskPriority.values(), in);
+                return fields.restore(new PriorityTask(fields.id, fields.estimatedDuration, fields.timeout, priority));
+            }
+        });
+        registry.add(3, DependentTask.class, new TaskCodec<>() {
+            @Override
+            public void write(DependentTask task, DataOutput out) throws IOException {
+                writeCommonFields(task, out);
+                out.writeByte(task.getPriority().ordinal());
+                out.writeInt(task.getDependencies().size());
+                for (String dependency : task.getDependencies()) {
+                    out.writeUTF(dependency);
+                }
+            }
+
+            @Override
+            public DependentTask read(DataInput in) throws IOException {
+                CommonFields fields = readCommonFields(in);
+                TaskPriority priority = readEnum(TaskPriority.values(), in);
+                int dependencyCount = in.readInt();
+                if (dependencyCount < 0) {
+                    throw new IOException("Invalid dependency count: " + dependencyCount);
+                }
+                Set<String> dependencies = new LinkedHashSet<>();
+                for (int i = 0; i < dependencyCount; i++) {
+                    dependencies.add(in.readUTF());
+                }
+                return fields.restore(new DependentTask(fields.id, priority, fields.estimatedDuration, fields.timeout, dependencies));
+            }
+        });
+        registry.add(4, FailingTask.class, new TaskCodec<>() {
+            @Override
+            public void write(FailingTask task, DataOutput out) throws IOException {
+                writeCommonFields(task, out);
+                out.writeInt(task.getSucceedOnAttempt());
+                out.writeInt(task.getCurrentAttempt());
+            }
+
+            @Override
+            public FailingTask read(DataInput in) throws IOException {
+                CommonFields fields = readCommonFields(in);
+                int succeedOnAttempt = in.readInt();
+                int currentAttempt = in.readInt();
+                return fields.restore(new FailingTask(fields.id, fields.estimatedDuration, fields.timeout, succeedOnAttempt, currentAttempt));
+            }
+        });
+        return registry;
+    }
+
+    // Write the fields every SimpleTask has
+    private static void writeCommonFields(SimpleTask task, DataOutput out) throws IOException {
+        out.writeUTF(task.getId());
+        out.writeLong(task.getEstimatedDuration().toMillis());
+        out.writeLong(task.getTimeout());
+        out.writeBoolean(task.isCompleted());
+        out.writeByte(task.getWorkload().ordinal());
+    }
+
+    private static CommonFields readCommonFields(DataInput in) throws IOException {
+        String id = in.readUTF();
+        Duration estimatedDuration = Duration.ofMillis(in.readLong());
+        Duration timeout = Duration.ofMillis(in.readLong());
+        boolean completed = in.readBoolean();
+        TaskWorkload workload = readEnum(TaskWorkload.values(), in);
+        return new CommonFields(id, estimatedDuration, timeout, completed, workload);
+    }
+
+    private static <E extends Enum<E>> E readEnum(E[] values, DataInput in) throws IOException {
+        int ordinal = in.readUnsignedByte();
+        if (ordinal >= values.length) {
+            throw new IOException("Invalid " + values[0].getDeclaringClass().getSimpleName() + ": " + ordinal);
+        }
+        return values[ordinal];
+    }
+
+    // Fields shared by every SimpleTask, read before the fields of the specific task type
+    private static final class CommonFields {
+        private final String id;
+        private final Duration estimatedDuration;
+        private final Duration timeout;
+        private final boolean completed;
+        private final TaskWorkload workload;
+
+        private CommonFields(String id, Duration estimatedDuration, Duration timeout, boolean completed, TaskWorkload workload) {
+            this.id = id;
+            this.estimatedDuration = estimatedDuration;
+            this.timeout = timeout;
+            this.completed = completed;
+            this.workload = workload;
+        }
+
+        // Copy the state that the constructors don't take onto a newly created task
+        private <T extends SimpleTask> T restore(T task) {
+            task.setCompleted(completed);
+            task.setWorkload(workload);
+            return task;
+        }
+    }
+
+    private static final class Registration<T extends Task> {
+        private final int typeId;
+        private final Class<T> taskClass;
+        private final TaskCodec<T> codec;
+
+        private Registration(int typeId, Class<T> taskClass, TaskCodec<T> codec) {
+            this.typeId = typeId;
+            this.taskClass = taskClass;
+            this.codec = codec;
+        }
+
+        private void write(Task task, DataOutput out) throws IOException {
+            codec.write(taskClass.cast(task), out);
+        }
+    }
+}
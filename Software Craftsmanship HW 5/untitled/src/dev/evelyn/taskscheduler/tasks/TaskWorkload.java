@@ -0,0 +1,8 @@
+package dev.evelyn.taskscheduler.tasks;
+
+public enum TaskWorkload {
+    // Tasks that spend most of their time waiting (sleeping, network, disk), which suit virtual threads
+    IO_BOUND,
+    // Tasks that keep a core busy, which should run on a bounded pool of platform threads
+    CPU_BOUND
+}
@@ -0,0 +1,188 @@
+package dev.evelyn.taskscheduler.tests;
+
+import dev.evelyn.taskscheduler.metrics.AlertSystem;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Tests all functionality of the AlertSystem class
+public class AlertSystemTest {
+    private final Logger logger = Logger.getLogger(AlertSystem.class.getName());
+    private final List<LogRecord> records = new CopyOnWriteArrayList<>();
+    // Released to let the handler go on writing, so tests can hold up the appender thread
+    private volatile CountDownLatch writing = new CountDownLatch(0);
+    private final Handler handler = new Handler() {
+        @Override
+        public void publish(LogRecord record) {
+            try {
+                writing.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            records.add(record);
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    };
+
+    @BeforeEach
+    public void setUp() {
+        AlertSystem.flush(5000);
+        logger.addHandler(handler);
+        logger.setUseParentHandlers(false);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        writing.countDown();
+        AlertSystem.flush(5000);
+        logger.removeHandler(handler);
+        logger.setUseParentHandlers(true);
+        AlertSystem.setLevel(AlertSystem.LOGGING_LEVEL.ALL_ALERTS);
+        AlertSystem.setDropPolicy(AlertSystem.DropPolicy.DROP_NEW_EXCEPT_ERRORS);
+        AlertSystem.setAsynchronous(true);
+    }
+
+    @Test
+    void lazyMessagesAreOnlyBuiltWhenLogged() {
+        AtomicBoolean built = new AtomicBoolean();
+        AlertSystem.setLevel(AlertSystem.LOGGING_LEVEL.ALL_ALERTS);
+        AlertSystem.sendAlertInfo(() -> {
+            built.set(true);
+            return "Not logged";
+        });
+        assertTrue(AlertSystem.flush(5000));
+        assertFalse(built.get());
+        assertTrue(records.isEmpty());
+        // Once the level is raised at runtime the same call is logged
+        AlertSystem.setLevel(AlertSystem.LOGGING_LEVEL.VERBOSE);
+        AlertSystem.sendAlertInfo(() -> {
+            built.set(true);
+            return "Logged";
+        });
+        assertTrue(AlertSystem.flush(5000));
+        assertTrue(built.get());
+        assertEquals(1, records.size());
+        assertEquals(Level.INFO, records.get(0).getLevel());
+        assertEquals("Logged", records.get(0).getMessage());
+    }
+
+    @Test
+    void levelsFilterAlerts() {
+        AlertSystem.setLevel(AlertSystem.LOGGING_LEVEL.ERRORS);
+        assertFalse(AlertSystem.isWarningEnabled());
+        AlertSystem.sendAlertWarning("Warning");
+        AlertSystem.sendAlertError("Error");
+        AlertSystem.setLevel(AlertSystem.LOGGING_LEVEL.NONE);
+        AlertSystem.sendAlertError(() -> "Silenced error");
+        assertTrue(AlertSystem.flush(5000));
+        assertEquals(1, records.size());
+        assertEquals("Error", records.get(0).getMessage());
+        assertThrows(IllegalArgumentException.class, () -> AlertSystem.setLevel(null));
+    }
+
+    @Test
+    void alertsKeepTheirOrder() {
+        for (int i = 0; i < 1000; i++) {
+            AlertSystem.sendAlertWarning(String.valueOf(i));
+        }
+        assertTrue(AlertSystem.flush(5000));
+        assertEquals(1000, records.size());
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(String.valueOf(i), records.get(i).getMessage());
+        }
+    }
+
+    @Test
+    void flushWaitsForTheAlertBeingWritten() {
+        writing = new CountDownLatch(1);
+        AlertSystem.sendAlertWarning("Held");
+        // The appender thread has taken the alert off the buffer, but the logger hasn't finished writing it
+        assertFalse(AlertSystem.flush(200));
+        assertTrue(records.isEmpty());
+        writing.countDown();
+        assertTrue(AlertSystem.flush(5000));
+        assertEquals(1, records.size());
+    }
+
+    @Test
+    void fullBufferDropsWarningsButNotErrors() throws InterruptedException {
+        writing = new CountDownLatch(1);
+        long droppedBefore = AlertSystem.getDroppedCount();
+        // The appender thread is stuck on the first warning, so the rest fill the buffer and then get dropped
+        for (int i = 0; i < 10_000; i++) {
+            AlertSystem.sendAlertWarning("Warning " + i);
+        }
+        long dropped = AlertSystem.getDroppedCount() - droppedBefore;
+        assertTrue(dropped > 0);
+        // An error waits for room instead of being dropped
+        Thread errorSender = new Thread(() -> AlertSystem.sendAlertError("Error"));
+        errorSender.start();
+        errorSender.join(200);
+        assertTrue(errorSender.isAlive());
+        writing.countDown();
+        errorSender.join(TimeUnit.SECONDS.toMillis(5));
+        assertTrue(AlertSystem.flush(5000));
+        assertEquals(10_000 - dropped + 1, records.size());
+        assertEquals("Error", records.get(records.size() - 1).getMessage());
+    }
+
+    @Test
+    void dropNewDropsErrorsToo() {
+        AlertSystem.setDropPolicy(AlertSystem.DropPolicy.DROP_NEW);
+        writing = new CountDownLatch(1);
+        long droppedBefore = AlertSystem.getDroppedCount();
+        for (int i = 0; i < 10_000; i++) {
+            AlertSystem.sendAlertError("Error " + i);
+        }
+        // Sending never waited, even though the appender thread couldn't write anything
+        assertTrue(AlertSystem.getDroppedCount() - droppedBefore > 0);
+    }
+
+    @Test
+    void recordsKeepTheSenderAndSendTime() throws InterruptedException {
+        writing = new CountDownLatch(1);
+        long sentAfter = System.currentTimeMillis();
+        AlertSystem.sendAlertWarning("Sent now");
+        AlertSystem.sendAlertWarning(() -> "Built later");
+        long sentBefore = System.currentTimeMillis();
+        // The writer is held up, so both alerts are written well after they were sent
+        Thread.sleep(200);
+        writing.countDown();
+        assertTrue(AlertSystem.flush(5000));
+        assertEquals(2, records.size());
+        for (LogRecord record : records) {
+            assertEquals(Thread.currentThread().getId(), record.getLongThreadID());
+            assertTrue(record.getMillis() >= sentAfter && record.getMillis() <= sentBefore);
+            assertEquals(Level.WARNING, record.getLevel());
+        }
+        assertEquals("Sent now", records.get(0).getMessage());
+        assertEquals("Built later", records.get(1).getMessage());
+    }
+
+    @Test
+    void synchronousAlertsAreWrittenStraightAway() {
+        AlertSystem.setAsynchronous(false);
+        AlertSystem.sendAlertWarning(() -> "Written now");
+        assertEquals(1, records.size());
+        assertEquals(Thread.currentThread().getId(), records.get(0).getLongThreadID());
+    }
+}
@@ -0,0 +1,82 @@
+package dev.evelyn.taskscheduler.tests;
+
+import dev.evelyn.taskscheduler.exceptions.ServerException;
+import dev.evelyn.taskscheduler.servers.BufferPool;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Tests all functionality of the BufferPool class
+public class BufferPoolTest {
+
+    @Test
+    void roundsUpToSizeClasses() throws ServerException {
+        BufferPool pool = new BufferPool(4);
+        ByteBuffer small = pool.acquire(10);
+        assertTrue(small.isDirect());
+        assertEquals(BufferPool.MIN_BUFFER_SIZE, small.capacity());
+        assertEquals(10, small.limit());
+        ByteBuffer medium = pool.acquire(1000);
+        assertEquals(1024, medium.capacity());
+        assertEquals(2, pool.getOutstandingCount());
+        pool.release(small);
+        pool.release(medium);
+        assertEquals(0, pool.getOutstandingCount());
+    }
+
+    @Test
+    void reusesReleasedBuffers() throws ServerException {
+        BufferPool pool = new BufferPool(4);
+        ByteBuffer first = pool.acquire(300);
+        first.put((byte) 1);
+        pool.release(first);
+        ByteBuffer second = pool.acquire(500);
+        assertSame(first, second);
+        // Reused buffers come back cleared, with the new limit
+        assertEquals(0, second.position());
+        assertEquals(500, second.limit());
+        pool.release(second);
+    }
+
+    @Test
+    void keepsAtMostMaxBuffersPerClass() throws ServerException {
+        BufferPool pool = new BufferPool(1);
+        ByteBuffer first = pool.acquire(100);
+        ByteBuffer second = pool.acquire(100);
+        pool.release(first);
+        pool.release(second); // The size class is full, so this one isn't kept
+        assertSame(first, pool.acquire(100));
+        assertNotSame(second, pool.acquire(100));
+    }
+
+    @Test
+    void doesNotPoolOversizedBuffers() throws ServerException {
+        BufferPool pool = new BufferPool(4);
+        ByteBuffer buffer = pool.acquire(BufferPool.MAX_POOLED_SIZE + 1);
+        assertEquals(BufferPool.MAX_POOLED_SIZE + 1, buffer.capacity());
+        pool.release(buffer);
+        assertNotSame(buffer, pool.acquire(BufferPool.MAX_POOLED_SIZE + 1));
+    }
+
+    @Test
+    void reportsLeaksWhenTracking() throws ServerException {
+        BufferPool pool = new BufferPool(4);
+        pool.setLeakTracking(true);
+        ByteBuffer leaked = pool.acquire(100);
+        ByteBuffer released = pool.acquire(100);
+        pool.release(released);
+        assertEquals(1, pool.reportLeaks());
+        // Releasing a buffer twice would hand it to two users at once
+        assertThrows(IllegalStateException.class, () -> pool.release(released));
+        pool.release(leaked);
+        assertEquals(0, pool.reportLeaks());
+    }
+
+    @Test
+    void rejectsInvalidSizes() throws ServerException {
+        assertThrows(ServerException.class, () -> new BufferPool(-1));
+        assertThrows(IllegalArgumentException.class, () -> new BufferPool(4).acquire(-1));
+    }
+}
@@ -0,0 +1,173 @@
+package dev.evelyn.taskscheduler.tests;
+
+import dev.evelyn.taskscheduler.CircuitBreaker;
+import dev.evelyn.taskscheduler.exceptions.ServerException;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Tests all functionality of the CircuitBreaker class
+public class CircuitBreakerTest {
+
+    @Test
+    void opensAfterAcceptableFailures() {
+        AtomicLong clock = new AtomicLong(1_000);
+        CircuitBreaker circuitBreaker = new CircuitBreaker(3, 100, clock::get);
+        circuitBreaker.reportFailure();
+        circuitBreaker.reportFailure();
+        assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.getState());
+        assertTrue(circuitBreaker.canSendRequest());
+        circuitBreaker.reportFailure();
+        assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+        assertFalse(circuitBreaker.canSendRequest());
+        assertEquals(1, circuitBreaker.getTransitionCount(CircuitBreaker.State.OPEN));
+    }
+
+    @Test
+    void staysClosedWhileFailureRateIsLow() throws ServerException {
+        AtomicLong clock = new AtomicLong(1_000);
+        CircuitBreaker circuitBreaker = new CircuitBreaker(2, 100, clock::get);
+        circuitBreaker.setFailureRateThreshold(0.5);
+        for (int i = 0; i < 8; i++) {
+            circuitBreaker.reportSuccess();
+        }
+        // 3 failures out of 11 requests is enough failures, but not a high enough rate
+        for (int i = 0; i < 3; i++) {
+            circuitBreaker.reportFailure();
+        }
+        assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.getState());
+        assertEquals(3.0 / 11, circuitBreaker.getFailureRate(), 1e-9);
+        for (int i = 0; i < 5; i++) {
+            circuitBreaker.reportFailure();
+        }
+        // 8 out of 16 reaches the threshold
+        assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+    }
+
+    @Test
+    void oldFailuresLeaveTheWindow() throws ServerException {
+        AtomicLong clock = new AtomicLong(1_000);
+        CircuitBreaker circuitBreaker = new CircuitBreaker(3, 100, clock::get);
+        circuitBreaker.setWindow(1_000, 10);
+        circuitBreaker.reportFailure();
+        circuitBreaker.reportFailure();
+        // Both failures are over a second old by the time the third arrives
+        clock.addAndGet(1_500);
+        circuitBreaker.reportFailure();
+        assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.getState());
+        assertEquals(1.0, circuitBreaker.getFailureRate());
+        clock.addAndGet(50);
+        circuitBreaker.reportFailure();
+        circuitBreaker.reportFailure();
+        assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+    }
+
+    @Test
+    void halfOpenProbesCloseTheBreaker() throws ServerException {
+        AtomicLong clock = new AtomicLong(1_000);
+        CircuitBreaker circuitBreaker = new CircuitBreaker(1, 100, clock::get);
+        circuitBreaker.setHalfOpenProbes(2);
+        circuitBreaker.reportFailure();
+        clock.addAndGet(100);
+        // Only two probes are let through while half-open
+        assertTrue(circuitBreaker.canSendRequest());
+        assertEquals(CircuitBreaker.State.HALF_OPEN, circuitBreaker.getState());
+        assertTrue(circuitBreaker.canSendRequest());
+        assertFalse(circuitBreaker.canSendRequest());
+        circuitBreaker.reportSuccess();
+        assertEquals(CircuitBreaker.State.HALF_OPEN, circuitBreaker.getState());
+        circuitBreaker.reportSuccess();
+        assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.getState());
+        // The failure from before the breaker opened no longer counts
+        assertEquals(0.0, circuitBreaker.getFailureRate());
+        assertEquals(1, circuitBreaker.getTransitionCount(CircuitBreaker.State.HALF_OPEN));
+        assertEquals(1, circuitBreaker.getTransitionCount(CircuitBreaker.State.CLOSED));
+    }
+
+    @Test
+    void openBreakerReportsHalfOpenOnceTimeoutPasses() {
+        AtomicLong clock = new AtomicLong(1_000);
+        CircuitBreaker circuitBreaker = new CircuitBreaker(1, 100, clock::get);
+        circuitBreaker.reportFailure();
+        assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+        // No request has asked since the timeout passed, but the next one would be let through as a probe
+        clock.addAndGet(100);
+        assertEquals(CircuitBreaker.State.HALF_OPEN, circuitBreaker.getState());
+        assertEquals(0, circuitBreaker.getTransitionCount(CircuitBreaker.State.HALF_OPEN));
+        assertTrue(circuitBreaker.canSendRequest());
+        assertEquals(CircuitBreaker.State.HALF_OPEN, circuitBreaker.getState());
+        assertEquals(1, circuitBreaker.getTransitionCount(CircuitBreaker.State.HALF_OPEN));
+    }
+
+    @Test
+    void failedProbeReopensTheBreaker() {
+        AtomicLong clock = new AtomicLong(1_000);
+        CircuitBreaker circuitBreaker = new CircuitBreaker(1, 100, clock::get);
+        circuitBreaker.reportFailure();
+        clock.addAndGet(100);
+        assertTrue(circuitBreaker.canSendRequest());
+        circuitBreaker.reportFailure();
+        assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+        assertFalse(circuitBreaker.canSendRequest());
+        // The timeout starts again from the failed probe
+        clock.addAndGet(100);
+        assertTrue(circuitBreaker.canSendRequest());
+        assertEquals(2, circuitBreaker.getTransitionCount(CircuitBreaker.State.OPEN));
+        assertEquals(2, circuitBreaker.getTransitionCount(CircuitBreaker.State.HALF_OPEN));
+    }
+
+    @Test
+    void lostProbesReopenTheBreaker() {
+        AtomicLong clock = new AtomicLong(1_000);
+        CircuitBreaker circuitBreaker = new CircuitBreaker(1, 100, clock::get);
+        circuitBreaker.reportFailure();
+        clock.addAndGet(100);
+        assertTrue(circuitBreaker.canSendRequest());
+        // The probe never reports back, so the breaker gives up on it after another timeout
+        clock.addAndGet(100);
+        assertFalse(circuitBreaker.canSendRequest());
+        assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+        clock.addAndGet(100);
+        assertTrue(circuitBreaker.canSendRequest());
+    }
+
+    @Test
+    void concurrentProbesAreLimited() throws InterruptedException, ServerException {
+        AtomicLong clock = new AtomicLong(1_000);
+        CircuitBreaker circuitBreaker = new CircuitBreaker(1, 100, clock::get);
+        circuitBreaker.setHalfOpenProbes(3);
+        circuitBreaker.reportFailure();
+        clock.addAndGet(100);
+        AtomicInteger permitted = new AtomicInteger();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            Thread thread = new Thread(() -> {
+                for (int j = 0; j < 100; j++) {
+                    if (circuitBreaker.canSendRequest()) {
+                        permitted.incrementAndGet();
+                    }
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(3, permitted.get());
+        assertEquals(1, circuitBreaker.getTransitionCount(CircuitBreaker.State.HALF_OPEN));
+    }
+
+    @Test
+    void invalidSettings() {
+        CircuitBreaker circuitBreaker = new CircuitBreaker(1, 100);
+        assertThrows(ServerException.class, () -> circuitBreaker.setFailureRateThreshold(1.5));
+        assertThrows(ServerException.class, () -> circuitBreaker.setHalfOpenProbes(0));
+        assertThrows(ServerException.class, () -> circuitBreaker.setWindow(5, 10));
+    }
+}
@@ -0,0 +1,134 @@
+package dev.evelyn.taskscheduler.tests;
+
+import dev.evelyn.taskscheduler.CompletionStore;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Tests all functionality of the CompletionStore class
+
+class CompletionStoreTest {
+
+    @Test
+    void markCompleted() {
+        CompletionStore store = new CompletionStore();
+        assertFalse(store.isCompleted("1"));
+        store.markCompleted("1");
+        store.markCompleted("1");
+        assertTrue(store.isCompleted("1"));
+        assertFalse(store.isCompleted("2"));
+        assertEquals(1, store.size());
+    }
+
+    @Test
+    void areAllCompleted() {
+        CompletionStore store = new CompletionStore();
+        store.markCompleted("1");
+        store.markCompleted("2");
+        assertTrue(store.areAllCompleted(List.of("1", "2")));
+        assertFalse(store.areAllCompleted(List.of("1", "3")));
+    }
+
+    @Test
+    void evictUnreferenced() {
+        CompletionStore store = new CompletionStore(CompletionStore.Retention.EVICT_UNREFERENCED);
+        store.addReferences(List.of("1"));
+        store.markCompleted("1");
+        store.markCompleted("2");
+        // Task 1 is still referenced by a pending task, while task 2 is forgotten straight away
+        assertTrue(store.isCompleted("1"));
+        assertFalse(store.isCompleted("2"));
+        store.releaseReferences(List.of("1"));
+        assertFalse(store.isCompleted("1"));
+        assertEquals(0, store.size());
+        assertEquals(0, store.getInternedCount());
+    }
+
+    @Test
+    void reuseEvictedIds() {
+        CompletionStore store = new CompletionStore(CompletionStore.Retention.EVICT_UNREFERENCED);
+        // Completing many unreferenced tasks should not grow the store
+        for (int i = 0; i < 10000; i++) {
+            store.addReferences(List.of(String.valueOf(i)));
+            store.markCompleted(String.valueOf(i));
+            assertTrue(store.isCompleted(String.valueOf(i)));
+            store.releaseReferences(List.of(String.valueOf(i)));
+        }
+        assertEquals(0, store.size());
+        assertEquals(0, store.getInternedCount());
+    }
+
+    @Test
+    void reusedIdsAreNotReportedCompleted() throws InterruptedException {
+        CompletionStore store = new CompletionStore(CompletionStore.Retention.EVICT_UNREFERENCED);
+        // Task "pending" keeps being interned and evicted, and each time task "other" takes its int and completes
+        AtomicBoolean running = new AtomicBoolean(true);
+        AtomicBoolean wrong = new AtomicBoolean();
+        Thread reader = new Thread(() -> {
+            while (running.get()) {
+                if (store.isCompleted("pending")) {
+                    wrong.set(true);
+                }
+            }
+        });
+        reader.start();
+        for (int i = 0; i < 200_000; i++) {
+            store.addReferences(List.of("pending"));
+            store.releaseReferences(List.of("pending"));
+            store.addReferences(List.of("other"));
+            store.markCompleted("other");
+            store.releaseReferences(List.of("other"));
+        }
+        running.set(false);
+        reader.join();
+        assertFalse(wrong.get());
+    }
+
+    @Test
+    void switchRetention() {
+        CompletionStore store = new CompletionStore();
+        for (int i = 0; i < 5000; i++) {
+            store.markCompleted(String.valueOf(i));
+        }
+        assertEquals(5000, store.size());
+        assertTrue(store.isCompleted("4999"));
+        store.setRetention(CompletionStore.Retention.EVICT_UNREFERENCED);
+        assertEquals(0, store.size());
+        assertFalse(store.isCompleted("4999"));
+    }
+
+    @Test
+    void retainAllDoesNotInternCompletedIds() {
+        CompletionStore store = new CompletionStore();
+        store.addReferences(List.of("1"));
+        store.markCompleted("1");
+        store.markCompleted("2");
+        // Only the ID a pending task depends on is interned, and only until the task releases it
+        assertEquals(1, store.getInternedCount());
+        store.releaseReferences(List.of("1"));
+        assertEquals(0, store.getInternedCount());
+        assertTrue(store.areAllCompleted(List.of("1", "2")));
+        assertEquals(2, store.size());
+    }
+
+    @Test
+    void switchRetentionKeepsReferencedIds() {
+        CompletionStore store = new CompletionStore();
+        store.addReferences(List.of("1"));
+        store.markCompleted("1");
+        store.markCompleted("2");
+        store.setRetention(CompletionStore.Retention.EVICT_UNREFERENCED);
+        // Task 1 is still referenced, so it moves into the bitmap, while task 2 is forgotten
+        assertTrue(store.isCompleted("1"));
+        assertFalse(store.isCompleted("2"));
+        assertEquals(1, store.size());
+        store.setRetention(CompletionStore.Retention.RETAIN_ALL);
+        store.releaseReferences(List.of("1"));
+        assertTrue(store.isCompleted("1"));
+        assertEquals(1, store.size());
+        assertEquals(0, store.getInternedCount());
+    }
+}
@@ -40,4 +40,27 @@ class DurationTest {
         Duration duration2 = Duration.ofMillis(2000);
         assert duration1.compareTo(duration2) > 0;
     }
-}
\ No newline at end of file
+
+    @org.junit.jupiter.api.Test
+    void toMillis() {
+        // Test the primitive accessor and the shared instances for small durations
+        Duration duration1 = Duration.ofMillis(250);
+        assert duration1.toMillis() == 250;
+        assert duration1 == Duration.ofMillis(250);
+        assert Duration.ofMillis(5000).equals(Duration.ofMillis(5000));
+    }
+
+    @org.junit.jupiter.api.Test
+    void overflow() {
+        // Test that durations which don't fit in a long fall back to BigInteger
+        Duration duration1 = Duration.ofMillis(Long.MAX_VALUE);
+        Duration duration2 = duration1.add(Duration.ofMillis(1));
+        assert !duration2.fitsInLong();
+        assert duration2.getDurationMs().equals(BigInteger.valueOf(Long.MAX_VALUE).add(BigInteger.ONE));
+        assert duration2.compareTo(duration1) > 0;
+        // Subtracting brings the duration back into the range of a long
+        Duration duration3 = duration2.subtract(Duration.ofMillis(1));
+        assert duration3.fitsInLong();
+        assert duration3.toMillis() == Long.MAX_VALUE;
+    }
+}
@@ -0,0 +1,173 @@
+package dev.evelyn.taskscheduler.tests;
+
+import dev.evelyn.taskscheduler.Duration;
+import dev.evelyn.taskscheduler.TaskScheduler;
+import dev.evelyn.taskscheduler.exceptions.SchedulerException;
+import dev.evelyn.taskscheduler.exceptions.SchedulerFullException;
+import dev.evelyn.taskscheduler.exceptions.ServerException;
+import dev.evelyn.taskscheduler.metrics.AlertSystem;
+import dev.evelyn.taskscheduler.metrics.LatencyHistogram;
+import dev.evelyn.taskscheduler.metrics.PerformanceMonitor;
+import dev.evelyn.taskscheduler.servers.Server;
+import dev.evelyn.taskscheduler.tasks.SimpleTask;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.logging.Handler;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Tests all functionality of the LatencyHistogram class
+public class LatencyHistogramTest {
+
+    @Test
+    void percentilesAreWithinRelativeError() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 10_000; i++) {
+            histogram.record(i);
+        }
+        assertEquals(10_000, histogram.getCount());
+        assertEquals(5000.5, histogram.getMean());
+        assertEquals(5000, histogram.getPercentile(50), 5000 * 0.01);
+        assertEquals(9500, histogram.getPercentile(95), 9500 * 0.01);
+        assertEquals(9900, histogram.getPercentile(99), 9900 * 0.01);
+        assertEquals(9990, histogram.getPercentile(99.9), 9990 * 0.01);
+        assertEquals(10_000, histogram.getPercentile(100), 10_000 * 0.01);
+    }
+
+    @Test
+    void tailIsNotHiddenByTheMean() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < 990; i++) {
+            histogram.record(10);
+        }
+        for (int i = 0; i < 10; i++) {
+            histogram.record(2000);
+        }
+        // The mean is under 30 ms, but 1% of tasks took 2 s
+        assertTrue(histogram.getMean() < 30);
+        assertEquals(10, histogram.getPercentile(99), 0.1);
+        assertEquals(2000, histogram.getPercentile(99.9), 20);
+    }
+
+    @Test
+    void zeroAndOutOfRangeValues() throws SchedulerException {
+        LatencyHistogram histogram = new LatencyHistogram(0.01, 1000);
+        assertEquals(0.0, histogram.getPercentile(99));
+        histogram.record(0);
+        histogram.record(-5);
+        assertEquals(0.0, histogram.getPercentile(100));
+        // Values above the maximum are counted at the maximum
+        histogram.record(1_000_000);
+        assertEquals(1000, histogram.getPercentile(100), 10);
+        assertEquals(3, histogram.getCount());
+    }
+
+    @Test
+    void mergeCombinesCounts() {
+        LatencyHistogram fast = new LatencyHistogram();
+        LatencyHistogram slow = new LatencyHistogram();
+        for (int i = 0; i < 50; i++) {
+            fast.record(10);
+            slow.record(1000);
+        }
+        LatencyHistogram merged = new LatencyHistogram();
+        merged.merge(fast);
+        merged.merge(slow);
+        assertEquals(100, merged.getCount());
+        assertEquals(10, merged.getPercentile(50), 0.1);
+        assertEquals(1000, merged.getPercentile(51), 10);
+        assertEquals(505.0, merged.getMean());
+        // Histograms with different buckets can't be merged
+        assertThrows(IllegalArgumentException.class, () -> merged.merge(new LatencyHistogram(0.05, 1000)));
+    }
+
+    @Test
+    void concurrentRecordsAreNotLost() throws InterruptedException {
+        LatencyHistogram histogram = new LatencyHistogram();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            int latency = (i + 1) * 10;
+            Thread thread = new Thread(() -> {
+                for (int j = 0; j < 10_000; j++) {
+                    histogram.record(latency);
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(80_000, histogram.getCount());
+        assertEquals(80, histogram.getPercentile(100), 0.8);
+    }
+
+    @Test
+    void invalidSettings() {
+        assertThrows(SchedulerException.class, () -> new LatencyHistogram(0, 1000));
+        assertThrows(SchedulerException.class, () -> new LatencyHistogram(0.01, 0));
+        assertThrows(IllegalArgumentException.class, () -> new LatencyHistogram().getPercentile(101));
+    }
+
+    @Test
+    void monitorMergesServerLatencies() throws ServerException, SchedulerException {
+        Server server1 = new Server();
+        Server server2 = new Server();
+        server1.addTask(new SimpleTask("1", Duration.ofMillis(20)));
+        server2.addTask(new SimpleTask("2", Duration.ofMillis(20)));
+        server2.addTask(new SimpleTask("3", Duration.ofMillis(20)));
+        server1.executeTasks();
+        server2.executeTasks();
+        PerformanceMonitor monitor = new PerformanceMonitor(List.of(server1, server2));
+        LatencyHistogram execution = monitor.getLatencyHistogram(PerformanceMonitor.LatencyStage.EXECUTION);
+        assertEquals(3, execution.getCount());
+        assertTrue(execution.getPercentile(50) >= 19);
+        // Each task waited in its queue for the ones ahead of it
+        LatencyHistogram queueWait = monitor.getLatencyHistogram(PerformanceMonitor.LatencyStage.QUEUE_WAIT);
+        assertEquals(3, queueWait.getCount());
+        assertTrue(queueWait.getPercentile(100) >= 19);
+        assertEquals(0, monitor.getLatencyHistogram(PerformanceMonitor.LatencyStage.NETWORK).getCount());
+        monitor.setLatencyThreshold(PerformanceMonitor.LatencyStage.EXECUTION, 99.9, 5);
+        monitor.checkAlerts();
+        assertThrows(SchedulerException.class,
+                () -> monitor.setLatencyThreshold(PerformanceMonitor.LatencyStage.EXECUTION, 0, 5));
+    }
+
+    @Test
+    void schedulerAlertsOnLatencyThreshold() throws SchedulerException, SchedulerFullException {
+        Logger logger = Logger.getLogger(AlertSystem.class.getName());
+        List<String> messages = new CopyOnWriteArrayList<>();
+        Handler handler = new Handler() {
+            @Override
+            public void publish(LogRecord record) {
+                messages.add(record.getMessage());
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        logger.addHandler(handler);
+        try {
+            TaskScheduler scheduler = new TaskScheduler();
+            scheduler.addServer(new Server());
+            scheduler.scheduleTask(new SimpleTask("1", Duration.ofMillis(20), 1000));
+            // The scheduler checks its monitor after every run, so a threshold set on it is alerted on
+            scheduler.getPerformanceMonitor().setLatencyThreshold(PerformanceMonitor.LatencyStage.EXECUTION, 99, 5);
+            scheduler.executeAll();
+            assertTrue(AlertSystem.flush(5000));
+            assertTrue(messages.stream().anyMatch(message -> message.startsWith("EXECUTION p99 latency is above threshold")));
+        } finally {
+            logger.removeHandler(handler);
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package dev.evelyn.taskscheduler.tests;
+
+import dev.evelyn.taskscheduler.metrics.Counter;
+import dev.evelyn.taskscheduler.metrics.MetricsRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Tests all functionality of the MetricsRegistry class
+public class MetricsRegistryTest {
+
+    @Test
+    void countersAreSharedByName() {
+        MetricsRegistry metrics = new MetricsRegistry();
+        Counter counter = metrics.counter("tasks");
+        counter.increment();
+        metrics.counter("tasks").add(4);
+        assertSame(counter, metrics.counter("tasks"));
+        assertEquals(5, metrics.get("tasks"));
+        assertEquals(0, metrics.get("missing"));
+    }
+
+    @Test
+    void concurrentIncrementsAreNotLost() throws InterruptedException {
+        MetricsRegistry metrics = new MetricsRegistry();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            Thread thread = new Thread(() -> {
+                for (int j = 0; j < 10_000; j++) {
+                    metrics.counter("tasks").increment();
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(80_000, metrics.get("tasks"));
+    }
+
+    @Test
+    void gaugesAreReadWhenAskedFor() {
+        MetricsRegistry metrics = new MetricsRegistry();
+        AtomicLong queueLength = new AtomicLong(3);
+        metrics.gauge("queue_length", queueLength::get);
+        metrics.counter("tasks").add(2);
+        assertEquals(3, metrics.get("queue_length"));
+        queueLength.set(7);
+        assertEquals(Map.of("queue_length", 7L, "tasks", 2L), metrics.snapshot());
+    }
+}
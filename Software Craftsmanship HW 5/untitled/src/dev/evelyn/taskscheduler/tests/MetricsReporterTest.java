@@ -0,0 +1,179 @@
+package dev.evelyn.taskscheduler.tests;
+
+import dev.evelyn.taskscheduler.Duration;
+import dev.evelyn.taskscheduler.TaskScheduler;
+import dev.evelyn.taskscheduler.exceptions.SchedulerException;
+import dev.evelyn.taskscheduler.exceptions.SchedulerFullException;
+import dev.evelyn.taskscheduler.metrics.MetricsReporter;
+import dev.evelyn.taskscheduler.metrics.MetricsSnapshot;
+import dev.evelyn.taskscheduler.servers.Server;
+import dev.evelyn.taskscheduler.tasks.SimpleTask;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Tests all functionality of the MetricsReporter class
+public class MetricsReporterTest {
+
+    // A scheduler with two servers that have run three tasks between them
+    private static TaskScheduler schedulerWithHistory() throws SchedulerException, SchedulerFullException {
+        TaskScheduler scheduler = new TaskScheduler();
+        scheduler.addServer(new Server());
+        scheduler.addServer(new Server());
+        for (int i = 0; i < 3; i++) {
+            scheduler.scheduleTask(new SimpleTask(String.valueOf(i), Duration.ofMillis(20)));
+        }
+        scheduler.executeAll();
+        return scheduler;
+    }
+
+    @Test
+    void snapshotsSchedulerAndServerMetrics() throws SchedulerException, SchedulerFullException {
+        MetricsReporter reporter = new MetricsReporter(schedulerWithHistory(), 1000, 4);
+        MetricsSnapshot snapshot = reporter.report();
+        assertEquals(2, snapshot.getValue("taskscheduler_servers"));
+        assertEquals(0, snapshot.getValue("taskscheduler_tasks_pending"));
+        assertEquals(3, snapshot.getValue("taskscheduler_latency_ms_count{stage=\"execution\"}"));
+        assertTrue(snapshot.getValue("taskscheduler_latency_ms{stage=\"execution\",quantile=\"0.99\"}") >= 19);
+        assertTrue(Double.isNaN(snapshot.getValue("taskscheduler_missing")));
+        String text = snapshot.toPrometheusText();
+        assertTrue(text.contains("# TYPE taskscheduler_servers gauge\ntaskscheduler_servers 2\n"));
+        assertTrue(text.contains("# TYPE taskscheduler_server_tasks_executed_total counter\n"));
+        assertTrue(text.contains("# TYPE taskscheduler_latency_ms summary\n"));
+        // Each family is only declared once, however many servers report it
+        assertEquals(text.indexOf("# TYPE taskscheduler_server_tasks_executed_total"),
+                text.lastIndexOf("# TYPE taskscheduler_server_tasks_executed_total"));
+    }
+
+    @Test
+    void ringBufferKeepsNewestSnapshots() throws SchedulerException {
+        TaskScheduler scheduler = new TaskScheduler();
+        MetricsReporter reporter = new MetricsReporter(scheduler, 1000, 3);
+        assertNull(reporter.getLatestSnapshot());
+        for (int i = 0; i < 5; i++) {
+            scheduler.addServer(new Server());
+            reporter.report();
+        }
+        List<MetricsSnapshot> snapshots = reporter.getSnapshots();
+        assertEquals(3, snapshots.size());
+        // Oldest first, so the snapshots saw 3, 4 and 5 servers
+        assertEquals(3, snapshots.get(0).getValue("taskscheduler_servers"));
+        assertEquals(5, snapshots.get(2).getValue("taskscheduler_servers"));
+        assertSame(snapshots.get(2), reporter.getLatestSnapshot());
+    }
+
+    @Test
+    void reportsInBackground() throws InterruptedException, SchedulerException {
+        MetricsReporter reporter = new MetricsReporter(new TaskScheduler(), 10, 8);
+        reporter.start();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (reporter.getSnapshots().size() < 3 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        reporter.stop();
+        assertTrue(reporter.getSnapshots().size() >= 3);
+    }
+
+    @Test
+    void snapshotDoesNotWaitForSchedulerLock() throws Exception {
+        TaskScheduler scheduler = schedulerWithHistory();
+        MetricsReporter reporter = new MetricsReporter(scheduler, 1000, 4);
+        CountDownLatch locked = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Thread holder = new Thread(() -> {
+            synchronized (scheduler) {
+                locked.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        holder.start();
+        assertTrue(locked.await(5, TimeUnit.SECONDS));
+        try {
+            MetricsSnapshot snapshot = CompletableFuture.supplyAsync(reporter::report).get(5, TimeUnit.SECONDS);
+            assertEquals(2, snapshot.getValue("taskscheduler_servers"));
+        } finally {
+            release.countDown();
+            holder.join();
+        }
+    }
+
+    @Test
+    void servesPrometheusText() throws Exception {
+        MetricsReporter reporter = new MetricsReporter(schedulerWithHistory(), 1000, 4);
+        reporter.report();
+        reporter.startHttpEndpoint(0);
+        try {
+            HttpURLConnection connection = (HttpURLConnection)
+                    new URL("http://localhost:" + reporter.getHttpPort() + "/metrics").openConnection();
+            assertEquals(200, connection.getResponseCode());
+            assertTrue(connection.getContentType().startsWith("text/plain"));
+            String body;
+            try (InputStream in = connection.getInputStream()) {
+                body = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+            }
+            assertEquals(reporter.getLatestSnapshot().toPrometheusText(), body);
+            assertTrue(body.contains("taskscheduler_servers 2\n"));
+        } finally {
+            reporter.stop();
+        }
+        assertEquals(-1, reporter.getHttpPort());
+    }
+
+    @Test
+    void rollsFilesOver(@TempDir Path directory) throws IOException, SchedulerException {
+        MetricsReporter reporter = new MetricsReporter(new TaskScheduler(), 1000, 4);
+        Path file = directory.resolve("metrics.prom");
+        reporter.setRollingFile(file, 100, 2);
+        for (int i = 0; i < 5; i++) {
+            reporter.report();
+        }
+        // Every snapshot is over 100 bytes, so each write after the first rolls the file over
+        assertTrue(Files.exists(file));
+        assertTrue(Files.exists(directory.resolve("metrics.prom.1")));
+        assertFalse(Files.exists(directory.resolve("metrics.prom.2")));
+        String contents = Files.readString(file);
+        assertTrue(contents.startsWith("# Snapshot at " + reporter.getLatestSnapshot().getTimestamp()));
+        assertTrue(contents.contains("taskscheduler_servers 0 " + reporter.getLatestSnapshot().getTimestamp()));
+    }
+
+    @Test
+    void invalidSettings() throws SchedulerException {
+        assertThrows(SchedulerException.class, () -> new MetricsReporter(new TaskScheduler(), 0, 4));
+        MetricsReporter reporter = new MetricsReporter(new TaskScheduler(), 1000, 4);
+        assertThrows(SchedulerException.class, () -> reporter.setRollingFile(Path.of("metrics.prom"), 0, 2));
+    }
+
+    @Test
+    void serversAreLabelledByName() throws SchedulerException {
+        TaskScheduler scheduler = new TaskScheduler();
+        Server named = new Server("alpha");
+        Server unnamed = new Server();
+        scheduler.addServer(named);
+        scheduler.addServer(unnamed);
+        MetricsReporter reporter = new MetricsReporter(scheduler, 1000, 4);
+        String text = reporter.report().toPrometheusText();
+        assertTrue(text.contains("server=\"alpha\""));
+        // A server without a name is given one that stays the same in every snapshot
+        assertTrue(unnamed.getName().startsWith("server-"));
+        assertTrue(text.contains("server=\"" + unnamed.getName() + "\""));
+        assertTrue(reporter.report().toPrometheusText().contains("server=\"" + unnamed.getName() + "\""));
+        assertFalse(text.contains("@"));
+    }
+}
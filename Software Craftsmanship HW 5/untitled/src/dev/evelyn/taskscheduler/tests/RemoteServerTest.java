@@ -8,12 +8,15 @@ import dev.evelyn.taskscheduler.exceptions.SchedulerException;
 import dev.evelyn.taskscheduler.exceptions.SchedulerFullException;
 import dev.evelyn.taskscheduler.exceptions.ServerException;
 import dev.evelyn.taskscheduler.exceptions.TaskException;
+import dev.evelyn.taskscheduler.servers.BufferPool;
+import dev.evelyn.taskscheduler.servers.ConnectionPool;
 import dev.evelyn.taskscheduler.servers.RemoteServer;
 import dev.evelyn.taskscheduler.servers.RemoteServerProcessor;
 import dev.evelyn.taskscheduler.servers.Server;
 import dev.evelyn.taskscheduler.tasks.FailingTask;
 import dev.evelyn.taskscheduler.tasks.SimpleTask;
 import dev.evelyn.taskscheduler.tasks.Task;
+import dev.evelyn.taskscheduler.tasks.TaskCodecRegistry;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -21,7 +24,9 @@ import org.junit.jupiter.api.Test;
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.*;
 
+import java.io.*;
 import java.net.Socket;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.*;
 
@@ -162,6 +167,238 @@ public class RemoteServerTest {
         assert server.getTasks().isEmpty();
     }
 
+    @Test
+    public void testConnectionReuse() throws ServerException {
+        RemoteServer server = new RemoteServer("localhost", 8088);
+        server.addTask(new SimpleTask("1", Duration.ofMillis(50)));
+        server.addTask(new SimpleTask("2", Duration.ofMillis(50)));
+        server.addTask(new SimpleTask("3", Duration.ofMillis(50)));
+        assertEquals(3, server.executeTasks().size());
+        // All three tasks went over the same connection, which is back in the pool
+        ConnectionPool pool = server.getConnectionPool();
+        assertEquals(1, pool.getIdleCount("localhost", 8088));
+        assertEquals(0, pool.getActiveCount("localhost", 8088));
+        server.stop();
+        assertEquals(0, pool.getIdleCount("localhost", 8088));
+    }
+
+    @Test
+    public void testCircuitBreakerMetrics() throws ServerException {
+        RemoteServer server = new RemoteServer("localhost", 8097);
+        server.addTask(new SimpleTask("1", Duration.ofMillis(50)));
+        server.addTask(new SimpleTask("2", Duration.ofMillis(50)));
+        assertEquals(2, server.executeTasks().size());
+        // Successful requests keep the circuit breaker closed without ever moving it
+        assertEquals(CircuitBreaker.State.CLOSED, server.getCircuitBreakerState());
+        assertEquals(0, server.getCircuitBreakerTransitions(CircuitBreaker.State.OPEN));
+        assertEquals(0.0, server.getRecentFailureRate());
+        assertTrue(server.isResponsive());
+        server.stop();
+    }
+
+    @Test
+    public void testIdleEviction() throws ServerException, InterruptedException {
+        ConnectionPool pool = new ConnectionPool();
+        pool.setIdleTimeout(50);
+        RemoteServer server = new RemoteServer("localhost", 8089, pool);
+        server.addTask(new SimpleTask("1", Duration.ofMillis(50)));
+        assertEquals(1, server.executeTasks().size());
+        assertEquals(1, pool.getIdleCount("localhost", 8089));
+        Thread.sleep(200);
+        // The background evictor has closed the idle connection, so the next task opens a new one
+        assertEquals(0, pool.getIdleCount("localhost", 8089));
+        server.addTask(new SimpleTask("2", Duration.ofMillis(50)));
+        assertEquals(1, server.executeTasks().size());
+        server.stop();
+        pool.close();
+    }
+
+    @Test
+    public void testInvalidConnectionPoolSettings() {
+        ConnectionPool pool = new ConnectionPool();
+        assertThrows(ServerException.class, () -> pool.setMaxConnectionsPerEndpoint(0));
+        assertThrows(ServerException.class, () -> pool.setIdleTimeout(0));
+        assertThrows(ServerException.class, () -> pool.setConnectTimeout(0));
+    }
+
+    @Test
+    public void testBatchedExecution() throws ServerException {
+        RemoteServer server = new RemoteServer("localhost", 8092);
+        server.setBatchSize(8);
+        for (int i = 0; i < 20; i++) {
+            server.addTask(new SimpleTask(Integer.toString(i), Duration.ofMillis(100)));
+        }
+        // A task that times out, and a task type with no codec, which travels by Java serialization inside the batch
+        server.addTask(new SimpleTask("timeout", Duration.ofMillis(500), Duration.ofMillis(50)));
+        server.addTask(new CustomTask("custom"));
+        long startTime = System.currentTimeMillis();
+        List<Task> completedTasks = server.executeTasks();
+        // Three batches run one after another, but the tasks within each batch run side by side
+        assertTrue(System.currentTimeMillis() - startTime < 1500);
+        assertEquals(21, completedTasks.size());
+        assertTrue(completedTasks.stream().noneMatch(task -> task.getId().equals("timeout")));
+        assertTrue(completedTasks.stream().anyMatch(task -> task.getId().equals("custom")));
+        assertTrue(server.getTasks().isEmpty());
+        server.stop();
+    }
+
+    @Test
+    public void testBatchedFailures() throws ServerException {
+        RemoteServer server = new RemoteServer("localhost", 8098);
+        server.setBatchSize(4);
+        Task failing = new FailingTask("failing", Duration.ofMillis(50), 10);
+        server.addTask(new SimpleTask("1", Duration.ofMillis(50), 1000));
+        server.addTask(failing);
+        server.addTask(new SimpleTask("2", Duration.ofMillis(50), 1000));
+        assertEquals(2, server.executeTasks().size());
+        // The task that failed on the processor is kept for the scheduler to retry, and counted as a failure
+        assertEquals(List.of(failing), server.getFailedTasks());
+        assertEquals(1, server.getTotalFailedTasks());
+        // The batch was one request to the server, so the circuit breaker counts one failure rather than one per task
+        assertEquals(1.0, server.getRecentFailureRate());
+        server.addTask(new SimpleTask("3", Duration.ofMillis(50), 1000));
+        server.addTask(new SimpleTask("4", Duration.ofMillis(50), 1000));
+        assertEquals(2, server.executeTasks().size());
+        assertEquals(0.5, server.getRecentFailureRate());
+        server.stop();
+    }
+
+    @Test
+    public void testBuffersReturnedToPool() throws Exception {
+        BufferPool pool = BufferPool.getDefault();
+        pool.setLeakTracking(true);
+        try {
+            RemoteServer server = new RemoteServer("localhost", 8096);
+            server.setBatchSize(4);
+            for (int i = 0; i < 10; i++) {
+                server.addTask(new SimpleTask(Integer.toString(i), Duration.ofMillis(10)));
+            }
+            assertEquals(10, server.executeTasks().size());
+            server.setBatchSize(1);
+            server.addTask(new SimpleTask("single", Duration.ofMillis(10)));
+            assertEquals(1, server.executeTasks().size());
+            assertTrue(server.submitAsync(new SimpleTask("async", Duration.ofMillis(10))).get(5, TimeUnit.SECONDS).isCompleted());
+            server.stop();
+            // The processor may still be finishing its last write when the client has its result
+            long deadline = System.currentTimeMillis() + 2000;
+            while (pool.reportLeaks() > 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(0, pool.reportLeaks());
+        } finally {
+            pool.setLeakTracking(false);
+        }
+    }
+
+    @Test
+    public void testInvalidBatchSize() {
+        RemoteServer server = new RemoteServer("localhost", 8093);
+        assertThrows(ServerException.class, () -> server.setBatchSize(0));
+        server.stop();
+    }
+
+    @Test
+    public void testAsyncRequests() throws Exception {
+        RemoteServer server = new RemoteServer("localhost", 8094);
+        List<CompletableFuture<Task>> futures = new ArrayList<>();
+        // Later tasks are shorter, so their responses come back first
+        for (int i = 0; i < 50; i++) {
+            futures.add(server.submitAsync(new SimpleTask(Integer.toString(i), Duration.ofMillis(500 - i * 5))));
+        }
+        long startTime = System.currentTimeMillis();
+        for (int i = 0; i < futures.size(); i++) {
+            Task result = futures.get(i).get(5, TimeUnit.SECONDS);
+            assertEquals(Integer.toString(i), result.getId());
+            assertTrue(result.isCompleted());
+        }
+        // All 50 tasks were in flight on one connection at the same time
+        assertTrue(System.currentTimeMillis() - startTime < 2000);
+        server.stop();
+    }
+
+    @Test
+    public void testAsyncFailures() throws Exception {
+        RemoteServer server = new RemoteServer("localhost", 8095);
+        // Times out on the client after 50 ms, long before the task would finish
+        CompletableFuture<Task> timedOut = server.submitAsync(new SimpleTask("1", Duration.ofMillis(1000), Duration.ofMillis(50)));
+        ExecutionException timeout = assertThrows(ExecutionException.class, () -> timedOut.get(5, TimeUnit.SECONDS));
+        assertInstanceOf(TimeoutException.class, timeout.getCause());
+        // Fails on the processor, so the response comes back without a completed task (its timeout leaves room for the
+        // first task to finish on the processor, which only has one worker on a single core machine)
+        CompletableFuture<Task> failed = server.submitAsync(new FailingTask("2", Duration.ofMillis(1000), 5));
+        ExecutionException failure = assertThrows(ExecutionException.class, () -> failed.get(5, TimeUnit.SECONDS));
+        assertInstanceOf(ServerException.class, failure.getCause());
+        server.stop();
+    }
+
+    @Test
+    public void testSlowTaskDoesNotBlockOtherClients() throws Exception {
+        RemoteServerProcessor processor = new RemoteServerProcessor(8090, new CircuitBreaker(5, 100));
+        new Thread(processor::start).start();
+        assertTrue(processor.awaitListening(1000));
+        try (Socket slowClient = new Socket("localhost", 8090);
+             Socket fastClient = new Socket("localhost", 8090)) {
+            sendFrame(slowClient, new SimpleTask("slow", Duration.ofMillis(2000), Duration.ofMillis(5000)));
+            long startTime = System.currentTimeMillis();
+            sendFrame(fastClient, new SimpleTask("fast", Duration.ofMillis(10)));
+            Task result = readFrame(fastClient);
+            // The fast task's reply comes back while the slow task is still running
+            assertEquals("fast", result.getId());
+            assertTrue(result.isCompleted());
+            assertTrue(System.currentTimeMillis() - startTime < 1000);
+        } finally {
+            processor.stop();
+        }
+    }
+
+    @Test
+    public void testManyConcurrentClients() throws Exception {
+        RemoteServerProcessor processor = new RemoteServerProcessor(8091, new CircuitBreaker(5, 100));
+        new Thread(processor::start).start();
+        assertTrue(processor.awaitListening(1000));
+        List<Socket> clients = new ArrayList<>();
+        try {
+            for (int i = 0; i < 200; i++) {
+                Socket client = new Socket("localhost", 8091);
+                clients.add(client);
+                sendFrame(client, new SimpleTask(Integer.toString(i), Duration.ofMillis(100)));
+            }
+            long startTime = System.currentTimeMillis();
+            for (int i = 0; i < clients.size(); i++) {
+                assertEquals(Integer.toString(i), readFrame(clients.get(i)).getId());
+            }
+            // The tasks ran side by side rather than one connection at a time (which would take 20 seconds)
+            assertTrue(System.currentTimeMillis() - startTime < 5000);
+        } finally {
+            for (Socket client : clients) {
+                client.close();
+            }
+            processor.stop();
+        }
+    }
+
+    // Send a task to a processor as a frame: a 4-byte length, then the format version, the message kind and the task
+    private void sendFrame(Socket socket, Task task) throws IOException {
+        ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        DataOutputStream payloadOut = new DataOutputStream(payload);
+        payloadOut.writeByte(1); // Version
+        payloadOut.writeByte(2); // Binary task
+        TaskCodecRegistry.getDefault().write(task, payloadOut);
+        DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+        out.writeInt(payload.size());
+        out.write(payload.toByteArray());
+        out.flush();
+    }
+
+    // Read a single task reply from a processor
+    private Task readFrame(Socket socket) throws IOException {
+        DataInputStream in = new DataInputStream(socket.getInputStream());
+        in.readInt(); // Length
+        assertEquals(1, in.readUnsignedByte());
+        assertEquals(2, in.readUnsignedByte());
+        return TaskCodecRegistry.getDefault().read(in);
+    }
+
     // MOCKITO TESTS
 
     @BeforeEach
@@ -284,4 +521,12 @@ public class RemoteServerTest {
         verify(mockTask).cleanup();  // Ensure that cleanup is called on interruption
     }
 
+    // Task type without a registered codec
+    private static final class CustomTask extends SimpleTask {
+    @Serial
+    private static final long serialVersionUID = 1L;
+        private CustomTask(String id) {
+            super(id, Duration.ofMillis(100));
+        }
+    }
 }
@@ -0,0 +1,68 @@
+package dev.evelyn.taskscheduler.tests;
+
+import dev.evelyn.taskscheduler.ServerLoadQueue;
+import dev.evelyn.taskscheduler.servers.Server;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Tests all functionality of the ServerLoadQueue class
+
+class ServerLoadQueueTest {
+
+    @Test
+    void peekReturnsLeastLoadedServer() {
+        ServerLoadQueue queue = new ServerLoadQueue();
+        Server server1 = new Server();
+        Server server2 = new Server();
+        Server server3 = new Server();
+        queue.add(server1, 30);
+        queue.add(server2, 10);
+        queue.add(server3, 20);
+        assertEquals(server2, queue.peek());
+        assertEquals(3, queue.size());
+    }
+
+    @Test
+    void equalLoadsKeepInsertionOrder() {
+        ServerLoadQueue queue = new ServerLoadQueue();
+        Server server1 = new Server();
+        Server server2 = new Server();
+        queue.add(server1, 0);
+        queue.add(server2, 0);
+        // Ties should go to the server that was added first
+        assertEquals(server1, queue.peek());
+    }
+
+    @Test
+    void updateMovesServers() {
+        ServerLoadQueue queue = new ServerLoadQueue();
+        Server server1 = new Server();
+        Server server2 = new Server();
+        Server server3 = new Server();
+        queue.add(server1, 10);
+        queue.add(server2, 20);
+        queue.add(server3, 30);
+        // Increase-key should move the least loaded server down
+        queue.update(server1, 40);
+        assertEquals(server2, queue.peek());
+        // Decrease-key should move a server back to the top
+        queue.update(server3, 5);
+        assertEquals(server3, queue.peek());
+        assertEquals(40, queue.getLoad(server1));
+    }
+
+    @Test
+    void removeServer() {
+        ServerLoadQueue queue = new ServerLoadQueue();
+        Server server1 = new Server();
+        Server server2 = new Server();
+        queue.add(server1, 10);
+        queue.add(server2, 20);
+        assertTrue(queue.remove(server1));
+        assertFalse(queue.remove(server1));
+        assertEquals(server2, queue.peek());
+        assertTrue(queue.remove(server2));
+        assertNull(queue.peek());
+    }
+}
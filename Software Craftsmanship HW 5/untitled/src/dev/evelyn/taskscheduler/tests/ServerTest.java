@@ -1,10 +1,19 @@
 package dev.evelyn.taskscheduler.tests;
 
 import dev.evelyn.taskscheduler.Duration;
+import dev.evelyn.taskscheduler.exceptions.ServerException;
+import dev.evelyn.taskscheduler.servers.ExecutionStrategy;
 import dev.evelyn.taskscheduler.servers.Server;
+import dev.evelyn.taskscheduler.servers.WorkStealingGroup;
+import dev.evelyn.taskscheduler.tasks.PriorityTask;
 import dev.evelyn.taskscheduler.tasks.SimpleTask;
+import dev.evelyn.taskscheduler.tasks.Task;
+import dev.evelyn.taskscheduler.tasks.TaskPriority;
+import dev.evelyn.taskscheduler.tasks.TaskWorkload;
 import org.junit.jupiter.api.Test;
 
+import java.util.List;
+
 import static org.junit.jupiter.api.Assertions.*;
 
 // Tests all functionality of the Server class
@@ -62,4 +71,149 @@ class ServerTest {
         // Check that there are no failed tasks
         assertEquals(0, server.getFailedTasks().size());
     }
-}
\ No newline at end of file
+
+    @Test
+    void executeTasksPipelined() throws ServerException {
+        Server server = new Server();
+        server.setMaxConcurrentTasks(4);
+        for (int i = 0; i < 4; i++) {
+            server.addTask(new SimpleTask(String.valueOf(i), Duration.ofMillis(300)));
+        }
+        // All 4 tasks should run at the same time, so the total time is closer to one task than four
+        long startTime = System.currentTimeMillis();
+        List<Task> completedTasks = server.executeTasks();
+        long elapsedTime = System.currentTimeMillis() - startTime;
+        assertEquals(4, completedTasks.size());
+        assertEquals(0, server.getTasks().size());
+        assertTrue(elapsedTime < 900, "Tasks were not executed concurrently: " + elapsedTime + "ms");
+    }
+
+    @Test
+    void pipelinedTimeout() throws ServerException {
+        Server server = new Server();
+        server.setMaxConcurrentTasks(2);
+        // This task takes longer than its timeout, while the other one finishes in time
+        SimpleTask slowTask = new SimpleTask("slow", Duration.ofMillis(500), Duration.ofMillis(100));
+        SimpleTask fastTask = new SimpleTask("fast", Duration.ofMillis(10));
+        server.addTask(slowTask);
+        server.addTask(fastTask);
+        List<Task> completedTasks = server.executeTasks();
+        assertEquals(List.of(fastTask), completedTasks);
+        assertEquals(List.of(slowTask), server.getFailedTasks());
+        assertFalse(slowTask.isCompleted());
+    }
+
+    @Test
+    void invalidMaxConcurrentTasks() {
+        Server server = new Server();
+        assertThrows(ServerException.class, () -> server.setMaxConcurrentTasks(0));
+    }
+
+    @Test
+    void executeWithVirtualThreads() throws ServerException {
+        Server server = new Server();
+        server.setExecutionStrategy(ExecutionStrategy.virtualThreads());
+        server.setMaxConcurrentTasks(10);
+        SimpleTask cpuTask = new SimpleTask("cpu", Duration.ofMillis(10));
+        cpuTask.setWorkload(TaskWorkload.CPU_BOUND);
+        server.addTask(cpuTask);
+        for (int i = 0; i < 9; i++) {
+            server.addTask(new SimpleTask(String.valueOf(i), Duration.ofMillis(50)));
+        }
+        // Both I/O-bound and CPU-bound tasks should complete on their own executors
+        assertEquals(10, server.executeTasks().size());
+        assertTrue(cpuTask.isCompleted());
+    }
+
+    @Test
+    void metricsCountConcurrentTasks() throws ServerException {
+        Server server = new Server();
+        server.setExecutionStrategy(ExecutionStrategy.virtualThreads());
+        server.setMaxConcurrentTasks(50);
+        for (int i = 0; i < 200; i++) {
+            server.addTask(new SimpleTask(String.valueOf(i), Duration.ofMillis(5), 1000));
+        }
+        assertEquals(200, server.getMetrics().get("queue_length"));
+        assertEquals(200, server.executeTasks().size());
+        // Every executor thread's update is counted, even with 50 tasks finishing at once
+        assertEquals(200, server.getTotalTasksExecuted());
+        assertEquals(200, server.getTotalCompletedTasks());
+        assertEquals(0, server.getTotalFailedTasks());
+        assertTrue(server.getTotalExecutionTime() >= 200 * 5);
+        assertEquals(0, server.getMetrics().get("queue_length"));
+    }
+
+    @Test
+    void replacedExecutionStrategyIsShutDown() throws ServerException {
+        Server server = new Server();
+        Task task = new SimpleTask("task", Duration.ofMillis(10), 1000);
+        ExecutionStrategy bounded = ExecutionStrategy.boundedPool(2);
+        server.setExecutionStrategy(bounded);
+        // The shared default keeps running for the other servers, but a strategy the server was given is shut down
+        assertFalse(ExecutionStrategy.shared().executorFor(task).isShutdown());
+        server.setExecutionStrategy(ExecutionStrategy.boundedPool(1));
+        assertTrue(bounded.executorFor(task).isShutdown());
+        server.addTask(task);
+        assertEquals(1, server.executeTasks().size());
+    }
+
+    @Test
+    void closeShutsDownExecutionStrategy() throws ServerException {
+        Server server = new Server();
+        Task task = new SimpleTask("task", Duration.ofMillis(10), 1000);
+        ExecutionStrategy bounded = ExecutionStrategy.boundedPool(1);
+        server.setExecutionStrategy(bounded);
+        server.close();
+        assertTrue(bounded.executorFor(task).isShutdown());
+        // Closing a server on the shared default leaves it running for the other servers
+        new Server().close();
+        assertFalse(ExecutionStrategy.shared().executorFor(task).isShutdown());
+    }
+
+    @Test
+    void executionStrategiesUseDaemonThreads() throws Exception {
+        Task task = new SimpleTask("task", Duration.ofMillis(10), 1000);
+        ExecutionStrategy cached = ExecutionStrategy.cachedThreadPool();
+        assertTrue(cached.executorFor(task).submit(() -> Thread.currentThread().isDaemon()).get());
+        cached.shutdown();
+        assertTrue(ExecutionStrategy.shared().executorFor(task).submit(() -> Thread.currentThread().isDaemon()).get());
+    }
+
+    @Test
+    void invalidExecutionStrategy() {
+        Server server = new Server();
+        assertThrows(ServerException.class, () -> server.setExecutionStrategy(null));
+        assertThrows(ServerException.class, () -> ExecutionStrategy.boundedPool(0));
+    }
+
+    @Test
+    void stealTaskRespectsPriority() {
+        Server server = new Server();
+        Task high1 = new PriorityTask("high1", Duration.ofMillis(10), TaskPriority.HIGH);
+        Task high2 = new PriorityTask("high2", Duration.ofMillis(10), TaskPriority.HIGH);
+        Task low = new PriorityTask("low", Duration.ofMillis(10), TaskPriority.LOW);
+        server.addTask(low);
+        server.addTask(high1);
+        server.addTask(high2);
+        // The back of the high priority tasks is stolen before the low priority task at the back of the queue
+        assertSame(high2, server.stealTask());
+        assertSame(high1, server.stealTask());
+        assertSame(low, server.stealTask());
+        assertNull(server.stealTask());
+    }
+
+    @Test
+    void idleServerStealsQueuedTasks() throws ServerException {
+        Server busyServer = new Server();
+        Server idleServer = new Server();
+        for (int i = 0; i < 4; i++) {
+            busyServer.addTask(new SimpleTask(Integer.toString(i), Duration.ofMillis(10)));
+        }
+        WorkStealingGroup group = new WorkStealingGroup(List.of(busyServer, idleServer));
+        idleServer.setWorkStealingGroup(group);
+        // The idle server has nothing of its own, so it runs every task from the busy server's queue
+        assertEquals(4, idleServer.executeTasks().size());
+        assertEquals(4, group.getStolenTaskCount());
+        assertTrue(busyServer.getTasks().isEmpty());
+    }
+}
@@ -0,0 +1,120 @@
+package dev.evelyn.taskscheduler.tests;
+
+import dev.evelyn.taskscheduler.CircuitBreaker;
+import dev.evelyn.taskscheduler.Duration;
+import dev.evelyn.taskscheduler.RetryPolicy;
+import dev.evelyn.taskscheduler.TaskScheduler;
+import dev.evelyn.taskscheduler.exceptions.SchedulerException;
+import dev.evelyn.taskscheduler.exceptions.ServerException;
+import dev.evelyn.taskscheduler.servers.SimulatedServer;
+import dev.evelyn.taskscheduler.simulation.SimulationEngine;
+import dev.evelyn.taskscheduler.simulation.SimulationReport;
+import dev.evelyn.taskscheduler.tasks.DependentTask;
+import dev.evelyn.taskscheduler.tasks.FailingTask;
+import dev.evelyn.taskscheduler.tasks.SimpleTask;
+import dev.evelyn.taskscheduler.tasks.TaskPriority;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Tests all functionality of the SimulationEngine class
+
+class SimulationEngineTest {
+
+    @Test
+    void simulateWithoutSleeping() throws SchedulerException {
+        SimulationEngine engine = new SimulationEngine(new TaskScheduler());
+        SimulatedServer server1 = new SimulatedServer("1");
+        SimulatedServer server2 = new SimulatedServer("2");
+        engine.addServer(server1);
+        engine.addServer(server2);
+        // 10 tasks of 1 second each would take 5 seconds of real time on 2 servers
+        for (int i = 0; i < 10; i++) {
+            engine.submit(new SimpleTask(String.valueOf(i), Duration.ofMillis(1000)), 0);
+        }
+        long startTime = System.currentTimeMillis();
+        SimulationReport report = engine.run();
+        assertTrue(System.currentTimeMillis() - startTime < 1000);
+        assertEquals(5000, report.getMakespan());
+        assertEquals(10, report.getCompletedTasks());
+        assertEquals(1.0, report.getOverallUtilization());
+        assertEquals(100.0, report.getSuccessRate());
+        assertEquals(1000.0, report.getAverageExecutionTime());
+        assertEquals(5, server1.getTotalTasksExecuted());
+        assertEquals(5, server2.getTotalTasksExecuted());
+    }
+
+    @Test
+    void simulateConcurrentSlotsAndLatency() throws SchedulerException, ServerException {
+        SimulationEngine engine = new SimulationEngine(new TaskScheduler());
+        CircuitBreaker circuitBreaker = new CircuitBreaker(5, 100, engine.getClock());
+        SimulatedServer server = new SimulatedServer("remote", 50, circuitBreaker);
+        server.setMaxConcurrentTasks(4);
+        engine.addServer(server);
+        for (int i = 0; i < 8; i++) {
+            engine.submit(new SimpleTask(String.valueOf(i), Duration.ofMillis(100)), 0);
+        }
+        SimulationReport report = engine.run();
+        // Two rounds of 4 tasks, each taking 50 ms of latency and 100 ms of work
+        assertEquals(300, report.getMakespan());
+        assertEquals(8, report.getCompletedTasks());
+    }
+
+    @Test
+    void simulateRetriesAndTimeouts() throws SchedulerException {
+        SimulationEngine engine = new SimulationEngine(new TaskScheduler(new RetryPolicy(3, 1000, false)));
+        engine.addServer(new SimulatedServer("1"));
+        // Fails at 100 ms, then succeeds when it is placed again after the 1000 ms retry delay
+        engine.submit(new FailingTask("retry", Duration.ofMillis(100), 2), 0);
+        // Never succeeds, so it runs three times and then fails
+        engine.submit(new FailingTask("fail", Duration.ofMillis(100), 10), 0);
+        // Times out on every run, so it also fails after three runs (the last ending at 2800 ms)
+        engine.submit(new SimpleTask("timeout", Duration.ofMillis(500), Duration.ofMillis(200)), 0);
+        SimulationReport report = engine.run();
+        assertEquals(1, report.getCompletedTasks());
+        assertEquals(2, report.getFailedTasks());
+        // 7 of the 8 runs failed
+        assertEquals(87.5, report.getFailureRate());
+        assertEquals(2800, report.getMakespan());
+    }
+
+    @Test
+    void simulateJitteredRetries() throws SchedulerException {
+        long makespan = simulateJitteredRetry(42);
+        // Each of the two 1000 ms retry delays has up to half taken off, drawn from the engine's seed
+        assertTrue(makespan >= 1300 && makespan < 2300, "Unexpected makespan: " + makespan);
+        assertEquals(makespan, simulateJitteredRetry(42));
+        assertThrows(SchedulerException.class, () -> new RetryPolicy(3, 1000, false, 1.5));
+    }
+
+    private long simulateJitteredRetry(long seed) throws SchedulerException {
+        SimulationEngine engine = new SimulationEngine(new TaskScheduler(new RetryPolicy(3, 1000, false, 0.5)), seed);
+        engine.addServer(new SimulatedServer("1"));
+        engine.submit(new FailingTask("retry", Duration.ofMillis(100), 3), 0);
+        SimulationReport report = engine.run();
+        assertEquals(1, report.getCompletedTasks());
+        return report.getMakespan();
+    }
+
+    @Test
+    void simulateFailedTaskInGraph() throws SchedulerException {
+        TaskScheduler scheduler = new TaskScheduler(new RetryPolicy(2, 1000, false));
+        SimulationEngine engine = new SimulationEngine(scheduler);
+        engine.addServer(new SimulatedServer("1"));
+        // B and C wait on A, which never succeeds, while D doesn't depend on it and still runs
+        engine.submitGraph(List.of(
+                new FailingTask("A", Duration.ofMillis(100), 10),
+                new DependentTask("B", TaskPriority.MEDIUM, Duration.ofMillis(100), Set.of("A")),
+                new DependentTask("C", TaskPriority.MEDIUM, Duration.ofMillis(100), Set.of("B")),
+                new SimpleTask("D", Duration.ofMillis(100))), 0);
+        SimulationReport report = engine.run();
+        assertEquals(4, report.getSubmittedTasks());
+        assertEquals(1, report.getCompletedTasks());
+        // A failed after both runs, and B and C were dropped with it
+        assertEquals(3, report.getFailedTasks());
+        assertEquals(0, scheduler.getHeldTaskCount());
+    }
+}
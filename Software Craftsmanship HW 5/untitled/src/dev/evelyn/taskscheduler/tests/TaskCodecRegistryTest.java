@@ -0,0 +1,124 @@
+package dev.evelyn.taskscheduler.tests;
+
+import dev.evelyn.taskscheduler.Duration;
+import dev.evelyn.taskscheduler.exceptions.TaskException;
+import dev.evelyn.taskscheduler.tasks.*;
+import org.junit.jupiter.api.Test;
+
+import java.io.*;
+import java.math.BigInteger;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Tests all functionality of the TaskCodecRegistry class
+
+class TaskCodecRegistryTest {
+
+    @Test
+    void roundTripSimpleTask() throws Exception {
+        SimpleTask task = new SimpleTask("1", Duration.ofMillis(100), Duration.ofMillis(300));
+        task.setWorkload(TaskWorkload.CPU_BOUND);
+        task.execute();
+        Task decoded = roundTrip(task);
+        assertEquals(SimpleTask.class, decoded.getClass());
+        assertEquals("1", decoded.getId());
+        assertEquals(Duration.ofMillis(100), decoded.getEstimatedDuration());
+        assertEquals(300, decoded.getTimeout());
+        assertTrue(decoded.isCompleted());
+        assertEquals(TaskWorkload.CPU_BOUND, decoded.getWorkload());
+    }
+
+    @Test
+    void roundTripPriorityAndDependentTasks() throws IOException {
+        Task priorityTask = roundTrip(new PriorityTask("1", Duration.ofMillis(100), TaskPriority.HIGH));
+        assertEquals(PriorityTask.class, priorityTask.getClass());
+        assertEquals(TaskPriority.HIGH, priorityTask.getPriority());
+        Task dependentTask = roundTrip(new DependentTask("2", TaskPriority.LOW, Duration.ofMillis(100), Set.of("1", "0")));
+        assertEquals(DependentTask.class, dependentTask.getClass());
+        assertEquals(TaskPriority.LOW, dependentTask.getPriority());
+        assertEquals(Set.of("1", "0"), dependentTask.getDependencies());
+    }
+
+    @Test
+    void roundTripKeepsFailingTaskAttempts() throws IOException {
+        FailingTask task = new FailingTask("1", Duration.ofMillis(100), 2);
+        assertThrows(TaskException.class, task::execute);
+        // The decoded task remembers the failed attempt, so it succeeds on its next run
+        Task decoded = roundTrip(task);
+        assertDoesNotThrow(decoded::execute);
+        assertTrue(decoded.isCompleted());
+    }
+
+    @Test
+    void binaryFormatIsSmallerThanJavaSerialization() throws IOException {
+        SimpleTask task = new SimpleTask("task-1", Duration.ofMillis(100));
+        ByteArrayOutputStream binary = new ByteArrayOutputStream();
+        TaskCodecRegistry.getDefault().write(task, new DataOutputStream(binary));
+        ByteArrayOutputStream serialized = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(serialized)) {
+            out.writeObject(task);
+        }
+        assertTrue(binary.size() * 10 < serialized.size());
+    }
+
+    @Test
+    void unregisteredTasksFallBack() {
+        TaskCodecRegistry registry = TaskCodecRegistry.getDefault();
+        // Subclasses without their own codec, and durations that don't fit in a long, are left to Java serialization
+        assertFalse(registry.canWrite(new SimpleTask("1", Duration.ofMillis(10)) {}));
+        assertFalse(registry.canWrite(new SimpleTask("2", new Duration(BigInteger.TWO.pow(70)), 10)));
+        assertTrue(registry.canWrite(new SimpleTask("3", Duration.ofMillis(10))));
+    }
+
+    @Test
+    void registerCustomType() throws IOException {
+        TaskCodecRegistry registry = TaskCodecRegistry.getDefault();
+        registry.register(TaskCodecRegistry.FIRST_CUSTOM_TYPE_ID, BatchTask.class, new TaskCodec<>() {
+            @Override
+            public void write(BatchTask task, DataOutput out) throws IOException {
+                out.writeUTF(task.getId());
+                out.writeInt(task.size);
+            }
+
+            @Override
+            public BatchTask read(DataInput in) throws IOException {
+                return new BatchTask(in.readUTF(), in.readInt());
+            }
+        });
+        BatchTask decoded = (BatchTask) roundTrip(new BatchTask("1", 42));
+        assertEquals("1", decoded.getId());
+        assertEquals(42, decoded.size);
+        // Built-in IDs and IDs that are already taken can't be registered
+        assertThrows(IllegalArgumentException.class,
+                () -> registry.register(1, BatchTask.class, null));
+        assertThrows(IllegalArgumentException.class,
+                () -> registry.register(TaskCodecRegistry.FIRST_CUSTOM_TYPE_ID, BatchTask.class, null));
+    }
+
+    @Test
+    void unknownTypeId() {
+        byte[] bytes = {0x7f, 0x7f};
+        assertThrows(IOException.class,
+                () -> TaskCodecRegistry.getDefault().read(new DataInputStream(new ByteArrayInputStream(bytes))));
+    }
+
+    private Task roundTrip(Task task) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        TaskCodecRegistry.getDefault().write(task, new DataOutputStream(bytes));
+        return TaskCodecRegistry.getDefault().read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+    }
+
+    // Custom task type used to test registering a codec
+    private static final class BatchTask extends SimpleTask {
+    @Serial
+    private static final long serialVersionUID = 1L;
+        private final int size;
+
+        private BatchTask(String id, int size) {
+            super(id, Duration.ofMillis(size));
+            this.size = size;
+        }
+    }
+}
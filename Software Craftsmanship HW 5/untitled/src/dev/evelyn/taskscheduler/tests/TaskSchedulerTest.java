@@ -3,13 +3,21 @@ package dev.evelyn.taskscheduler.tests;
 import dev.evelyn.taskscheduler.*;
 import dev.evelyn.taskscheduler.exceptions.SchedulerException;
 import dev.evelyn.taskscheduler.exceptions.SchedulerFullException;
+import dev.evelyn.taskscheduler.exceptions.ServerException;
+import dev.evelyn.taskscheduler.exceptions.TaskException;
+import dev.evelyn.taskscheduler.servers.ExecutionStrategy;
 import dev.evelyn.taskscheduler.servers.Server;
 import dev.evelyn.taskscheduler.tasks.*;
 import org.junit.jupiter.api.Test;
 
+import java.io.Serial;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -326,15 +334,94 @@ class TaskSchedulerTest {
         // Check that the task was executed successfully
         List<Task> completedTasks = results.get(server);
         assertNotNull(completedTasks);
+        // The failed task is put back on the server once its 10 ms retry delay has passed
+        awaitQueued(taskScheduler, server, task);
         // Make another RetryTask that will succeed only on its 5th attempt
         Task task2 = new FailingTask("3", Duration.ofMillis(10), 5);
         // Schedule the task
         taskScheduler.scheduleTask(task2);
         // Execute the task
         results = taskScheduler.executeAll();
-        // Ensure that the task was not executed
+        // Ensure that only the retried task was executed
         completedTasks = results.get(server);
-        assertEquals(0, completedTasks.size());
+        assertEquals(List.of(task), completedTasks);
+    }
+
+    @Test
+    void testRetriesDoNotBlock() throws SchedulerException, SchedulerFullException {
+        TaskScheduler taskScheduler = new TaskScheduler(new RetryPolicy(3, 500, false));
+        Server server = new Server();
+        taskScheduler.addServer(server);
+        Task task = new FailingTask("1", Duration.ofMillis(10), 2);
+        taskScheduler.scheduleTask(task);
+        long startTime = System.currentTimeMillis();
+        taskScheduler.executeAll();
+        // executeAll returns without waiting for the retry delay, and the task is not requeued until it has passed
+        assertTrue(System.currentTimeMillis() - startTime < 500);
+        assertTrue(server.getTasks().isEmpty());
+        awaitQueued(taskScheduler, server, task);
+        assertEquals(List.of(task), taskScheduler.executeAll().get(server));
+        assertTrue(task.isCompleted());
+    }
+
+    @Test
+    void testRetryDuringExecutionWaitsForPlacement() throws SchedulerException, SchedulerFullException {
+        TaskScheduler taskScheduler = new TaskScheduler(new RetryPolicy(3, 1, false));
+        Server firstServer = new Server();
+        Server secondServer = new Server();
+        taskScheduler.addServer(firstServer);
+        taskScheduler.addServer(secondServer);
+        taskScheduler.setExecutionParallelism(2);
+        Task failing = new FailingTask("failing", Duration.ofMillis(10), 2);
+        Task slow = new UnderestimatedTask("slow", 10, 300);
+        // The failing task starts on the first server, and everything else (including its retry) goes on the second
+        AtomicBoolean failingPlaced = new AtomicBoolean();
+        taskScheduler.setLoadBalancingStrategy((task, servers, loads) ->
+                task == failing && failingPlaced.compareAndSet(false, true) ? firstServer : secondServer);
+        taskScheduler.scheduleTask(failing);
+        taskScheduler.scheduleTask(slow);
+        assertEquals(List.of(failing), firstServer.getTasks());
+        // The retry is due while the second server is still running, but it isn't placed until the run has finished
+        taskScheduler.executeAll();
+        awaitQueued(taskScheduler, secondServer, failing);
+        synchronized (taskScheduler) {
+            assertEquals(List.of(failing), secondServer.getTasks());
+            assertEquals(10, taskScheduler.getServerDurations(secondServer));
+        }
+        taskScheduler.executeAll();
+        assertTrue(failing.isCompleted());
+        assertEquals(0, taskScheduler.getServerDurations(secondServer));
+        taskScheduler.close();
+    }
+
+    @Test
+    void testCloseDropsPendingRetries() throws SchedulerException, SchedulerFullException, InterruptedException {
+        TaskScheduler taskScheduler = new TaskScheduler(new RetryPolicy(3, 50, false));
+        Server server = new Server();
+        taskScheduler.addServer(server);
+        taskScheduler.scheduleTask(new FailingTask("1", Duration.ofMillis(10), 2));
+        taskScheduler.executeAll();
+        taskScheduler.close();
+        Thread.sleep(200);
+        assertTrue(server.getTasks().isEmpty());
+    }
+
+    // Wait (for up to 5 seconds) until the retry timer has put a task back on a server
+    // The scheduler's lock is held while looking, since the retry timer adds the task to the server under it
+    private void awaitQueued(TaskScheduler taskScheduler, Server server, Task task) {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!isQueued(taskScheduler, server, task)) {
+            if (System.currentTimeMillis() > deadline) {
+                fail("Task " + task.getId() + " was not requeued");
+            }
+            Thread.onSpinWait();
+        }
+    }
+
+    private boolean isQueued(TaskScheduler taskScheduler, Server server, Task task) {
+        synchronized (taskScheduler) {
+            return server.getTasks().contains(task);
+        }
     }
 
     @Test
@@ -393,4 +480,530 @@ class TaskSchedulerTest {
             // Expected exception
         }
     }
-}
\ No newline at end of file
+
+    @Test
+    void testIncrementalPlacement() throws SchedulerException, SchedulerFullException {
+        TaskScheduler taskScheduler = new TaskScheduler();
+        Server server1 = new Server();
+        Server server2 = new Server();
+        taskScheduler.addServer(server1);
+        taskScheduler.addServer(server2);
+        Task task1 = new SimpleTask("1", Duration.ofMillis(50));
+        taskScheduler.scheduleTask(task1);
+        // Scheduling more tasks should place them without moving the task that was already placed
+        taskScheduler.scheduleTask(new SimpleTask("2", Duration.ofMillis(10)));
+        taskScheduler.scheduleTask(new SimpleTask("3", Duration.ofMillis(10)));
+        assertEquals(List.of(task1), server1.getTasks());
+        assertEquals(2, server2.getTasks().size());
+        assertEquals(50, taskScheduler.getServerDurations(server1));
+        assertEquals(20, taskScheduler.getServerDurations(server2));
+    }
+
+    @Test
+    void testRebalanceOnServerChanges() throws SchedulerException, SchedulerFullException {
+        TaskScheduler taskScheduler = new TaskScheduler();
+        Server server1 = new Server();
+        taskScheduler.addServer(server1);
+        for (int i = 0; i < 4; i++) {
+            taskScheduler.scheduleTask(new SimpleTask(String.valueOf(i), Duration.ofMillis(10)));
+        }
+        // Adding a server should spread the existing tasks onto it during the next placement
+        Server server2 = new Server();
+        taskScheduler.addServer(server2);
+        taskScheduler.scheduleTask(new SimpleTask("4", Duration.ofMillis(10)));
+        assertEquals(5, server1.getTasks().size() + server2.getTasks().size());
+        assertTrue(server2.getTasks().size() >= 2);
+        // Removing a server should move its tasks back onto the remaining server
+        taskScheduler.removeServer(server2);
+        taskScheduler.scheduleTask(new SimpleTask("5", Duration.ofMillis(10)));
+        assertEquals(6, server1.getTasks().size());
+        assertEquals(0, server2.getTasks().size());
+        assertEquals(60, taskScheduler.getServerDurations(server1));
+    }
+
+    @Test
+    void testRemoveServerDuringExecution() throws SchedulerException, SchedulerFullException, InterruptedException {
+        TaskScheduler taskScheduler = new TaskScheduler();
+        Server server = new Server();
+        taskScheduler.addServer(server);
+        Task slow = new UnderestimatedTask("slow", 10, 300);
+        taskScheduler.scheduleTask(slow);
+        Thread execution = new Thread(() -> {
+            try {
+                taskScheduler.executeAll();
+            } catch (SchedulerFullException e) {
+                fail(e);
+            }
+        });
+        execution.start();
+        // The server has taken the task off its queue, so it is running
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!server.getTasks().isEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.onSpinWait();
+        }
+        assertThrows(SchedulerException.class, () -> taskScheduler.removeServer(server));
+        execution.join(5000);
+        assertTrue(slow.isCompleted());
+        // Once the run has finished the server can be removed
+        taskScheduler.removeServer(server);
+        assertTrue(taskScheduler.getServers().isEmpty());
+    }
+
+    @Test
+    void testRemovedAndClosedServersAreShutDown() throws SchedulerException, ServerException {
+        TaskScheduler taskScheduler = new TaskScheduler();
+        Task task = new SimpleTask("1", Duration.ofMillis(10), 1000);
+        ExecutionStrategy removedStrategy = ExecutionStrategy.boundedPool(1);
+        ExecutionStrategy keptStrategy = ExecutionStrategy.boundedPool(1);
+        Server removed = new Server();
+        Server kept = new Server();
+        removed.setExecutionStrategy(removedStrategy);
+        kept.setExecutionStrategy(keptStrategy);
+        taskScheduler.addServer(removed);
+        taskScheduler.addServer(kept);
+        taskScheduler.removeServer(removed);
+        assertTrue(removedStrategy.executorFor(task).isShutdown());
+        assertFalse(keptStrategy.executorFor(task).isShutdown());
+        taskScheduler.close();
+        assertTrue(keptStrategy.executorFor(task).isShutdown());
+    }
+
+    @Test
+    void testParallelExecution() throws SchedulerException, SchedulerFullException {
+        TaskScheduler taskScheduler = new TaskScheduler();
+        taskScheduler.setExecutionParallelism(2);
+        Server server1 = new Server();
+        Server server2 = new Server();
+        taskScheduler.addServer(server1);
+        taskScheduler.addServer(server2);
+        taskScheduler.scheduleTask(new SimpleTask("1", Duration.ofMillis(400)));
+        taskScheduler.scheduleTask(new SimpleTask("2", Duration.ofMillis(400)));
+        // Both servers should run at the same time, so the total time is closer to one task than two
+        long startTime = System.currentTimeMillis();
+        Map<Server, List<Task>> results = taskScheduler.executeAll();
+        long elapsedTime = System.currentTimeMillis() - startTime;
+        assertEquals(1, results.get(server1).size());
+        assertEquals(1, results.get(server2).size());
+        assertTrue(elapsedTime < 750, "Servers were not executed in parallel: " + elapsedTime + "ms");
+    }
+
+    @Test
+    void testInvalidExecutionParallelism() {
+        TaskScheduler taskScheduler = new TaskScheduler();
+        assertThrows(SchedulerException.class, () -> taskScheduler.setExecutionParallelism(0));
+    }
+
+    @Test
+    void testScheduleGraph() throws SchedulerException, SchedulerFullException {
+        TaskScheduler taskScheduler = new TaskScheduler();
+        Server server = new Server();
+        taskScheduler.addServer(server);
+        Task taskA = new SimpleTask("A", Duration.ofMillis(10));
+        Task taskB = new DependentTask("B", TaskPriority.MEDIUM, Duration.ofMillis(10), Set.of("A"));
+        Task taskC = new DependentTask("C", TaskPriority.MEDIUM, Duration.ofMillis(10), Set.of("A", "B"));
+        // The whole graph is accepted at once, but only task A can start
+        taskScheduler.scheduleGraph(List.of(taskC, taskB, taskA));
+        assertEquals(List.of(taskA), server.getTasks());
+        assertEquals(2, taskScheduler.getHeldTaskCount());
+        // Each run releases the tasks whose last dependency just completed
+        taskScheduler.executeAll();
+        assertEquals(List.of(taskB), server.getTasks());
+        taskScheduler.executeAll();
+        assertEquals(List.of(taskC), server.getTasks());
+        taskScheduler.executeAll();
+        assertTrue(taskC.isCompleted());
+        assertEquals(0, taskScheduler.getHeldTaskCount());
+    }
+
+    @Test
+    void testScheduleGraphRejectsCycles() throws SchedulerException {
+        TaskScheduler taskScheduler = new TaskScheduler();
+        Server server = new Server();
+        taskScheduler.addServer(server);
+        Task taskA = new DependentTask("A", TaskPriority.MEDIUM, Duration.ofMillis(10), Set.of("C"));
+        Task taskB = new DependentTask("B", TaskPriority.MEDIUM, Duration.ofMillis(10), Set.of("A"));
+        Task taskC = new DependentTask("C", TaskPriority.MEDIUM, Duration.ofMillis(10), Set.of("B"));
+        assertThrows(SchedulerException.class, () -> taskScheduler.scheduleGraph(List.of(taskA, taskB, taskC)));
+        // Dependencies on tasks that were never submitted are rejected too
+        Task taskD = new DependentTask("D", TaskPriority.MEDIUM, Duration.ofMillis(10), Set.of("missing"));
+        assertThrows(SchedulerException.class, () -> taskScheduler.scheduleGraph(List.of(taskD)));
+        assertEquals(0, server.getTasks().size());
+        assertEquals(0, taskScheduler.getHeldTaskCount());
+    }
+
+    @Test
+    void testFailedTaskDropsDependents() throws SchedulerException, SchedulerFullException {
+        TaskScheduler taskScheduler = new TaskScheduler(new RetryPolicy(1, 10, false));
+        Server server = new Server();
+        taskScheduler.addServer(server);
+        // Task A never succeeds, so B, C and E (which needs both B and D) can never run
+        Task taskA = new FailingTask("A", Duration.ofMillis(10), Integer.MAX_VALUE);
+        Task taskB = new DependentTask("B", TaskPriority.MEDIUM, Duration.ofMillis(10), Set.of("A"));
+        Task taskC = new DependentTask("C", TaskPriority.MEDIUM, Duration.ofMillis(10), Set.of("B"));
+        Task taskD = new SimpleTask("D", Duration.ofMillis(10), 1000);
+        Task taskE = new DependentTask("E", TaskPriority.MEDIUM, Duration.ofMillis(10), Set.of("B", "D"));
+        taskScheduler.scheduleGraph(List.of(taskA, taskB, taskC, taskD, taskE));
+        assertEquals(3, taskScheduler.getHeldTaskCount());
+        taskScheduler.executeAll();
+        // The dependents leave the graph with A, and D completing doesn't release E
+        assertTrue(taskD.isCompleted());
+        assertEquals(0, taskScheduler.getHeldTaskCount());
+        assertTrue(server.getTasks().isEmpty());
+        // The IDs are free to be scheduled again
+        taskScheduler.scheduleGraph(List.of(new SimpleTask("B", Duration.ofMillis(10))));
+        assertEquals(1, server.getTasks().size());
+    }
+
+    @Test
+    void testCriticalPathOrdering() throws SchedulerException, SchedulerFullException {
+        TaskScheduler taskScheduler = new TaskScheduler();
+        Server server = new Server();
+        taskScheduler.addServer(server);
+        // Task "short" has nothing waiting on it, while task "long" heads a chain of two more tasks
+        Task shortTask = new SimpleTask("short", Duration.ofMillis(10));
+        Task longTask = new SimpleTask("long", Duration.ofMillis(10));
+        Task next = new DependentTask("next", TaskPriority.MEDIUM, Duration.ofMillis(50), Set.of("long"));
+        Task last = new DependentTask("last", TaskPriority.MEDIUM, Duration.ofMillis(50), Set.of("next"));
+        taskScheduler.scheduleGraph(List.of(shortTask, longTask, next, last));
+        // The head of the longer chain should start first even though it was submitted second
+        assertEquals(List.of(longTask, shortTask), server.getTasks());
+    }
+
+    @Test
+    void testCompletionRetention() throws SchedulerException, SchedulerFullException {
+        TaskScheduler taskScheduler = new TaskScheduler();
+        taskScheduler.setCompletionRetention(CompletionStore.Retention.EVICT_UNREFERENCED);
+        Server server = new Server();
+        taskScheduler.addServer(server);
+        Task taskA = new SimpleTask("A", Duration.ofMillis(10));
+        Task taskB = new DependentTask("B", TaskPriority.MEDIUM, Duration.ofMillis(10), Set.of("A"));
+        taskScheduler.scheduleGraph(List.of(taskA, taskB));
+        // Task A is kept after it completes, because task B still depends on it
+        taskScheduler.executeAll();
+        assertEquals(1, taskScheduler.getCompletedTaskCount());
+        // Once task B completes, nothing depends on either task, so both are forgotten
+        taskScheduler.executeAll();
+        assertTrue(taskB.isCompleted());
+        assertEquals(0, taskScheduler.getCompletedTaskCount());
+    }
+
+    @Test
+    void testLatencyAwareLoadBalancing() throws SchedulerException, SchedulerFullException, ServerException {
+        TaskScheduler taskScheduler = new TaskScheduler();
+        taskScheduler.setLoadBalancingStrategy(LoadBalancingStrategy.latencyAware(0.5));
+        Server fastServer = new Server();
+        Server slowServer = new SlowServer(200);
+        taskScheduler.addServer(fastServer);
+        taskScheduler.addServer(slowServer);
+        // Before anything has run, the servers are only told apart by their queues
+        taskScheduler.scheduleTask(new SimpleTask("1", Duration.ofMillis(10)));
+        taskScheduler.scheduleTask(new SimpleTask("2", Duration.ofMillis(10)));
+        assertEquals(1, fastServer.getTasks().size());
+        assertEquals(1, slowServer.getTasks().size());
+        taskScheduler.executeAll();
+        // The slow server took about 200 ms for a 10 ms task, so new tasks go to the fast server instead
+        for (int i = 3; i <= 6; i++) {
+            taskScheduler.scheduleTask(new SimpleTask(Integer.toString(i), Duration.ofMillis(10)));
+        }
+        assertEquals(4, fastServer.getTasks().size());
+        assertTrue(slowServer.getTasks().isEmpty());
+    }
+
+    @Test
+    void testLatencyAwareComparesObservedAndUnobservedServers() throws SchedulerException, SchedulerFullException {
+        TaskScheduler taskScheduler = new TaskScheduler();
+        taskScheduler.setLoadBalancingStrategy(LoadBalancingStrategy.latencyAware(1));
+        Server observedServer = new Server();
+        Server unobservedServer = new Server();
+        taskScheduler.addServer(observedServer);
+        taskScheduler.addServer(unobservedServer);
+        // Only the first server runs anything, and it takes about twice its estimate
+        taskScheduler.scheduleTask(new UnderestimatedTask("warmup", 50, 100));
+        assertEquals(1, observedServer.getTasks().size());
+        taskScheduler.executeAll();
+        // A long task would take about twice as long on the observed server, so it goes to the idle unobserved one
+        taskScheduler.scheduleTask(new SimpleTask("long", Duration.ofMillis(1000)));
+        assertEquals(1, unobservedServer.getTasks().size());
+        // A short task still finishes sooner on the slower server than behind the long task
+        taskScheduler.scheduleTask(new SimpleTask("short", Duration.ofMillis(10)));
+        assertEquals(1, observedServer.getTasks().size());
+    }
+
+    @Test
+    void testPowerOfTwoChoicesLoadBalancing() throws SchedulerException, SchedulerFullException {
+        TaskScheduler taskScheduler = new TaskScheduler();
+        taskScheduler.setLoadBalancingStrategy(LoadBalancingStrategy.powerOfTwoChoices(0.5));
+        List<Server> servers = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            Server server = new Server();
+            servers.add(server);
+            taskScheduler.addServer(server);
+        }
+        for (int i = 0; i < 80; i++) {
+            taskScheduler.scheduleTask(new SimpleTask(Integer.toString(i), Duration.ofMillis(10)));
+        }
+        // Picking the emptier of two random servers keeps every server close to the average of 10 tasks
+        for (Server server : servers) {
+            assertTrue(server.getTasks().size() >= 3 && server.getTasks().size() <= 20);
+        }
+    }
+
+    @Test
+    void testInvalidLoadBalancingStrategy() {
+        TaskScheduler taskScheduler = new TaskScheduler();
+        assertThrows(SchedulerException.class, () -> taskScheduler.setLoadBalancingStrategy(null));
+        assertThrows(SchedulerException.class, () -> LoadBalancingStrategy.latencyAware(0));
+        assertThrows(SchedulerException.class, () -> LoadBalancingStrategy.powerOfTwoChoices(1.5));
+    }
+
+    @Test
+    void testLongestProcessingTimePlacement() throws SchedulerException, SchedulerFullException {
+        TaskScheduler taskScheduler = new TaskScheduler();
+        taskScheduler.addServer(new Server());
+        taskScheduler.addServer(new Server());
+        long[] durations = {30, 30, 30, 40, 50};
+        for (int i = 0; i < durations.length; i++) {
+            taskScheduler.scheduleTask(new SimpleTask(Integer.toString(i), Duration.ofMillis(durations[i])));
+        }
+        // Placing the tasks as they arrive leaves the 50 ms task on top of two 30 ms tasks
+        assertEquals(110, taskScheduler.predictMakespan());
+        // LPT places the 50 and 40 ms tasks first, then fills in with the 30 ms tasks
+        assertEquals(100, taskScheduler.planBatch());
+        assertEquals(5, taskScheduler.getServers().stream().mapToInt(server -> server.getTasks().size()).sum());
+    }
+
+    @Test
+    void testPlanBatchDuringExecution() throws SchedulerException, SchedulerFullException, InterruptedException {
+        TaskScheduler taskScheduler = new TaskScheduler();
+        Server server = new Server();
+        taskScheduler.addServer(server);
+        taskScheduler.scheduleTask(new UnderestimatedTask("1", 10, 200));
+        taskScheduler.scheduleTask(new UnderestimatedTask("2", 10, 200));
+        Thread execution = new Thread(() -> {
+            try {
+                taskScheduler.executeAll();
+            } catch (SchedulerFullException e) {
+                fail(e);
+            }
+        });
+        execution.start();
+        // Wait for one task to start, leaving the other queued
+        long deadline = System.currentTimeMillis() + 5000;
+        while (server.getTasks().size() > 1 && System.currentTimeMillis() < deadline) {
+            Thread.onSpinWait();
+        }
+        synchronized (taskScheduler) {
+            List<Task> queued = server.getTasks();
+            // The running task still counts towards the server's load, and planning must not reset it
+            assertEquals(20, taskScheduler.getServerDurations(server));
+            assertEquals(10, taskScheduler.planBatch());
+            assertEquals(queued, server.getTasks());
+            assertEquals(20, taskScheduler.getServerDurations(server));
+        }
+        execution.join(5000);
+        assertEquals(0, taskScheduler.getServerDurations(server));
+    }
+
+    @Test
+    void testWeightedServers() throws SchedulerException, SchedulerFullException, ServerException {
+        TaskScheduler taskScheduler = new TaskScheduler();
+        taskScheduler.setPlacementMode(TaskScheduler.PlacementMode.LONGEST_PROCESSING_TIME);
+        taskScheduler.setExecutionParallelism(2);
+        Server fastServer = new Server();
+        fastServer.setCapacity(1, 2);
+        Server slowServer = new Server();
+        taskScheduler.addServer(slowServer);
+        taskScheduler.addServer(fastServer);
+        for (int i = 0; i < 6; i++) {
+            taskScheduler.scheduleTask(new SimpleTask(Integer.toString(i), Duration.ofMillis(100)));
+        }
+        // The server that runs tasks twice as fast should take twice as many
+        assertEquals(200, taskScheduler.planBatch());
+        assertEquals(4, fastServer.getTasks().size());
+        assertEquals(2, slowServer.getTasks().size());
+        long startTime = System.currentTimeMillis();
+        Map<Server, List<Task>> results = taskScheduler.executeAll();
+        // Both servers finish after about 200 ms, rather than 300 ms for an even split of the tasks
+        assertTrue(System.currentTimeMillis() - startTime < 300);
+        assertEquals(6, results.values().stream().mapToInt(List::size).sum());
+        assertThrows(ServerException.class, () -> fastServer.setCapacity(1, 0));
+        assertThrows(ServerException.class, () -> fastServer.setCapacity(0, 1));
+    }
+
+    @Test
+    void testWorkStealing() throws SchedulerException, SchedulerFullException {
+        TaskScheduler taskScheduler = new TaskScheduler();
+        taskScheduler.setWorkStealing(true);
+        taskScheduler.setExecutionParallelism(2);
+        Server firstServer = new Server();
+        Server secondServer = new Server();
+        taskScheduler.addServer(firstServer);
+        taskScheduler.addServer(secondServer);
+        // The first task claims to take 10 ms but takes 300 ms, and the rest are split evenly behind it
+        taskScheduler.scheduleTask(new UnderestimatedTask("slow", 10, 300));
+        for (int i = 0; i < 20; i++) {
+            taskScheduler.scheduleTask(new SimpleTask(Integer.toString(i), Duration.ofMillis(20)));
+        }
+        long startTime = System.currentTimeMillis();
+        Map<Server, List<Task>> results = taskScheduler.executeAll();
+        // Without stealing, the server stuck on the slow task would take over 500 ms to get through its queue
+        assertTrue(System.currentTimeMillis() - startTime < 480);
+        assertTrue(taskScheduler.getStolenTaskCount() > 0);
+        assertEquals(21, results.values().stream().mapToInt(List::size).sum());
+        assertEquals(0, taskScheduler.getServerDurations(firstServer) + taskScheduler.getServerDurations(secondServer));
+    }
+
+    @Test
+    void testWorkStealingCreditsTheThief() throws SchedulerException, SchedulerFullException {
+        TaskScheduler taskScheduler = new TaskScheduler();
+        taskScheduler.setWorkStealing(true);
+        taskScheduler.setExecutionParallelism(2);
+        // Place tasks like the default strategy, but record what each server is credited with running
+        Map<Server, long[]> recorded = new ConcurrentHashMap<>();
+        taskScheduler.setLoadBalancingStrategy(new LoadBalancingStrategy() {
+            @Override
+            public Server chooseServer(Task task, List<Server> servers, ServerLoadQueue loads) {
+                return loads.peek();
+            }
+
+            @Override
+            public void recordExecution(Server server, int taskCount, long estimatedMs, long elapsedMs) {
+                recorded.put(server, new long[]{taskCount, estimatedMs, Math.max(1, elapsedMs)});
+            }
+        });
+        Server firstServer = new Server();
+        Server secondServer = new Server();
+        taskScheduler.addServer(firstServer);
+        taskScheduler.addServer(secondServer);
+        Task slow = new UnderestimatedTask("slow", 10, 300);
+        taskScheduler.scheduleTask(slow);
+        for (int i = 0; i < 20; i++) {
+            taskScheduler.scheduleTask(new SimpleTask(Integer.toString(i), Duration.ofMillis(20), 1000));
+        }
+        Map<Server, List<Task>> results = taskScheduler.executeAll();
+        assertTrue(taskScheduler.getStolenTaskCount() > 0);
+        Server victim = results.get(firstServer).contains(slow) ? firstServer : secondServer;
+        Server thief = victim == firstServer ? secondServer : firstServer;
+        // Each server is credited with the tasks it ran, so the thief gets the stolen tasks rather than the victim
+        for (Server server : List.of(victim, thief)) {
+            assertEquals(results.get(server).size(), recorded.get(server)[0]);
+            assertEquals(results.get(server).stream().mapToLong(task -> task.getEstimatedDuration().toMillis()).sum(),
+                    recorded.get(server)[1]);
+        }
+        // The victim spent the run stuck on the slow task, so it has shown the lower throughput
+        double victimThroughput = (double) recorded.get(victim)[1] / recorded.get(victim)[2];
+        double thiefThroughput = (double) recorded.get(thief)[1] / recorded.get(thief)[2];
+        assertTrue(victimThroughput < thiefThroughput, victimThroughput + " >= " + thiefThroughput);
+    }
+
+    // Task that takes longer to execute than its estimated duration
+    private static final class UnderestimatedTask extends SimpleTask {
+    @Serial
+    private static final long serialVersionUID = 1L;
+        private final long extraMs;
+
+        private UnderestimatedTask(String id, long estimatedMs, long extraMs) {
+            super(id, Duration.ofMillis(estimatedMs), estimatedMs + extraMs * 2);
+            this.extraMs = extraMs;
+        }
+
+        @Override
+        public void execute() throws TaskException {
+            try {
+                Thread.sleep(extraMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            super.execute();
+        }
+    }
+
+    @Test
+    void testScheduleAll() throws SchedulerException, SchedulerFullException {
+        TaskScheduler taskScheduler = new TaskScheduler();
+        Server firstServer = new Server();
+        Server secondServer = new Server();
+        taskScheduler.addServer(firstServer);
+        taskScheduler.addServer(secondServer);
+        List<Task> tasks = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            tasks.add(new SimpleTask(Integer.toString(i), Duration.ofMillis(10)));
+        }
+        ScheduleResult result = taskScheduler.scheduleAll(tasks);
+        assertTrue(result.isSuccessful());
+        assertEquals(1000, result.getScheduledTasks().size());
+        assertEquals(0, result.getHeldTaskCount());
+        // The batch is placed in one pass, spread evenly over the servers
+        assertEquals(500, firstServer.getTasks().size());
+        assertEquals(500, secondServer.getTasks().size());
+    }
+
+    @Test
+    void testScheduleAllReportsErrors() throws SchedulerException, SchedulerFullException {
+        TaskScheduler taskScheduler = new TaskScheduler();
+        Server server = new Server();
+        taskScheduler.addServer(server);
+        Task a = new SimpleTask("A", Duration.ofMillis(10));
+        Task b = new DependentTask("B", TaskPriority.MEDIUM, Duration.ofMillis(10), Set.of("A"));
+        Task duplicate = new SimpleTask("A", Duration.ofMillis(10));
+        Task orphan = new DependentTask("C", TaskPriority.MEDIUM, Duration.ofMillis(10), Set.of("missing"));
+        Task orphanDependent = new DependentTask("D", TaskPriority.MEDIUM, Duration.ofMillis(10), Set.of("C"));
+        Task cycleStart = new DependentTask("E", TaskPriority.MEDIUM, Duration.ofMillis(10), Set.of("F"));
+        Task cycleEnd = new DependentTask("F", TaskPriority.MEDIUM, Duration.ofMillis(10), Set.of("E"));
+        ScheduleResult result = taskScheduler.scheduleAll(
+                Arrays.asList(a, b, null, duplicate, orphan, orphanDependent, cycleStart, cycleEnd));
+        // A runs straight away and B waits for it, while every other task is reported rather than thrown
+        assertFalse(result.isSuccessful());
+        assertEquals(List.of(a, b), result.getScheduledTasks());
+        assertEquals(1, result.getHeldTaskCount());
+        assertEquals(List.of(a), server.getTasks());
+        List<ScheduleResult.Rejection> rejections = result.getRejections();
+        assertEquals(List.of(2, 3, 4, 5, 6, 7), rejections.stream().map(ScheduleResult.Rejection::getIndex).toList());
+        assertNull(rejections.get(0).getTask());
+        assertSame(orphanDependent, rejections.get(3).getTask());
+        assertTrue(rejections.get(3).getError().getMessage().contains("rejected task C"));
+        assertTrue(rejections.get(4).getError().getMessage().contains("cycle"));
+        // B is released once A completes
+        taskScheduler.executeAll();
+        assertEquals(List.of(b), server.getTasks());
+    }
+
+    @Test
+    void testScheduleAllOnlyHoldsDependentTasks() throws SchedulerException, SchedulerFullException {
+        TaskScheduler taskScheduler = new TaskScheduler(new RetryPolicy(1, 10, false));
+        Server server = new Server();
+        taskScheduler.addServer(server);
+        // Neither task is in the graph, since nothing waits for them and they don't wait for anything
+        Task failing = new FailingTask("A", Duration.ofMillis(10), Integer.MAX_VALUE);
+        Task standalone = new SimpleTask("B", Duration.ofMillis(10), 1000);
+        assertEquals(0, taskScheduler.scheduleAll(List.of(failing, standalone)).getHeldTaskCount());
+        taskScheduler.executeAll();
+        // A later group can't depend on the failed task, which was never held anywhere
+        Task dependent = new DependentTask("C", TaskPriority.MEDIUM, Duration.ofMillis(10), Set.of("A"));
+        ScheduleResult result = taskScheduler.scheduleAll(List.of(dependent));
+        assertTrue(result.getRejections().get(0).getError().getMessage().contains("unknown task A"));
+        // Depending on the completed task is fine
+        Task afterStandalone = new DependentTask("D", TaskPriority.MEDIUM, Duration.ofMillis(10), Set.of("B"));
+        assertTrue(taskScheduler.scheduleAll(List.of(afterStandalone)).isSuccessful());
+        assertEquals(List.of(afterStandalone), server.getTasks());
+    }
+
+    // Server that takes extra time for every batch of tasks, like a remote server paying network latency
+    private static final class SlowServer extends Server {
+        private final long extraLatencyMs;
+
+        private SlowServer(long extraLatencyMs) {
+            this.extraLatencyMs = extraLatencyMs;
+        }
+
+        @Override
+        public List<Task> executeTasks() throws ServerException {
+            try {
+                Thread.sleep(extraLatencyMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return super.executeTasks();
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package dev.evelyn.taskscheduler.tests;
+
+import dev.evelyn.taskscheduler.TimingWheel;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Tests all functionality of the TimingWheel class
+public class TimingWheelTest {
+
+    @Test
+    void runsActionsInDeadlineOrder() throws InterruptedException {
+        TimingWheel wheel = new TimingWheel(1, 8);
+        List<String> order = new CopyOnWriteArrayList<>();
+        CountDownLatch done = new CountDownLatch(3);
+        // 40 ms is several turns of an 8-slot wheel with 1 ms ticks
+        wheel.schedule(40, () -> { order.add("c"); done.countDown(); });
+        wheel.schedule(20, () -> { order.add("b"); done.countDown(); });
+        wheel.schedule(0, () -> { order.add("a"); done.countDown(); });
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(List.of("a", "b", "c"), order);
+        assertEquals(0, wheel.getPendingCount());
+        wheel.stop();
+    }
+
+    @Test
+    void waitsForDelay() throws InterruptedException {
+        TimingWheel wheel = new TimingWheel(5, 16);
+        CountDownLatch done = new CountDownLatch(1);
+        long startTime = System.nanoTime();
+        wheel.schedule(100, done::countDown);
+        assertEquals(1, wheel.getPendingCount());
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime) >= 100);
+        wheel.stop();
+    }
+
+    @Test
+    void failingActionDoesNotStopWheel() throws InterruptedException {
+        TimingWheel wheel = new TimingWheel(1, 4);
+        CountDownLatch done = new CountDownLatch(1);
+        wheel.schedule(0, () -> { throw new IllegalStateException("failed"); });
+        wheel.schedule(10, done::countDown);
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        wheel.stop();
+    }
+
+    @Test
+    void cancelledActionsDoNotRun() throws InterruptedException {
+        TimingWheel wheel = new TimingWheel(1, 8);
+        AtomicBoolean ran = new AtomicBoolean();
+        CountDownLatch done = new CountDownLatch(1);
+        TimingWheel.Timeout cancelled = wheel.schedule(20, () -> ran.set(true));
+        TimingWheel.Timeout later = wheel.schedule(40, done::countDown);
+        assertTrue(cancelled.cancel());
+        assertFalse(cancelled.cancel());
+        assertEquals(1, wheel.getPendingCount());
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertFalse(ran.get());
+        // An action that has already run can't be cancelled
+        assertFalse(later.cancel());
+        assertFalse(later.isCancelled());
+        assertEquals(0, wheel.getPendingCount());
+        wheel.stop();
+    }
+
+    @Test
+    void invalidConfiguration() {
+        assertThrows(IllegalArgumentException.class, () -> new TimingWheel(0, 8));
+        assertThrows(IllegalArgumentException.class, () -> new TimingWheel(1, 0));
+    }
+}